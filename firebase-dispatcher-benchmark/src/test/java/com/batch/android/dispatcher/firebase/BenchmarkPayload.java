@@ -0,0 +1,87 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.BatchMessage;
+import com.batch.android.BatchPushPayload;
+
+/**
+ * Immutable payload with optional custom UTM values
+ */
+final class BenchmarkPayload implements Batch.EventDispatcher.Payload
+{
+    private final String trackingId;
+    private final String webViewAnalyticsId;
+    private final String deeplink;
+    private final boolean customUtm;
+
+    BenchmarkPayload(String trackingId, String webViewAnalyticsId, String deeplink, boolean customUtm)
+    {
+        this.trackingId = trackingId;
+        this.webViewAnalyticsId = webViewAnalyticsId;
+        this.deeplink = deeplink;
+        this.customUtm = customUtm;
+    }
+
+    @Nullable
+    @Override
+    public String getTrackingId()
+    {
+        return trackingId;
+    }
+
+    @Nullable
+    @Override
+    public String getWebViewAnalyticsID()
+    {
+        return webViewAnalyticsId;
+    }
+
+    @Nullable
+    @Override
+    public String getDeeplink()
+    {
+        return deeplink;
+    }
+
+    @Nullable
+    @Override
+    public String getCustomValue(@NonNull String key)
+    {
+        if (!customUtm) {
+            return null;
+        }
+        switch (key) {
+            case "utm_campaign":
+                return "custom_campaign";
+            case "utm_source":
+                return "custom_source";
+            case "utm_medium":
+                return "custom_medium";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public boolean isPositiveAction()
+    {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public BatchMessage getMessagingPayload()
+    {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public BatchPushPayload getPushPayload()
+    {
+        return null;
+    }
+}
@@ -0,0 +1,83 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of a replay of many events, sent one by one or with dispatchEvents
+ * Events cycle through every type and a few campaign deeplinks, like a resync after an offline period.
+ * Scores are in events per millisecond.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BulkDispatchBenchmark
+{
+    private static final int EVENT_COUNT = 500;
+
+    /**
+     * Number of distinct deeplinks among the replayed events
+     */
+    @Param({"4", "500"})
+    public int deeplinkCount;
+
+    /**
+     * Size of the attribution cache, 0 to parse every deeplink that isn't shared within a bulk dispatch
+     */
+    @Param({"0", "64"})
+    public int cacheSize;
+
+    private List<DispatcherEvent> events;
+    private FirebaseDispatcher dispatcher;
+
+    @Setup
+    public void setUp(Blackhole blackhole)
+    {
+        Batch.EventDispatcher.Type[] types = Batch.EventDispatcher.Type.values();
+        events = new ArrayList<>(EVENT_COUNT);
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            String deeplink = DeeplinkShape.MIXED.deeplink + "&utm_id=" + (i % deeplinkCount);
+            events.add(new DispatcherEvent(types[i % types.length],
+                    new BenchmarkPayload("tracking-id-" + i, null, deeplink, true)));
+        }
+        dispatcher = new FirebaseDispatcher(new NoOpAnalyticsSink(blackhole),
+                new FirebaseDispatcherConfig.Builder().setAttributionCacheSize(cacheSize).build());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void perEvent()
+    {
+        for (int i = 0; i < events.size(); i++) {
+            DispatcherEvent event = events.get(i);
+            dispatcher.dispatchEvent(event.getType(), event.getPayload());
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(EVENT_COUNT)
+    public void bulk()
+    {
+        dispatcher.dispatchEvents(events);
+    }
+}
@@ -0,0 +1,132 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Stand-in for FirebaseAnalytics checking and counting the events of a stress run
+ * Events are built by {@link DispatcherStressSuite}, so that each one can be recognized from its
+ * parameters alone: the campaign is "t{thread}-{sequence}", and the deeplink of the sequence n
+ * carries "s{k}", "m{k}" and "c{k}" values, with k = n % deeplink count.
+ */
+final class CountingAnalyticsSink implements AnalyticsSink
+{
+    /**
+     * Counters of a thread are spread apart, so that threads don't share cache lines
+     */
+    private static final int STRIDE = 16;
+
+    private static final int MAX_REPORTED_ERRORS = 10;
+
+    private final Map<Batch.EventDispatcher.Type, String> eventNames;
+    private final int deeplinkCount;
+
+    private final AtomicLongArray counts;
+    private final AtomicLongArray sequenceSums;
+
+    private final AtomicLong errorCount = new AtomicLong();
+    private final Queue<String> errors = new ConcurrentLinkedQueue<>();
+
+    CountingAnalyticsSink(int threadCount, int deeplinkCount)
+    {
+        this.deeplinkCount = deeplinkCount;
+        this.counts = new AtomicLongArray(threadCount * STRIDE);
+        this.sequenceSums = new AtomicLongArray(threadCount * STRIDE);
+        this.eventNames = new EnumMap<>(Batch.EventDispatcher.Type.class);
+        Map<EventType, MappingSpec.EventSpec> specs = MappingSpec.defaults();
+        for (Batch.EventDispatcher.Type type : Batch.EventDispatcher.Type.values()) {
+            eventNames.put(type, specs.get(BatchEventAdapter.typeOf(type)).eventName);
+        }
+    }
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        if (params == null) {
+            fail(name, "no parameters");
+            return;
+        }
+        String campaign = params.getString(MappingSpec.CAMPAIGN);
+        int separator = campaign == null ? -1 : campaign.indexOf('-');
+        if (campaign == null || campaign.charAt(0) != 't' || separator < 0) {
+            fail(name, "unexpected campaign " + campaign);
+            return;
+        }
+        int thread = Integer.parseInt(campaign.substring(1, separator));
+        int sequence = Integer.parseInt(campaign.substring(separator + 1));
+        Batch.EventDispatcher.Type type = DispatcherStressSuite.typeOf(sequence);
+        int k = sequence % deeplinkCount;
+
+        if (!name.equals(eventNames.get(type))) {
+            fail(name, campaign + " should be sent as " + eventNames.get(type));
+        }
+        expect(name, campaign, params, MappingSpec.CONTENT, "c" + k);
+        if (type.isNotificationEvent()) {
+            expect(name, campaign, params, MappingSpec.SOURCE, "s" + k);
+            expect(name, campaign, params, MappingSpec.MEDIUM, "m" + k);
+        } else {
+            expect(name, campaign, params, MappingSpec.SOURCE, "batch");
+            expect(name, campaign, params, MappingSpec.MEDIUM, "in-app");
+            expect(name, campaign, params, MappingSpec.BATCH_TRACKING_ID, campaign);
+        }
+
+        counts.incrementAndGet(thread * STRIDE);
+        sequenceSums.addAndGet(thread * STRIDE, sequence);
+    }
+
+    private void expect(String name, String campaign, Bundle params, String key, String expected)
+    {
+        String value = params.getString(key);
+        if (!expected.equals(value)) {
+            fail(name, campaign + " has " + key + "=" + value + " instead of " + expected);
+        }
+    }
+
+    private void fail(String name, String message)
+    {
+        if (errorCount.incrementAndGet() <= MAX_REPORTED_ERRORS) {
+            errors.add(name + ": " + message);
+        }
+    }
+
+    /**
+     * @return Number of events received from a thread
+     */
+    long getCount(int thread)
+    {
+        return counts.get(thread * STRIDE);
+    }
+
+    /**
+     * @return Sum of the sequence numbers received from a thread, to detect events sent twice in place of others
+     */
+    long getSequenceSum(int thread)
+    {
+        return sequenceSums.get(thread * STRIDE);
+    }
+
+    long getErrorCount()
+    {
+        return errorCount.get();
+    }
+
+    /**
+     * @return The first errors found
+     */
+    @NonNull
+    Queue<String> getErrors()
+    {
+        return errors;
+    }
+}
@@ -0,0 +1,23 @@
+package com.batch.android.dispatcher.firebase;
+
+/**
+ * Representative deeplinks received by the dispatcher
+ */
+enum DeeplinkShape
+{
+    NONE(null),
+    NO_UTM("https://batch.com/products/42?ref=home&id=1234"),
+    QUERY("https://batch.com/products/42?utm_source=batchsdk&utm_medium=push-batch&utm_campaign=summer_sale&utm_content=button1"),
+    FRAGMENT("https://batch.com/products/42#utm_source=batch-sdk&utm_medium=pushbatch01&utm_campaign=154879548754&utm_content=notif001"),
+    MIXED("myapp://products/42?id=1234&utm_source=batchsdk&utm_campaign=summer_sale#utm_medium=pushbatch01&utm_content=notif001"),
+    ENCODED("https://batch.com/products/42?utm_source=%5Bbatchsdk%5D&utm_medium=push+batch&utm_campaign=caf%C3%A9%20sale#utm_content=%5Bnotif%5D"),
+    MALFORMED("  https://batch.com/?utm_source=100%&utm_medium=%zz&&=&utm_campaign#utm_content=  "),
+    NON_HIERARCHICAL("mailto:contact@batch.com?utm_source=batchsdk&utm_campaign=summer_sale");
+
+    final String deeplink;
+
+    DeeplinkShape(String deeplink)
+    {
+        this.deeplink = deeplink;
+    }
+}
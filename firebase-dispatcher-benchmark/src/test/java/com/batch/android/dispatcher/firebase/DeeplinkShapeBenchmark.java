@@ -0,0 +1,66 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of dispatchEvent depending on the deeplink shape and on custom payload UTM values
+ * Notification and in-app events read the deeplink differently, so both are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeeplinkShapeBenchmark
+{
+    @Param
+    public DeeplinkShape shape;
+
+    @Param({"false", "true"})
+    public boolean customUtm;
+
+    /**
+     * 0 measures parsing on every op, a positive size measures the cached path
+     */
+    @Param({"0", "64"})
+    public int attributionCacheSize;
+
+    private Batch.EventDispatcher.Payload payload;
+    private FirebaseDispatcher dispatcher;
+
+    @Setup
+    public void setUp(Blackhole blackhole)
+    {
+        payload = new BenchmarkPayload("campaign-tracking-id", null, shape.deeplink, customUtm);
+        dispatcher = new FirebaseDispatcher(new NoOpAnalyticsSink(blackhole),
+                new FirebaseDispatcherConfig.Builder().setAttributionCacheSize(attributionCacheSize).build());
+    }
+
+    @Benchmark
+    public void notificationOpen()
+    {
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+    }
+
+    @Benchmark
+    public void inAppClick()
+    {
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload);
+    }
+}
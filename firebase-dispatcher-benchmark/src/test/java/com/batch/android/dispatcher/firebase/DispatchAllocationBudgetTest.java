@@ -0,0 +1,124 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.Properties;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Check that dispatchEvent stays within the allocation budget of each representative payload shape
+ * Budgets are in bytes per event, checked in allocation-budgets.properties. When a change lowers
+ * allocations, lower the budget so that the gain can't silently regress.
+ * The attribution cache is disabled, so every event goes through deeplink parsing.
+ */
+public class DispatchAllocationBudgetTest
+{
+    private static final int WARMUP_EVENTS = 20_000;
+    private static final int MEASURED_EVENTS = 20_000;
+
+    private static com.sun.management.ThreadMXBean threadBean;
+    private static Properties budgets;
+
+    /**
+     * Keeps the last Bundle reachable, so that the JIT can't prove it unused and skip allocating it
+     */
+    private static final class RetainingAnalyticsSink implements AnalyticsSink
+    {
+        volatile Bundle lastParams;
+
+        @Override
+        public void logEvent(@NonNull String name, @Nullable Bundle params)
+        {
+            lastParams = params;
+        }
+    }
+
+    @BeforeClass
+    public static void setUpClass() throws IOException {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Per thread allocation counters are not available on this JVM",
+                bean instanceof com.sun.management.ThreadMXBean &&
+                        ((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported());
+        threadBean = (com.sun.management.ThreadMXBean) bean;
+        threadBean.setThreadAllocatedMemoryEnabled(true);
+
+        budgets = new Properties();
+        InputStream stream = DispatchAllocationBudgetTest.class.getClassLoader()
+                .getResourceAsStream("allocation-budgets.properties");
+        assertNotNull("allocation-budgets.properties is missing", stream);
+        try {
+            budgets.load(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testNoDeeplink() {
+        checkBudget("no_deeplink", DeeplinkShape.NONE, false);
+    }
+
+    @Test
+    public void testQueryUtm() {
+        checkBudget("query_utm", DeeplinkShape.QUERY, false);
+    }
+
+    @Test
+    public void testFragmentUtm() {
+        checkBudget("fragment_utm", DeeplinkShape.FRAGMENT, false);
+    }
+
+    @Test
+    public void testEncodedUtm() {
+        checkBudget("encoded_utm", DeeplinkShape.ENCODED, false);
+    }
+
+    @Test
+    public void testCustomPayloadOverrides() {
+        checkBudget("custom_payload", DeeplinkShape.MIXED, true);
+    }
+
+    private static void checkBudget(String name, DeeplinkShape shape, boolean customUtm) {
+        Batch.EventDispatcher.Payload payload =
+                new BenchmarkPayload("campaign-tracking-id", null, shape.deeplink, customUtm);
+        checkBudget("notification_open." + name, Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+        checkBudget("in_app_click." + name, Batch.EventDispatcher.Type.MESSAGING_CLICK, payload);
+    }
+
+    private static void checkBudget(String key, Batch.EventDispatcher.Type type, Batch.EventDispatcher.Payload payload) {
+        String budget = budgets.getProperty(key);
+        assertNotNull("No allocation budget for " + key, budget);
+
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(new RetainingAnalyticsSink(),
+                new FirebaseDispatcherConfig.Builder().setAttributionCacheSize(0).build());
+        for (int i = 0; i < WARMUP_EVENTS; i++) {
+            dispatcher.dispatchEvent(type, payload);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threadBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < MEASURED_EVENTS; i++) {
+            dispatcher.dispatchEvent(type, payload);
+        }
+        long bytesPerEvent = (threadBean.getThreadAllocatedBytes(threadId) - before) / MEASURED_EVENTS;
+
+        assertTrue(String.format(Locale.US,
+                "%s allocates %d bytes per event, over its budget of %s bytes", key, bytesPerEvent, budget),
+                bytesPerEvent <= Long.parseLong(budget.trim()));
+    }
+}
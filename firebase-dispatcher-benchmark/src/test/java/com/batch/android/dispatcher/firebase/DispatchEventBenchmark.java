@@ -0,0 +1,55 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of dispatchEvent for every event type, with a typical deeplink and custom payload
+ * The attribution cache is disabled so that every op parses the deeplink.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchEventBenchmark
+{
+    @Param({"NOTIFICATION_DISPLAY", "NOTIFICATION_OPEN", "NOTIFICATION_DISMISS",
+            "MESSAGING_SHOW", "MESSAGING_CLOSE", "MESSAGING_AUTO_CLOSE", "MESSAGING_CLOSE_ERROR",
+            "MESSAGING_CLICK", "MESSAGING_WEBVIEW_CLICK"})
+    public String type;
+
+    private Batch.EventDispatcher.Type eventType;
+    private Batch.EventDispatcher.Payload payload;
+    private FirebaseDispatcher dispatcher;
+
+    @Setup
+    public void setUp(Blackhole blackhole)
+    {
+        eventType = Batch.EventDispatcher.Type.valueOf(type);
+        payload = new BenchmarkPayload("campaign-tracking-id", "webview-button", DeeplinkShape.MIXED.deeplink, true);
+        dispatcher = new FirebaseDispatcher(new NoOpAnalyticsSink(blackhole),
+                new FirebaseDispatcherConfig.Builder().setAttributionCacheSize(0).build());
+    }
+
+    @Benchmark
+    public void dispatchEvent()
+    {
+        dispatcher.dispatchEvent(eventType, payload);
+    }
+}
@@ -0,0 +1,75 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the events the dispatch policy opts out of
+ * "disabledType" is a NOTIFICATION_DISMISS dropped by the enabled types and should cost a few nanoseconds,
+ * "withoutDeeplinkParameters" a MESSAGING_CLICK only sending parameters that don't come from the deeplink,
+ * and "full" the same click with every parameter. The attribution cache is disabled so that every op
+ * reading the deeplink parses it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchPolicyBenchmark
+{
+    private Batch.EventDispatcher.Payload payload;
+    private FirebaseDispatcher policyDispatcher;
+    private FirebaseDispatcher fullDispatcher;
+
+    @Setup
+    public void setUp(Blackhole blackhole)
+    {
+        payload = new BenchmarkPayload("campaign-tracking-id", "webview-button", DeeplinkShape.MIXED.deeplink, true);
+        EnumSet<Batch.EventDispatcher.Type> types = EnumSet.allOf(Batch.EventDispatcher.Type.class);
+        types.remove(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS);
+        types.remove(Batch.EventDispatcher.Type.MESSAGING_CLOSE_ERROR);
+        policyDispatcher = new FirebaseDispatcher(new NoOpAnalyticsSink(blackhole),
+                new FirebaseDispatcherConfig.Builder()
+                        .setAttributionCacheSize(0)
+                        .setEnabledEventTypes(types)
+                        .setEventParameters(Batch.EventDispatcher.Type.MESSAGING_CLICK,
+                                MappingSpec.CAMPAIGN, MappingSpec.SOURCE, MappingSpec.MEDIUM,
+                                MappingSpec.BATCH_TRACKING_ID)
+                        .build());
+        fullDispatcher = new FirebaseDispatcher(new NoOpAnalyticsSink(blackhole),
+                new FirebaseDispatcherConfig.Builder().setAttributionCacheSize(0).build());
+    }
+
+    @Benchmark
+    public void disabledType()
+    {
+        policyDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload);
+    }
+
+    @Benchmark
+    public void withoutDeeplinkParameters()
+    {
+        policyDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload);
+    }
+
+    @Benchmark
+    public void full()
+    {
+        fullDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload);
+    }
+}
@@ -0,0 +1,374 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.BatchMessage;
+import com.batch.android.BatchPushPayload;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Multi-threaded stress suite of the dispatcher, run on the host JVM:
+ * ./gradlew :firebase-dispatcher-benchmark:stress
+ *
+ * Each scenario sends millions of events of every type from 1 to 16 threads into
+ * {@link CountingAnalyticsSink}, then checks that no event was lost, duplicated or sent with
+ * another event's parameters, and that no dispatch threw. Throughput is reported for each thread count,
+ * with its scaling relative to a single thread.
+ * The process exits with a non-zero status when a check fails, so it can gate changes to the caching
+ * and queueing code. New configurations to cover are added to {@link #scenarios()}.
+ *
+ * Arguments: [--events total events per run] [--threads comma separated thread counts]
+ */
+public final class DispatcherStressSuite
+{
+    private static final int DEFAULT_EVENT_COUNT = 2_000_000;
+
+    private static final int[] DEFAULT_THREAD_COUNTS = {1, 2, 4, 8, 16};
+
+    /**
+     * Number of distinct deeplinks, above the default attribution cache size so that it both hits and misses
+     */
+    static final int DEEPLINK_COUNT = 256;
+
+    private static final Batch.EventDispatcher.Type[] TYPES = Batch.EventDispatcher.Type.values();
+
+    private static final String[] DEEPLINKS = new String[DEEPLINK_COUNT];
+
+    static {
+        for (int k = 0; k < DEEPLINK_COUNT; k++) {
+            DEEPLINKS[k] = "https://batch.com/products/" + k + "?id=" + k + "&utm_source=s" + k +
+                    "&utm_content=c" + k + "#utm_medium=m" + k;
+        }
+    }
+
+    private static final Executor DIRECT = new Executor()
+    {
+        @Override
+        public void execute(@NonNull Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    /**
+     * A dispatcher configuration to stress
+     */
+    private abstract static class Scenario
+    {
+        final String name;
+
+        /**
+         * Whether events are also checked by an additional sink
+         */
+        final boolean fanOut;
+
+        Scenario(String name, boolean fanOut)
+        {
+            this.name = name;
+            this.fanOut = fanOut;
+        }
+
+        @NonNull
+        abstract FirebaseDispatcherConfig.Builder config();
+    }
+
+    private static List<Scenario> scenarios()
+    {
+        List<Scenario> scenarios = new ArrayList<>();
+        scenarios.add(new Scenario("sync", false)
+        {
+            @NonNull
+            @Override
+            FirebaseDispatcherConfig.Builder config()
+            {
+                return new FirebaseDispatcherConfig.Builder();
+            }
+        });
+        scenarios.add(new Scenario("sync-no-cache", false)
+        {
+            @NonNull
+            @Override
+            FirebaseDispatcherConfig.Builder config()
+            {
+                return new FirebaseDispatcherConfig.Builder().setAttributionCacheSize(0);
+            }
+        });
+        scenarios.add(new Scenario("sync-metrics", false)
+        {
+            @NonNull
+            @Override
+            FirebaseDispatcherConfig.Builder config()
+            {
+                return new FirebaseDispatcherConfig.Builder().setMetricsEnabled(true);
+            }
+        });
+        scenarios.add(new Scenario("async", false)
+        {
+            @NonNull
+            @Override
+            FirebaseDispatcherConfig.Builder config()
+            {
+                // Producers wait for room rather than dropping, so that every event can be accounted for
+                return new FirebaseDispatcherConfig.Builder()
+                        .setAsyncDispatchEnabled(true)
+                        .setAsyncQueueCapacity(4096)
+                        .setAsyncOverflowPolicy(FirebaseDispatcherConfig.OverflowPolicy.BLOCK)
+                        .setAsyncBlockTimeout(1, TimeUnit.MINUTES);
+            }
+        });
+        scenarios.add(new Scenario("fan-out", true)
+        {
+            @NonNull
+            @Override
+            FirebaseDispatcherConfig.Builder config()
+            {
+                return new FirebaseDispatcherConfig.Builder();
+            }
+        });
+        return scenarios;
+    }
+
+    private static final class StressPayload implements Batch.EventDispatcher.Payload
+    {
+        private final String trackingId;
+        private final String customCampaign;
+        private final String deeplink;
+
+        StressPayload(String trackingId, String customCampaign, String deeplink)
+        {
+            this.trackingId = trackingId;
+            this.customCampaign = customCampaign;
+            this.deeplink = deeplink;
+        }
+
+        @Nullable
+        @Override
+        public String getTrackingId()
+        {
+            return trackingId;
+        }
+
+        @Nullable
+        @Override
+        public String getWebViewAnalyticsID()
+        {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public String getDeeplink()
+        {
+            return deeplink;
+        }
+
+        @Nullable
+        @Override
+        public String getCustomValue(@NonNull String key)
+        {
+            return UtmKey.CAMPAIGN.parameterName.equals(key) ? customCampaign : null;
+        }
+
+        @Override
+        public boolean isPositiveAction()
+        {
+            return false;
+        }
+
+        @Nullable
+        @Override
+        public BatchMessage getMessagingPayload()
+        {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public BatchPushPayload getPushPayload()
+        {
+            return null;
+        }
+    }
+
+    private static final class Result
+    {
+        final double eventsPerSecond;
+        final List<String> failures;
+
+        Result(double eventsPerSecond, List<String> failures)
+        {
+            this.eventsPerSecond = eventsPerSecond;
+            this.failures = failures;
+        }
+    }
+
+    private DispatcherStressSuite()
+    {
+    }
+
+    /**
+     * @return The type of the event with a sequence number, cycling through every type
+     */
+    static Batch.EventDispatcher.Type typeOf(int sequence)
+    {
+        return TYPES[sequence % TYPES.length];
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        int eventCount = DEFAULT_EVENT_COUNT;
+        int[] threadCounts = DEFAULT_THREAD_COUNTS;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            if ("--events".equals(args[i])) {
+                eventCount = Integer.parseInt(args[i + 1]);
+            } else if ("--threads".equals(args[i])) {
+                String[] values = args[i + 1].split(",");
+                threadCounts = new int[values.length];
+                for (int j = 0; j < values.length; j++) {
+                    threadCounts[j] = Integer.parseInt(values[j].trim());
+                }
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        System.out.println(String.format(Locale.US, "%d events per run, threads %s",
+                eventCount, Arrays.toString(threadCounts)));
+        System.out.println(String.format(Locale.US, "%-16s %8s %14s %8s", "scenario", "threads", "events/s", "scaling"));
+        int failedRuns = 0;
+        for (Scenario scenario : scenarios()) {
+            // Warm up the JIT so that the single thread baseline isn't penalized
+            run(scenario, 1, Math.max(1, eventCount / 10));
+            double baseline = 0;
+            for (int threads : threadCounts) {
+                Result result = run(scenario, threads, eventCount);
+                if (baseline == 0) {
+                    baseline = result.eventsPerSecond;
+                }
+                System.out.println(String.format(Locale.US, "%-16s %8d %14.0f %7.2fx%s",
+                        scenario.name, threads, result.eventsPerSecond, result.eventsPerSecond / baseline,
+                        result.failures.isEmpty() ? "" : "  FAILED"));
+                for (String failure : result.failures) {
+                    System.out.println("    " + failure);
+                }
+                if (!result.failures.isEmpty()) {
+                    failedRuns++;
+                }
+            }
+        }
+        if (failedRuns > 0) {
+            System.out.println(failedRuns + " failed run(s)");
+            System.exit(1);
+        }
+        System.out.println("All runs passed");
+    }
+
+    private static Result run(@NonNull Scenario scenario, int threadCount, int eventCount) throws InterruptedException
+    {
+        final int perThread = eventCount / threadCount;
+        CountingAnalyticsSink sink = new CountingAnalyticsSink(threadCount, DEEPLINK_COUNT);
+        CountingAnalyticsSink additionalSink = null;
+        FirebaseDispatcherConfig.Builder config = scenario.config();
+        if (scenario.fanOut) {
+            additionalSink = new CountingAnalyticsSink(threadCount, DEEPLINK_COUNT);
+            config.addAnalyticsSink(additionalSink, DIRECT);
+        }
+        final FirebaseDispatcher dispatcher = new FirebaseDispatcher(sink, config.build());
+
+        // Payloads are built upfront so that only dispatching is measured
+        final StressPayload[][] payloads = new StressPayload[threadCount][perThread];
+        for (int t = 0; t < threadCount; t++) {
+            for (int n = 0; n < perThread; n++) {
+                String id = "t" + t + "-" + n;
+                String deeplink = DEEPLINKS[n % DEEPLINK_COUNT];
+                payloads[t][n] = typeOf(n).isNotificationEvent() ?
+                        new StressPayload(null, id, deeplink) :
+                        new StressPayload(id, null, deeplink);
+            }
+        }
+
+        final Queue<Throwable> exceptions = new ConcurrentLinkedQueue<>();
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final StressPayload[] threadPayloads = payloads[t];
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        for (int n = 0; n < threadPayloads.length; n++) {
+                            dispatcher.dispatchEvent(typeOf(n), threadPayloads[n]);
+                        }
+                    } catch (Throwable e) {
+                        exceptions.add(e);
+                    }
+                }
+            }, "BatchStress-" + t);
+            threads[t].start();
+        }
+
+        long startTime = System.nanoTime();
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        boolean flushed = dispatcher.flush(1, TimeUnit.MINUTES);
+        long elapsed = System.nanoTime() - startTime;
+        dispatcher.shutdown();
+
+        List<String> failures = new ArrayList<>();
+        if (!flushed) {
+            failures.add("Events still queued after the flush timeout");
+        }
+        for (Throwable exception : exceptions) {
+            failures.add("Dispatch threw " + exception);
+        }
+        if (dispatcher.getDroppedEventCount() > 0) {
+            failures.add(dispatcher.getDroppedEventCount() + " events dropped by the async queue");
+        }
+        check(sink, "sink", threadCount, perThread, failures);
+        if (additionalSink != null) {
+            check(additionalSink, "additional sink", threadCount, perThread, failures);
+        }
+        DispatcherMetrics metrics = dispatcher.getMetrics();
+        if (metrics != null && metrics.getTotalDispatchedCount() != (long) perThread * threadCount) {
+            failures.add("Metrics counted " + metrics.getTotalDispatchedCount() + " dispatched events");
+        }
+
+        double eventsPerSecond = (double) perThread * threadCount * TimeUnit.SECONDS.toNanos(1) / elapsed;
+        return new Result(eventsPerSecond, failures);
+    }
+
+    private static void check(@NonNull CountingAnalyticsSink sink,
+                              @NonNull String sinkName,
+                              int threadCount,
+                              int perThread,
+                              @NonNull List<String> failures)
+    {
+        long expectedSum = (long) perThread * (perThread - 1) / 2;
+        for (int t = 0; t < threadCount; t++) {
+            if (sink.getCount(t) != perThread || sink.getSequenceSum(t) != expectedSum) {
+                failures.add(String.format(Locale.US, "%s got %d events from thread %d instead of %d (sequence sum %d instead of %d)",
+                        sinkName, sink.getCount(t), t, perThread, sink.getSequenceSum(t), expectedSum));
+            }
+        }
+        if (sink.getErrorCount() > 0) {
+            failures.add(sinkName + " got " + sink.getErrorCount() + " events with wrong parameters, first ones:");
+            failures.addAll(sink.getErrors());
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of journaling an event: appending it to the memory-mapped ring then committing it
+ * appendAndCommit measures the journal alone and should stay well under a microsecond,
+ * dispatchEvent compares a dispatch with the journal enabled and disabled.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EventJournalBenchmark
+{
+    @Param({"false", "true"})
+    public boolean journalEnabled;
+
+    private File file;
+    private EventJournal journal;
+    private String[] customKeys;
+    private Batch.EventDispatcher.Payload payload;
+    private FirebaseDispatcher dispatcher;
+
+    @Setup
+    public void setUp(Blackhole blackhole) throws IOException
+    {
+        file = File.createTempFile("batch-journal", ".bin");
+        journal = new EventJournal(file, EventJournal.DEFAULT_CAPACITY);
+        customKeys = MappingPlan.compileDefaults().getCustomPayloadKeys();
+        payload = new BenchmarkPayload("campaign-tracking-id", null, DeeplinkShape.MIXED.deeplink, true);
+        File dispatcherFile = new File(file.getPath() + ".dispatcher");
+        dispatcherFile.deleteOnExit();
+        dispatcher = new FirebaseDispatcher(new NoOpAnalyticsSink(blackhole),
+                new FirebaseDispatcherConfig.Builder()
+                        .setEventJournalFile(journalEnabled ? dispatcherFile : null)
+                        .build());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException
+    {
+        journal.close();
+        file.delete();
+    }
+
+    @Benchmark
+    public void appendAndCommit()
+    {
+        journal.commit(journal.append(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload, customKeys));
+    }
+
+    @Benchmark
+    public void dispatchEvent()
+    {
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+    }
+}
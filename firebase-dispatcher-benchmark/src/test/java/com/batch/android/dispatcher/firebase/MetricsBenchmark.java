@@ -0,0 +1,71 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Overhead of metrics collection
+ * recordLatency and countEvent measure the collector alone, dispatchEvent compares a dispatch
+ * with metrics enabled and disabled. The difference should stay within a few nanoseconds
+ * on top of the cost of the System.nanoTime calls.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark
+{
+    @Param({"false", "true"})
+    public boolean metricsEnabled;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final MetricsCollector collector = new MetricsCollector();
+    private long latency = 1234;
+
+    private Batch.EventDispatcher.Payload payload;
+    private FirebaseDispatcher dispatcher;
+
+    @Setup
+    public void setUp(Blackhole blackhole)
+    {
+        payload = new BenchmarkPayload("campaign-tracking-id", null, DeeplinkShape.QUERY.deeplink, false);
+        dispatcher = new FirebaseDispatcher(new NoOpAnalyticsSink(blackhole),
+                new FirebaseDispatcherConfig.Builder().setMetricsEnabled(metricsEnabled).build());
+    }
+
+    @Benchmark
+    public void recordLatency()
+    {
+        // Vary the value so that several buckets are touched
+        latency = (latency * 31 + 7) & 0xfffff;
+        histogram.record(latency);
+    }
+
+    @Benchmark
+    public void countEvent()
+    {
+        collector.onEventReceived(Batch.EventDispatcher.Type.NOTIFICATION_OPEN);
+    }
+
+    @Benchmark
+    public void dispatchEvent()
+    {
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+    }
+}
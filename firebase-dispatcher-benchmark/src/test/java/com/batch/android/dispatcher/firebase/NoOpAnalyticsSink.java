@@ -0,0 +1,28 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Stand-in for FirebaseAnalytics that only hands the event to JMH, so it isn't optimized away
+ */
+final class NoOpAnalyticsSink implements AnalyticsSink
+{
+    private final Blackhole blackhole;
+
+    NoOpAnalyticsSink(Blackhole blackhole)
+    {
+        this.blackhole = blackhole;
+    }
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        blackhole.consume(name);
+        blackhole.consume(params);
+    }
+}
@@ -0,0 +1,100 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import com.batch.android.Batch;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of building the Firebase parameters of an event, once its deeplink is parsed
+ * "overriding" reproduces the previous approach: a default sized Bundle where defaults, deeplink values
+ * and custom payload values are put in turn, overriding each other. "plan" resolves precedence first
+ * and fills a right-sized Bundle. "platformFree" maps into the core module's immutable parameters,
+ * as on a plain JVM. Run with "-prof gc" to compare allocations.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParamsBuilderBenchmark
+{
+    @Param({"NOTIFICATION_OPEN", "MESSAGING_CLICK"})
+    public String type;
+
+    private Batch.EventDispatcher.Payload payload;
+    private AttributionPayload attributionPayload;
+    private UtmAttributes attributes;
+    private MappingPlan.EventPlan plan;
+    private boolean notification;
+
+    @Setup
+    public void setUp()
+    {
+        Batch.EventDispatcher.Type eventType = Batch.EventDispatcher.Type.valueOf(type);
+        payload = new BenchmarkPayload("campaign-tracking-id", "webview-button", DeeplinkShape.MIXED.deeplink, true);
+        attributionPayload = BatchEventAdapter.payloadOf(payload);
+        attributes = UtmExtractor.extract(payload.getDeeplink());
+        plan = MappingPlan.compileDefaults().get(BatchEventAdapter.typeOf(eventType));
+        notification = eventType.isNotificationEvent();
+    }
+
+    @Benchmark
+    public Bundle plan()
+    {
+        return plan.apply(attributionPayload, attributes, 0, null, null, Tracer.NONE, BundleParameterWriter.INSTANCE);
+    }
+
+    @Benchmark
+    public EventParameters platformFree()
+    {
+        return plan.apply(attributionPayload, attributes, 0, null, null, Tracer.NONE, EventParameters.WRITER)
+                .build(plan.eventName);
+    }
+
+    @Benchmark
+    public Bundle overriding()
+    {
+        Bundle params = new Bundle();
+        if (notification) {
+            params.putString(MappingSpec.SOURCE, "batch");
+            params.putString(MappingSpec.MEDIUM, "push");
+            putIfNotNull(params, MappingSpec.CAMPAIGN, attributes.get(UtmKey.CAMPAIGN));
+            putIfNotNull(params, MappingSpec.MEDIUM, attributes.get(UtmKey.MEDIUM));
+            putIfNotNull(params, MappingSpec.SOURCE, attributes.get(UtmKey.SOURCE));
+            putIfNotNull(params, MappingSpec.CONTENT, attributes.get(UtmKey.CONTENT));
+        } else {
+            params.putString(MappingSpec.CAMPAIGN, payload.getTrackingId());
+            params.putString(MappingSpec.SOURCE, "batch");
+            params.putString(MappingSpec.MEDIUM, "in-app");
+            params.putString(MappingSpec.BATCH_TRACKING_ID, payload.getTrackingId());
+            putIfNotNull(params, MappingSpec.BATCH_WEBVIEW_ANALYTICS_ID, payload.getWebViewAnalyticsID());
+            putIfNotNull(params, MappingSpec.CONTENT, attributes.get(UtmKey.CONTENT));
+        }
+        putIfNotNull(params, MappingSpec.CAMPAIGN, payload.getCustomValue(UtmKey.CAMPAIGN.parameterName));
+        putIfNotNull(params, MappingSpec.MEDIUM, payload.getCustomValue(UtmKey.MEDIUM.parameterName));
+        putIfNotNull(params, MappingSpec.SOURCE, payload.getCustomValue(UtmKey.SOURCE.parameterName));
+        return params;
+    }
+
+    private static void putIfNotNull(Bundle bundle, String key, String value)
+    {
+        if (value != null) {
+            bundle.putString(key, value);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Heap retained by the parameter values of queued events, with and without interning
+ * Firebase keeps the parameters of an event until it is uploaded, which the sink mimics by keeping
+ * every Bundle. The event mix is synthetic, generated by the test: a few campaigns sent with per-user
+ * deeplinks, and in-app messages with several clicks each, whose tracking ids are fresh strings in every payload.
+ */
+public class StringRetentionTest
+{
+    private static final int EVENT_COUNT = 5_000;
+
+    private static final class RetainingAnalyticsSink implements AnalyticsSink
+    {
+        final List<Bundle> retained = new ArrayList<>();
+
+        @Override
+        public void logEvent(@NonNull String name, @Nullable Bundle params)
+        {
+            if (params != null) {
+                retained.add(params);
+            }
+        }
+    }
+
+    @Test
+    public void testInterningReducesRetainedHeap() {
+        long withoutInterning = retainedStringBytes(0);
+        long withInterning = retainedStringBytes(FirebaseDispatcherConfig.DEFAULT_STRING_INTERNER_CAPACITY);
+        double reduction = 1 - (double) withInterning / withoutInterning;
+        assertTrue(String.format(Locale.US,
+                "Interning should at least halve the values retained by %d events: %d bytes without interning, " +
+                        "%d bytes with (-%.1f%%)",
+                EVENT_COUNT, withoutInterning, withInterning, reduction * 100), reduction >= 0.5);
+    }
+
+    private static long retainedStringBytes(int internerCapacity) {
+        RetainingAnalyticsSink sink = new RetainingAnalyticsSink();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                .setStringInternerCapacity(internerCapacity)
+                .build());
+        Batch.EventDispatcher.Type[] inAppTypes = {
+                Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK,
+                Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK,
+                Batch.EventDispatcher.Type.MESSAGING_CLICK,
+                Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+        };
+        for (int i = 0; i < EVENT_COUNT; i++) {
+            int campaign = i % 12;
+            if (i % 2 == 0) {
+                // Deeplinks carry a user id, so the attribution cache doesn't share their values
+                String deeplink = "https://batch.com/offers/" + campaign + "?uid=" + i +
+                        "&utm_source=newsletter&utm_medium=push&utm_campaign=spring_offer_" + campaign +
+                        "#utm_content=hero_banner";
+                Batch.EventDispatcher.Type type = i % 4 == 0 ?
+                        Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY :
+                        Batch.EventDispatcher.Type.NOTIFICATION_OPEN;
+                dispatcher.dispatchEvent(type, new BenchmarkPayload(null, null, deeplink, false));
+            } else {
+                String trackingId = new String("in-app-campaign-tracking-id-" + campaign);
+                dispatcher.dispatchEvent(inAppTypes[(i / 2) % inAppTypes.length],
+                        new BenchmarkPayload(trackingId, new String("webview-button-cta"), null, false));
+            }
+        }
+
+        IdentityHashMap<Object, Boolean> values = new IdentityHashMap<>();
+        for (Bundle params : sink.retained) {
+            for (String key : params.keySet()) {
+                Object value = params.get(key);
+                if (value instanceof String) {
+                    values.put(value, Boolean.TRUE);
+                }
+            }
+        }
+        long bytes = 0;
+        for (Object value : values.keySet()) {
+            bytes += shallowSize((String) value);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return Estimated size of a String and its Latin-1 backing array, on a 64-bit JVM with compressed oops
+     */
+    private static long shallowSize(@NonNull String value) {
+        return 24 + ((16 + value.length() + 7) & ~7);
+    }
+}
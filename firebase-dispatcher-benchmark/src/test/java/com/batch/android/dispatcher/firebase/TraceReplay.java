@@ -0,0 +1,232 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a trace captured with {@link FirebaseDispatcherConfig.Builder#setTraceCaptureFile(File)}
+ * through the dispatcher, on the host JVM:
+ * ./gradlew :firebase-dispatcher-benchmark:replay -PreplayArgs="trace.bin"
+ *
+ * Records are decoded upfront, so that only dispatching is measured. After warmup passes, each
+ * measured pass dispatches every record in capture order and times each call, reporting throughput
+ * and latency percentiles. The events sent are digested in order, so that two versions of the
+ * dispatcher can be checked to send exactly the same events for the same trace: the digest is
+ * printed, and --dump writes the events themselves, one per line, to diff them.
+ *
+ * Arguments: trace file [--warmup passes] [--passes measured passes] [--dump output file]
+ */
+public final class TraceReplay
+{
+    private static final int DEFAULT_WARMUP_PASSES = 5;
+    private static final int DEFAULT_MEASURED_PASSES = 5;
+
+    /**
+     * Digests the events sent, and optionally writes them out
+     */
+    private static final class DigestSink implements AnalyticsSink
+    {
+        private final MessageDigest digest;
+        private final Map<String, Long> counts = new TreeMap<>();
+        private final StringBuilder line = new StringBuilder();
+
+        @Nullable
+        private Writer dump;
+
+        DigestSink() throws NoSuchAlgorithmException
+        {
+            this.digest = MessageDigest.getInstance("SHA-256");
+        }
+
+        @Override
+        public void logEvent(@NonNull String name, @Nullable Bundle params)
+        {
+            // Bundles don't keep an order, so parameters are sorted to get a stable line
+            line.setLength(0);
+            line.append(name);
+            if (params != null) {
+                String[] keys = params.keySet().toArray(new String[0]);
+                Arrays.sort(keys);
+                for (String key : keys) {
+                    line.append(' ').append(key).append('=').append(params.get(key));
+                }
+            }
+            line.append('\n');
+            String value = line.toString();
+            digest.update(value.getBytes(RecordCodec.UTF_8));
+            Long count = counts.get(name);
+            counts.put(name, count == null ? 1 : count + 1);
+            if (dump != null) {
+                try {
+                    dump.write(value);
+                } catch (IOException e) {
+                    throw new RuntimeException("Could not write the event dump", e);
+                }
+            }
+        }
+
+        void reset(@Nullable Writer dump)
+        {
+            digest.reset();
+            counts.clear();
+            this.dump = dump;
+        }
+
+        @NonNull
+        String hexDigest()
+        {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format(Locale.US, "%02x", b));
+            }
+            return hex.toString();
+        }
+    }
+
+    private TraceReplay()
+    {
+    }
+
+    public static void main(String[] args) throws Exception
+    {
+        if (args.length == 0) {
+            throw new IllegalArgumentException("Usage: TraceReplay trace [--warmup passes] [--passes passes] [--dump file]");
+        }
+        File trace = new File(args[0]);
+        int warmupPasses = DEFAULT_WARMUP_PASSES;
+        int measuredPasses = DEFAULT_MEASURED_PASSES;
+        File dumpFile = null;
+        for (int i = 1; i + 1 < args.length; i += 2) {
+            if ("--warmup".equals(args[i])) {
+                warmupPasses = Integer.parseInt(args[i + 1]);
+            } else if ("--passes".equals(args[i])) {
+                measuredPasses = Math.max(1, Integer.parseInt(args[i + 1]));
+            } else if ("--dump".equals(args[i])) {
+                dumpFile = new File(args[i + 1]);
+            } else {
+                throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+        }
+
+        List<TraceReader.Record> records = read(trace);
+        if (records.isEmpty()) {
+            System.out.println("No replayable event in " + trace);
+            return;
+        }
+        long capturedNanos = records.get(records.size() - 1).timestampNanos - records.get(0).timestampNanos;
+        System.out.println(String.format(Locale.US, "%d events captured over %.1f s",
+                records.size(), capturedNanos / 1e9));
+
+        DigestSink sink = new DigestSink();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder().build());
+        for (int pass = 0; pass < warmupPasses; pass++) {
+            replay(dispatcher, records, null);
+        }
+
+        LatencyHistogram histogram = new LatencyHistogram();
+        long elapsed = 0;
+        String digest = null;
+        for (int pass = 0; pass < measuredPasses; pass++) {
+            Writer dump = pass == 0 && dumpFile != null ?
+                    new OutputStreamWriter(new FileOutputStream(dumpFile), RecordCodec.UTF_8) : null;
+            sink.reset(dump);
+            try {
+                elapsed += replay(dispatcher, records, histogram);
+            } finally {
+                if (dump != null) {
+                    dump.close();
+                }
+            }
+            String passDigest = sink.hexDigest();
+            if (digest != null && !digest.equals(passDigest)) {
+                System.out.println("Passes sent different events, the dispatcher isn't deterministic for this trace");
+                System.exit(1);
+            }
+            digest = passDigest;
+        }
+        dispatcher.shutdown();
+
+        LatencySnapshot latencies = histogram.snapshot(false);
+        System.out.println(String.format(Locale.US, "%.0f events/s over %d passes",
+                (double) records.size() * measuredPasses * TimeUnit.SECONDS.toNanos(1) / elapsed, measuredPasses));
+        System.out.println(String.format(Locale.US, "latency ns: p50 %d, p90 %d, p99 %d, p99.9 %d, max %d",
+                latencies.getPercentileNanos(50), latencies.getPercentileNanos(90),
+                latencies.getPercentileNanos(99), latencies.getPercentileNanos(99.9), latencies.getMaxNanos()));
+        // Counts of the last pass, every pass sends the same events
+        for (Map.Entry<String, Long> entry : sink.counts.entrySet()) {
+            System.out.println(String.format(Locale.US, "%-32s %10d", entry.getKey(), entry.getValue()));
+        }
+        System.out.println("digest " + digest);
+        if (dumpFile != null) {
+            System.out.println("events written to " + dumpFile);
+        }
+    }
+
+    /**
+     * @return The records of a trace, without those of event types this version doesn't know
+     */
+    @NonNull
+    static List<TraceReader.Record> read(@NonNull File trace) throws IOException
+    {
+        List<TraceReader.Record> records = new ArrayList<>();
+        int skipped = 0;
+        TraceReader reader = new TraceReader(trace);
+        try {
+            TraceReader.Record record;
+            while ((record = reader.next()) != null) {
+                if (record.type != null) {
+                    records.add(record);
+                } else {
+                    skipped++;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        if (skipped > 0) {
+            System.out.println(skipped + " events of unknown types skipped");
+        }
+        return records;
+    }
+
+    /**
+     * Dispatch every record in order
+     *
+     * @param histogram Histogram of each dispatch latency, null not to time them
+     * @return Time spent dispatching, in nanoseconds
+     */
+    private static long replay(@NonNull FirebaseDispatcher dispatcher,
+                               @NonNull List<TraceReader.Record> records,
+                               @Nullable LatencyHistogram histogram)
+    {
+        long total = 0;
+        for (int i = 0; i < records.size(); i++) {
+            TraceReader.Record record = records.get(i);
+            long start = System.nanoTime();
+            dispatcher.dispatchEvent(record.type, record);
+            long elapsed = System.nanoTime() - start;
+            total += elapsed;
+            if (histogram != null) {
+                histogram.record(elapsed);
+            }
+        }
+        return total;
+    }
+}
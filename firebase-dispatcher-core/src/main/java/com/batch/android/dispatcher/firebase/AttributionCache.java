@@ -0,0 +1,166 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded LRU cache of the UTM attributes resolved from a deeplink
+ * The same deeplink is usually seen several times (display, open and dismiss of a notification,
+ * or a whole campaign sent with one link), so each one only needs to be parsed once.
+ * Deeplinks without UTM tags are cached too, as {@link UtmAttributes#EMPTY}.
+ */
+final class AttributionCache
+{
+    /**
+     * Deeplinks longer than this are parsed every time, to keep the memory used by the cache bounded
+     */
+    static final int MAX_DEEPLINK_LENGTH = 2048;
+
+    private final int maxSize;
+
+    private final ParameterMatcher matcher;
+
+    @Nullable
+    private final StringInterner interner;
+
+    @NonNull
+    private final Tracer tracer;
+
+    private final LinkedHashMap<String, UtmAttributes> entries;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    AttributionCache(int maxSize)
+    {
+        this(maxSize, ParameterMatcher.DEFAULT);
+    }
+
+    /**
+     * @param maxSize Maximum number of deeplinks kept in the cache. 0 disables caching.
+     * @param matcher Parameters extracted from the deeplinks
+     */
+    AttributionCache(int maxSize, @NonNull ParameterMatcher matcher)
+    {
+        this(maxSize, matcher, null);
+    }
+
+    /**
+     * @param interner Interner of the extracted values, null to keep a copy per deeplink
+     */
+    AttributionCache(int maxSize, @NonNull ParameterMatcher matcher, @Nullable StringInterner interner)
+    {
+        this(maxSize, matcher, interner, Tracer.NONE);
+    }
+
+    /**
+     * @param tracer Tracer of the deeplink parses
+     */
+    AttributionCache(int maxSize,
+                     @NonNull ParameterMatcher matcher,
+                     @Nullable StringInterner interner,
+                     @NonNull Tracer tracer)
+    {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("Cache size cannot be negative");
+        }
+        this.maxSize = maxSize;
+        this.matcher = matcher;
+        this.interner = interner;
+        this.tracer = tracer;
+        this.entries = new LinkedHashMap<String, UtmAttributes>(16, 0.75f, true)
+        {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, UtmAttributes> eldest)
+            {
+                if (size() > AttributionCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the attributes of a deeplink, parsing it only if it isn't cached yet
+     *
+     * @param deeplink Deeplink to resolve, may be surrounded by whitespace
+     * @return The resolved attributes, never null
+     */
+    @NonNull
+    UtmAttributes get(@Nullable String deeplink)
+    {
+        if (deeplink == null) {
+            return UtmAttributes.EMPTY;
+        }
+        if (!caches(deeplink)) {
+            missCount.incrementAndGet();
+            return parse(deeplink);
+        }
+
+        String key = deeplink.trim();
+        UtmAttributes attributes;
+        synchronized (entries) {
+            attributes = entries.get(key);
+        }
+        if (attributes != null) {
+            hitCount.incrementAndGet();
+            return attributes;
+        }
+
+        // Parse outside of the lock: concurrent misses on the same deeplink resolve to equal values
+        missCount.incrementAndGet();
+        attributes = parse(key);
+        synchronized (entries) {
+            entries.put(key, attributes);
+        }
+        return attributes;
+    }
+
+    /**
+     * @return Whether the attributes of a deeplink are kept once resolved
+     */
+    boolean caches(@NonNull String deeplink)
+    {
+        return maxSize > 0 && deeplink.length() <= MAX_DEEPLINK_LENGTH;
+    }
+
+    @NonNull
+    private UtmAttributes parse(@NonNull String deeplink)
+    {
+        tracer.beginSection(Tracer.DEEPLINK_PARSE);
+        UtmAttributes attributes = UtmExtractor.extract(deeplink, matcher, interner, tracer);
+        tracer.endSection();
+        return attributes;
+    }
+
+    int size()
+    {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    void clear()
+    {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    @NonNull
+    AttributionCacheStats getStats()
+    {
+        return new AttributionCacheStats(hitCount.get(),
+                missCount.get(),
+                evictionCount.get(),
+                size(),
+                maxSize);
+    }
+}
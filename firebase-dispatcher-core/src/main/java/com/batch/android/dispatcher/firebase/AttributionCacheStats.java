@@ -0,0 +1,74 @@
+package com.batch.android.dispatcher.firebase;
+
+/**
+ * Snapshot of the deeplink attribution cache counters
+ * See {@code FirebaseDispatcher.getAttributionCacheStats()}
+ */
+public final class AttributionCacheStats
+{
+    private final long hitCount;
+    private final long missCount;
+    private final long evictionCount;
+    private final int size;
+    private final int maxSize;
+
+    AttributionCacheStats(long hitCount, long missCount, long evictionCount, int size, int maxSize)
+    {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.evictionCount = evictionCount;
+        this.size = size;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return Number of deeplinks resolved from the cache
+     */
+    public long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /**
+     * @return Number of deeplinks that had to be parsed
+     */
+    public long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * @return Number of deeplinks removed from the cache to make room for newer ones
+     */
+    public long getEvictionCount()
+    {
+        return evictionCount;
+    }
+
+    /**
+     * @return Number of deeplinks currently cached
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return Maximum number of deeplinks the cache can hold
+     */
+    public int getMaxSize()
+    {
+        return maxSize;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "AttributionCacheStats{" +
+                "hits=" + hitCount +
+                ", misses=" + missCount +
+                ", evictions=" + evictionCount +
+                ", size=" + size + "/" + maxSize +
+                '}';
+    }
+}
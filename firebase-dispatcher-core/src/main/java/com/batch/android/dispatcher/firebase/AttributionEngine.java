@@ -0,0 +1,138 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Platform-free attribution: maps an event type and its payload fields to a Firebase event
+ * Holds a compiled {@link MappingPlan}, the cache of the parsed deeplinks and the interner of
+ * the parameter values. Parameters are made to fit Firebase's limits. Thread-safe.
+ * Platforms write the parameters into their own container through a {@link ParameterWriter}.
+ */
+final class AttributionEngine
+{
+    @NonNull
+    private final MappingPlan plan;
+
+    @NonNull
+    private final AttributionCache attributionCache;
+
+    /**
+     * Interner of the parameter values, null if disabled
+     */
+    @Nullable
+    private final StringInterner interner;
+
+    @NonNull
+    private final ParameterLimitStats.Counter limitCounter = new ParameterLimitStats.Counter();
+
+    @NonNull
+    private final Tracer tracer;
+
+    /**
+     * @param plan Compiled mapping
+     * @param attributionCacheSize Number of parsed deeplinks kept, 0 to parse every deeplink
+     * @param internerCapacity Capacity of the parameter value interner, 0 to disable interning
+     */
+    AttributionEngine(@NonNull MappingPlan plan, int attributionCacheSize, int internerCapacity)
+    {
+        this(plan, attributionCacheSize, internerCapacity, Tracer.NONE);
+    }
+
+    /**
+     * @param tracer Tracer of the mapping stages, {@link Tracer#NONE} to disable tracing
+     */
+    AttributionEngine(@NonNull MappingPlan plan, int attributionCacheSize, int internerCapacity, @NonNull Tracer tracer)
+    {
+        this.plan = plan;
+        this.tracer = tracer;
+        this.interner = internerCapacity > 0 ? new StringInterner(internerCapacity) : null;
+        this.attributionCache = new AttributionCache(attributionCacheSize, plan.getMatcher(), interner, tracer);
+    }
+
+    @NonNull
+    MappingPlan getPlan()
+    {
+        return plan;
+    }
+
+    /**
+     * @param type Event type, null for a type this version doesn't know
+     */
+    @NonNull
+    MappingPlan.EventPlan getEventPlan(@Nullable EventType type)
+    {
+        return plan.get(type);
+    }
+
+    /**
+     * @return The UTM attributes of a deeplink, {@link UtmAttributes#EMPTY} if null
+     */
+    @NonNull
+    UtmAttributes resolve(@Nullable String deeplink)
+    {
+        return attributionCache.get(deeplink);
+    }
+
+    /**
+     * @return Whether the attributes of a deeplink are cached once resolved, so that resolving it again is cheap
+     */
+    boolean cachesAttributes(@NonNull String deeplink)
+    {
+        return attributionCache.caches(deeplink);
+    }
+
+    /**
+     * Map an event into an immutable parameter set
+     *
+     * @param type Event type, null for a type this version doesn't know
+     */
+    @NonNull
+    EventParameters map(@Nullable EventType type, @NonNull AttributionPayload payload)
+    {
+        MappingPlan.EventPlan eventPlan = plan.get(type);
+        EventParameters.Builder params = write(eventPlan, payload, null, 0, EventParameters.WRITER);
+        return params != null ? params.build(eventPlan.eventName) : new EventParameters(eventPlan.eventName, null, null);
+    }
+
+    /**
+     * Write the parameters of an event into a platform container
+     *
+     * @param attributes UTM attributes of the payload's deeplink if already resolved, null to resolve them if needed
+     * @param extraCapacity Number of parameters the caller will add to the container
+     * @return The parameters, or null if the event has none
+     */
+    @Nullable
+    <T> T write(@NonNull MappingPlan.EventPlan eventPlan,
+                @NonNull AttributionPayload payload,
+                @Nullable UtmAttributes attributes,
+                int extraCapacity,
+                @NonNull ParameterWriter<T> writer)
+    {
+        if (attributes == null && eventPlan.readsDeeplink) {
+            tracer.beginSection(Tracer.PAYLOAD_READ);
+            String deeplink = payload.getDeeplink();
+            tracer.endSection();
+            attributes = attributionCache.get(deeplink);
+        }
+        return eventPlan.apply(payload, attributes, extraCapacity, interner, limitCounter, tracer, writer);
+    }
+
+    @NonNull
+    AttributionCacheStats getAttributionCacheStats()
+    {
+        return attributionCache.getStats();
+    }
+
+    @NonNull
+    Tracer getTracer()
+    {
+        return tracer;
+    }
+
+    @NonNull
+    ParameterLimitStats getParameterLimitStats()
+    {
+        return limitCounter.snapshot();
+    }
+}
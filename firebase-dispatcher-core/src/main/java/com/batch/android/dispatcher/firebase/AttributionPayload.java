@@ -0,0 +1,23 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Payload fields read by the attribution engine
+ * Same accessors as the Batch SDK event payload, which is adapted to this interface.
+ */
+interface AttributionPayload
+{
+    @Nullable
+    String getTrackingId();
+
+    @Nullable
+    String getWebViewAnalyticsID();
+
+    @Nullable
+    String getDeeplink();
+
+    @Nullable
+    String getCustomValue(@NonNull String key);
+}
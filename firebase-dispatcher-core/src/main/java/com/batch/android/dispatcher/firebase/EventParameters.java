@@ -0,0 +1,184 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Immutable result of mapping an event: its Firebase name and parameters, in mapping order
+ * Platform-free output of {@link AttributionEngine#map(EventType, AttributionPayload)}.
+ */
+final class EventParameters
+{
+    /**
+     * Writer building the parameters of an {@link EventParameters}
+     */
+    static final ParameterWriter<Builder> WRITER = new ParameterWriter<Builder>()
+    {
+        @NonNull
+        @Override
+        public Builder create(int size)
+        {
+            return new Builder(size);
+        }
+
+        @Override
+        public void put(@NonNull Builder parameters, @NonNull String key, @Nullable String value)
+        {
+            parameters.put(key, value);
+        }
+    };
+
+    /**
+     * Parameters being written, only published through {@link #build(String)}
+     */
+    static final class Builder
+    {
+        private final String[] keys;
+        private final String[] values;
+        private int size = 0;
+
+        Builder(int capacity)
+        {
+            this.keys = new String[capacity];
+            this.values = new String[capacity];
+        }
+
+        void put(@NonNull String key, @Nullable String value)
+        {
+            keys[size] = key;
+            values[size] = value;
+            size++;
+        }
+
+        @NonNull
+        EventParameters build(@NonNull String eventName)
+        {
+            return new EventParameters(eventName, Arrays.copyOf(keys, size), Arrays.copyOf(values, size));
+        }
+    }
+
+    @NonNull
+    private final String eventName;
+
+    /**
+     * Parameter keys and values, null if the event is sent without parameters
+     */
+    @Nullable
+    private final String[] keys;
+
+    @Nullable
+    private final String[] values;
+
+    EventParameters(@NonNull String eventName, @Nullable String[] keys, @Nullable String[] values)
+    {
+        this.eventName = eventName;
+        this.keys = keys;
+        this.values = values;
+    }
+
+    @NonNull
+    String getEventName()
+    {
+        return eventName;
+    }
+
+    /**
+     * @return Whether the event has parameters, which can still be empty. Firebase gets a null Bundle otherwise.
+     */
+    boolean hasParameters()
+    {
+        return keys != null;
+    }
+
+    int size()
+    {
+        return keys != null ? keys.length : 0;
+    }
+
+    @NonNull
+    String getKey(int index)
+    {
+        return keys[index];
+    }
+
+    @Nullable
+    String getValue(int index)
+    {
+        return values[index];
+    }
+
+    boolean containsKey(@NonNull String key)
+    {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * @return The value of a parameter, null if it isn't sent or is sent as null
+     */
+    @Nullable
+    String get(@NonNull String key)
+    {
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * @return The parameters in mapping order, null if the event has none
+     */
+    @Nullable
+    Map<String, String> toMap()
+    {
+        if (keys == null) {
+            return null;
+        }
+        Map<String, String> map = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            map.put(keys[i], values[i]);
+        }
+        return map;
+    }
+
+    private int indexOf(@NonNull String key)
+    {
+        for (int i = 0; i < size(); i++) {
+            if (keys[i].equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof EventParameters)) {
+            return false;
+        }
+        EventParameters other = (EventParameters) o;
+        return eventName.equals(other.eventName) &&
+                Arrays.equals(keys, other.keys) &&
+                Arrays.equals(values, other.values);
+    }
+
+    @Override
+    public int hashCode()
+    {
+        int hash = eventName.hashCode();
+        hash = 31 * hash + Arrays.hashCode(keys);
+        return 31 * hash + Arrays.hashCode(values);
+    }
+
+    @NonNull
+    @Override
+    public String toString()
+    {
+        return eventName + (keys != null ? toMap().toString() : "");
+    }
+}
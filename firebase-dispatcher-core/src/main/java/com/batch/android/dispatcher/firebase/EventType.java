@@ -0,0 +1,28 @@
+package com.batch.android.dispatcher.firebase;
+
+/**
+ * Event types mapped by the attribution engine
+ * Mirrors the Batch SDK event types by name, so that the engine doesn't depend on the SDK.
+ */
+enum EventType
+{
+    NOTIFICATION_DISPLAY,
+    NOTIFICATION_OPEN,
+    NOTIFICATION_DISMISS,
+    MESSAGING_SHOW,
+    MESSAGING_CLOSE,
+    MESSAGING_AUTO_CLOSE,
+    MESSAGING_CLOSE_ERROR,
+    MESSAGING_CLICK,
+    MESSAGING_WEBVIEW_CLICK;
+
+    boolean isNotificationEvent()
+    {
+        return this == NOTIFICATION_DISPLAY || this == NOTIFICATION_OPEN || this == NOTIFICATION_DISMISS;
+    }
+
+    boolean isMessagingEvent()
+    {
+        return !isNotificationEvent();
+    }
+}
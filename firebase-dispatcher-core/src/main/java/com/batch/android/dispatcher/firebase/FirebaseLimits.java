@@ -0,0 +1,65 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Firebase Analytics limits on event parameters and user properties
+ * Firebase drops the parameters whose name is too long or that come after the maximum count, and
+ * truncates the values that are too long, logging a warning each time. Lengths are in code points.
+ */
+final class FirebaseLimits
+{
+    static final int MAX_PARAMETER_NAME_LENGTH = 40;
+
+    static final int MAX_PARAMETER_VALUE_LENGTH = 100;
+
+    static final int MAX_PARAMETER_COUNT = 25;
+
+    /**
+     * Firebase rejects the user property values longer than this, rather than truncating them
+     */
+    static final int MAX_USER_PROPERTY_VALUE_LENGTH = 36;
+
+    /**
+     * Value limit of the parameters that can't exceed Firebase's, so that they skip the check
+     */
+    static final int NO_LIMIT = Integer.MAX_VALUE;
+
+    private FirebaseLimits()
+    {
+    }
+
+    /**
+     * @return Whether a string fits a maximum length in code points
+     */
+    static boolean fits(@NonNull String value, int maxLength)
+    {
+        // A string has at least as many chars as code points
+        return value.length() <= maxLength || value.codePointCount(0, value.length()) <= maxLength;
+    }
+
+    /**
+     * Truncate a string at a code point boundary, so that surrogate pairs are never split
+     *
+     * @return The value itself if it fits, its first maxLength code points otherwise
+     */
+    @Nullable
+    static String truncate(@Nullable String value, int maxLength)
+    {
+        if (value == null || value.length() <= maxLength) {
+            return value;
+        }
+        int length = value.length();
+        int end = 0;
+        for (int count = 0; count < maxLength && end < length; count++) {
+            if (Character.isHighSurrogate(value.charAt(end)) && end + 1 < length &&
+                    Character.isLowSurrogate(value.charAt(end + 1))) {
+                end += 2;
+            } else {
+                end++;
+            }
+        }
+        return end == length ? value : value.substring(0, end);
+    }
+}
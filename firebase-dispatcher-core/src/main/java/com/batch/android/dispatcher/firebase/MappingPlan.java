@@ -0,0 +1,344 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compiled form of a {@link MappingSpec}
+ * Rules are flattened into parallel arrays, so mapping an event is a loop over its parameters
+ * and their sources, without any branching on the event type.
+ */
+final class MappingPlan
+{
+    /**
+     * Mapping of a single event type
+     */
+    static final class EventPlan
+    {
+        @NonNull
+        final String eventName;
+
+        /**
+         * Whether the event has parameters, none are sent otherwise
+         */
+        final boolean hasParams;
+
+        /**
+         * Whether a source reads the deeplink, so that it is only parsed when needed
+         */
+        final boolean readsDeeplink;
+
+        final String[] outputKeys;
+        final boolean[] required;
+
+        /**
+         * Maximum length of each parameter's value, {@link FirebaseLimits#NO_LIMIT} if its sources are constants
+         */
+        final int[] valueLimits;
+
+        /**
+         * Sources of the parameter i are at [sourceOffsets[i], sourceOffsets[i + 1])
+         */
+        final int[] sourceOffsets;
+        final MappingSpec.SourceKind[] sourceKinds;
+
+        /**
+         * Index in the UtmAttributes values for deeplink sources
+         */
+        final int[] sourceIndexes;
+
+        /**
+         * Constant value, or custom payload key
+         */
+        final String[] sourceStrings;
+
+        EventPlan(@NonNull MappingSpec.EventSpec spec, @NonNull ParameterMatcher matcher)
+        {
+            this.eventName = spec.eventName;
+            MappingSpec.Rule[] rules = withValidNames(spec.rules != null ? spec.rules : new MappingSpec.Rule[0]);
+            this.hasParams = spec.rules != null;
+
+            int sourceCount = 0;
+            for (MappingSpec.Rule rule : rules) {
+                sourceCount += rule.sources.length;
+            }
+
+            outputKeys = new String[rules.length];
+            required = new boolean[rules.length];
+            valueLimits = new int[rules.length];
+            sourceOffsets = new int[rules.length + 1];
+            sourceKinds = new MappingSpec.SourceKind[sourceCount];
+            sourceIndexes = new int[sourceCount];
+            sourceStrings = new String[sourceCount];
+
+            boolean readsDeeplink = false;
+            int source = 0;
+            for (int i = 0; i < rules.length; i++) {
+                outputKeys[i] = rules[i].outputKey;
+                required[i] = rules[i].required;
+                valueLimits[i] = FirebaseLimits.NO_LIMIT;
+                sourceOffsets[i] = source;
+                for (MappingSpec.Source sourceSpec : rules[i].sources) {
+                    sourceKinds[source] = sourceSpec.kind;
+                    if (sourceSpec.kind != MappingSpec.SourceKind.CONSTANT) {
+                        valueLimits[i] = FirebaseLimits.MAX_PARAMETER_VALUE_LENGTH;
+                    }
+                    switch (sourceSpec.kind) {
+                        case CONSTANT:
+                            sourceStrings[source] = FirebaseLimits.truncate(sourceSpec.value,
+                                    FirebaseLimits.MAX_PARAMETER_VALUE_LENGTH);
+                            break;
+                        case QUERY:
+                            sourceIndexes[source] = UtmAttributes.queryIndex(matcher.indexOf(sourceSpec.parameter));
+                            readsDeeplink = true;
+                            break;
+                        case FRAGMENT:
+                            sourceIndexes[source] = UtmAttributes.fragmentIndex(matcher.indexOf(sourceSpec.parameter));
+                            readsDeeplink = true;
+                            break;
+                        case CUSTOM_PAYLOAD:
+                            sourceStrings[source] = sourceSpec.parameter;
+                            break;
+                        default:
+                            break;
+                    }
+                    source++;
+                }
+            }
+            sourceOffsets[rules.length] = source;
+            this.readsDeeplink = readsDeeplink;
+        }
+
+        /**
+         * Build the Firebase parameters of an event
+         * Values are resolved into the thread's slot array first, so that each parameter is put once
+         * into a container allocated with its final size.
+         * Parameters are made to fit Firebase's limits in the same pass: values are truncated to
+         * {@link FirebaseLimits#MAX_PARAMETER_VALUE_LENGTH}, and the parameters after
+         * {@link FirebaseLimits#MAX_PARAMETER_COUNT}, extra ones included, are dropped.
+         *
+         * @param attributes UTM attributes of the payload's deeplink, can only be null if the plan doesn't read it
+         * @param extraCapacity Number of parameters the caller will add to the container
+         * @param interner Interner of the values read from the payload, null to send them as is
+         * @param limitCounter Counter of the parameters changed to fit Firebase's limits, null to not count them
+         * @param tracer Tracer of the payload reads and of the container build
+         * @param writer Writer of the parameters into their container
+         * @return The parameters, or null if the event has none
+         */
+        @Nullable
+        <T> T apply(@NonNull AttributionPayload payload,
+                    @Nullable UtmAttributes attributes,
+                    int extraCapacity,
+                    @Nullable StringInterner interner,
+                    @Nullable ParameterLimitStats.Counter limitCounter,
+                    @NonNull Tracer tracer,
+                    @NonNull ParameterWriter<T> writer)
+        {
+            if (!hasParams) {
+                return null;
+            }
+            String[] slots = SLOTS.get();
+            if (slots.length < outputKeys.length) {
+                slots = new String[outputKeys.length];
+                SLOTS.set(slots);
+            }
+
+            int count = 0;
+            for (int i = 0; i < outputKeys.length; i++) {
+                String value = null;
+                for (int j = sourceOffsets[i]; j < sourceOffsets[i + 1] && value == null; j++) {
+                    switch (sourceKinds[j]) {
+                        case CONSTANT:
+                            value = sourceStrings[j];
+                            break;
+                        case TRACKING_ID:
+                            tracer.beginSection(Tracer.PAYLOAD_READ);
+                            value = intern(payload.getTrackingId(), interner);
+                            tracer.endSection();
+                            break;
+                        case WEBVIEW_ANALYTICS_ID:
+                            tracer.beginSection(Tracer.PAYLOAD_READ);
+                            value = intern(payload.getWebViewAnalyticsID(), interner);
+                            tracer.endSection();
+                            break;
+                        case QUERY:
+                        case FRAGMENT:
+                            // Already interned when the deeplink was parsed
+                            value = attributes.getValue(sourceIndexes[j]);
+                            break;
+                        case CUSTOM_PAYLOAD:
+                            tracer.beginSection(Tracer.CUSTOM_PAYLOAD_MERGE);
+                            value = intern(payload.getCustomValue(sourceStrings[j]), interner);
+                            tracer.endSection();
+                            break;
+                    }
+                }
+                if (value != null && value.length() > valueLimits[i]) {
+                    String truncated = FirebaseLimits.truncate(value, valueLimits[i]);
+                    if (truncated != value && limitCounter != null) {
+                        limitCounter.onValueTruncated();
+                    }
+                    value = truncated;
+                }
+                slots[i] = value;
+                if (value != null || required[i]) {
+                    count++;
+                }
+            }
+
+            int maxCount = Math.max(0, FirebaseLimits.MAX_PARAMETER_COUNT - extraCapacity);
+            if (count > maxCount && limitCounter != null) {
+                limitCounter.onParametersDropped(count - maxCount);
+            }
+            tracer.beginSection(Tracer.BUNDLE_BUILD);
+            T params = writer.create(Math.min(count, maxCount) + extraCapacity);
+            int written = 0;
+            for (int i = 0; i < outputKeys.length; i++) {
+                String value = slots[i];
+                if ((value != null || required[i]) && written < maxCount) {
+                    writer.put(params, outputKeys[i], value);
+                    written++;
+                }
+                // Don't keep payload values reachable from the thread
+                slots[i] = null;
+            }
+            tracer.endSection();
+            return params;
+        }
+
+        /**
+         * @return The rules whose parameter name fits Firebase's limit, as Firebase drops the others
+         */
+        @NonNull
+        private static MappingSpec.Rule[] withValidNames(@NonNull MappingSpec.Rule[] rules)
+        {
+            List<MappingSpec.Rule> valid = null;
+            for (int i = 0; i < rules.length; i++) {
+                boolean fits = FirebaseLimits.fits(rules[i].outputKey, FirebaseLimits.MAX_PARAMETER_NAME_LENGTH);
+                if (!fits && valid == null) {
+                    valid = new ArrayList<>(Arrays.asList(rules).subList(0, i));
+                } else if (fits && valid != null) {
+                    valid.add(rules[i]);
+                }
+            }
+            return valid != null ? valid.toArray(new MappingSpec.Rule[0]) : rules;
+        }
+
+        @Nullable
+        private static String intern(@Nullable String value, @Nullable StringInterner interner)
+        {
+            return interner != null ? interner.intern(value) : value;
+        }
+    }
+
+    /**
+     * Resolved parameter values, confined to the dispatching thread and reused across events
+     */
+    private static final ThreadLocal<String[]> SLOTS = new ThreadLocal<String[]>()
+    {
+        @Override
+        protected String[] initialValue()
+        {
+            return new String[16];
+        }
+    };
+
+    private final EnumMap<EventType, EventPlan> plans;
+
+    private final EventPlan unknownPlan;
+
+    /**
+     * Deeplink parameters read by any event, UTM keys first
+     */
+    @NonNull
+    private final ParameterMatcher matcher;
+
+    /**
+     * Custom payload keys read by any event
+     */
+    @NonNull
+    private final String[] customPayloadKeys;
+
+    MappingPlan(@NonNull Map<EventType, MappingSpec.EventSpec> specs)
+    {
+        List<String> parameters = new ArrayList<>();
+        Set<String> seenParameters = new HashSet<>();
+        for (UtmKey key : UtmKey.VALUES) {
+            parameters.add(key.parameterName);
+            seenParameters.add(key.parameterName);
+        }
+        Set<String> customKeys = new LinkedHashSet<>();
+        for (MappingSpec.EventSpec spec : specs.values()) {
+            if (spec.rules == null) {
+                continue;
+            }
+            for (MappingSpec.Rule rule : spec.rules) {
+                for (MappingSpec.Source source : rule.sources) {
+                    if (source.kind == MappingSpec.SourceKind.QUERY || source.kind == MappingSpec.SourceKind.FRAGMENT) {
+                        if (seenParameters.add(source.parameter.toLowerCase(Locale.US))) {
+                            parameters.add(source.parameter);
+                        }
+                    } else if (source.kind == MappingSpec.SourceKind.CUSTOM_PAYLOAD) {
+                        customKeys.add(source.parameter);
+                    }
+                }
+            }
+        }
+        matcher = parameters.size() == UtmKey.VALUES.length ? ParameterMatcher.DEFAULT : new ParameterMatcher(parameters);
+        customPayloadKeys = customKeys.toArray(new String[0]);
+
+        plans = new EnumMap<>(EventType.class);
+        for (Map.Entry<EventType, MappingSpec.EventSpec> entry : specs.entrySet()) {
+            plans.put(entry.getKey(), new EventPlan(entry.getValue(), matcher));
+        }
+        unknownPlan = new EventPlan(new MappingSpec.EventSpec(MappingSpec.UNKNOWN_EVENT_NAME, null), matcher);
+    }
+
+    /**
+     * @return The plan of the default {@link MappingSpec}
+     */
+    @NonNull
+    static MappingPlan compileDefaults()
+    {
+        return new MappingPlan(MappingSpec.defaults());
+    }
+
+    /**
+     * @return The deeplink parameters to extract for this plan
+     */
+    @NonNull
+    ParameterMatcher getMatcher()
+    {
+        return matcher;
+    }
+
+    /**
+     * @return The custom payload keys read by this plan
+     */
+    @NonNull
+    String[] getCustomPayloadKeys()
+    {
+        return customPayloadKeys;
+    }
+
+    /**
+     * @param type Event type, null for a type this version doesn't know
+     * @return The plan of an event type, sending an unknown event without parameters if the type has no mapping
+     */
+    @NonNull
+    EventPlan get(@Nullable EventType type)
+    {
+        EventPlan plan = plans.get(type);
+        return plan != null ? plan : unknownPlan;
+    }
+}
@@ -0,0 +1,259 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Declarative description of how Batch events are turned into Firebase events
+ * For each event type: the Firebase event name, and the parameters to send. A parameter takes
+ * the value of the first of its sources that has one, so sources are listed by decreasing precedence.
+ * The spec is compiled once into a {@link MappingPlan}.
+ */
+final class MappingSpec
+{
+    /**
+     * Firebase UTM parameter keys
+     */
+    static final String CAMPAIGN = "campaign";
+    static final String SOURCE = "source";
+    static final String MEDIUM = "medium";
+    static final String CONTENT = "content";
+
+    /**
+     * Key used to dispatch the Batch tracking Id on Firebase
+     */
+    static final String BATCH_TRACKING_ID = "batch_tracking_id";
+
+    static final String BATCH_WEBVIEW_ANALYTICS_ID = "batch_webview_analytics_id";
+
+    /**
+     * Event name used for event types this version doesn't know about
+     */
+    static final String UNKNOWN_EVENT_NAME = "batch_unknown";
+
+    enum SourceKind
+    {
+        CONSTANT,
+        TRACKING_ID,
+        WEBVIEW_ANALYTICS_ID,
+        QUERY,
+        FRAGMENT,
+        CUSTOM_PAYLOAD
+    }
+
+    /**
+     * Where the value of a parameter is read from
+     */
+    static final class Source
+    {
+        @NonNull
+        final SourceKind kind;
+
+        /**
+         * Parameter read from the deeplink or key read from the custom payload, null for other kinds
+         */
+        @Nullable
+        final String parameter;
+
+        /**
+         * Value of a constant, null for other kinds
+         */
+        @Nullable
+        final String value;
+
+        private Source(@NonNull SourceKind kind, @Nullable String parameter, @Nullable String value)
+        {
+            this.kind = kind;
+            this.parameter = parameter;
+            this.value = value;
+        }
+
+        static Source constant(@NonNull String value)
+        {
+            return new Source(SourceKind.CONSTANT, null, value);
+        }
+
+        static Source trackingId()
+        {
+            return new Source(SourceKind.TRACKING_ID, null, null);
+        }
+
+        static Source webViewAnalyticsId()
+        {
+            return new Source(SourceKind.WEBVIEW_ANALYTICS_ID, null, null);
+        }
+
+        static Source query(@NonNull UtmKey key)
+        {
+            return query(key.parameterName);
+        }
+
+        static Source query(@NonNull String parameter)
+        {
+            return new Source(SourceKind.QUERY, parameter, null);
+        }
+
+        static Source fragment(@NonNull UtmKey key)
+        {
+            return fragment(key.parameterName);
+        }
+
+        static Source fragment(@NonNull String parameter)
+        {
+            return new Source(SourceKind.FRAGMENT, parameter, null);
+        }
+
+        static Source customPayload(@NonNull UtmKey key)
+        {
+            return customPayload(key.parameterName);
+        }
+
+        static Source customPayload(@NonNull String key)
+        {
+            return new Source(SourceKind.CUSTOM_PAYLOAD, key, null);
+        }
+    }
+
+    /**
+     * A Firebase parameter and the sources of its value
+     */
+    static final class Rule
+    {
+        @NonNull
+        final String outputKey;
+
+        /**
+         * Whether the parameter is sent even when none of its sources has a value, as null
+         */
+        final boolean required;
+
+        @NonNull
+        final Source[] sources;
+
+        Rule(@NonNull String outputKey, boolean required, @NonNull Source... sources)
+        {
+            this.outputKey = outputKey;
+            this.required = required;
+            this.sources = sources;
+        }
+    }
+
+    /**
+     * Mapping of an event type
+     */
+    static final class EventSpec
+    {
+        @NonNull
+        final String eventName;
+
+        /**
+         * Parameters of the event, null if the event is sent without parameters
+         */
+        @Nullable
+        final Rule[] rules;
+
+        EventSpec(@NonNull String eventName, @Nullable Rule[] rules)
+        {
+            this.eventName = eventName;
+            this.rules = rules;
+        }
+    }
+
+    private MappingSpec()
+    {
+    }
+
+    /**
+     * @return The mapping of every event type known by this version
+     */
+    @NonNull
+    static EnumMap<EventType, EventSpec> defaults()
+    {
+        Rule[] notificationRules = new Rule[]{
+                // Custom payload values override the deeplink, whose query overrides its fragment
+                deeplinkRule(CAMPAIGN, UtmKey.CAMPAIGN, null),
+                deeplinkRule(SOURCE, UtmKey.SOURCE, "batch"),
+                deeplinkRule(MEDIUM, UtmKey.MEDIUM, "push"),
+                new Rule(CONTENT, false, Source.query(UtmKey.CONTENT), Source.fragment(UtmKey.CONTENT)),
+        };
+        Rule[] inAppRules = new Rule[]{
+                // The campaign defaults to the tracking id, only the content is read from the deeplink
+                new Rule(CAMPAIGN, true, Source.customPayload(UtmKey.CAMPAIGN), Source.trackingId()),
+                new Rule(SOURCE, false, Source.customPayload(UtmKey.SOURCE), Source.constant("batch")),
+                new Rule(MEDIUM, false, Source.customPayload(UtmKey.MEDIUM), Source.constant("in-app")),
+                new Rule(BATCH_TRACKING_ID, true, Source.trackingId()),
+                new Rule(BATCH_WEBVIEW_ANALYTICS_ID, false, Source.webViewAnalyticsId()),
+                new Rule(CONTENT, false, Source.query(UtmKey.CONTENT), Source.fragment(UtmKey.CONTENT)),
+        };
+
+        EnumMap<EventType, EventSpec> specs = new EnumMap<>(EventType.class);
+        specs.put(EventType.NOTIFICATION_DISPLAY,
+                new EventSpec("batch_notification_display", notificationRules));
+        specs.put(EventType.NOTIFICATION_OPEN,
+                new EventSpec("batch_notification_open", notificationRules));
+        specs.put(EventType.NOTIFICATION_DISMISS,
+                new EventSpec("batch_notification_dismiss", notificationRules));
+        specs.put(EventType.MESSAGING_SHOW,
+                new EventSpec("batch_in_app_show", inAppRules));
+        specs.put(EventType.MESSAGING_CLOSE,
+                new EventSpec("batch_in_app_close", inAppRules));
+        specs.put(EventType.MESSAGING_AUTO_CLOSE,
+                new EventSpec("batch_in_app_auto_close", inAppRules));
+        specs.put(EventType.MESSAGING_CLOSE_ERROR,
+                new EventSpec("batch_in_app_close_error", inAppRules));
+        specs.put(EventType.MESSAGING_CLICK,
+                new EventSpec("batch_in_app_click", inAppRules));
+        specs.put(EventType.MESSAGING_WEBVIEW_CLICK,
+                new EventSpec("batch_in_app_webview_click", inAppRules));
+        return specs;
+    }
+
+    /**
+     * Only keep some parameters of event types, so that the sources of the others are never read
+     * A deeplink is then only parsed if a kept parameter can come from it.
+     *
+     * @param specs Spec to amend, modified in place
+     * @param parameters Names of the parameters to keep by event type, types without an entry keep all of theirs
+     * @return The amended spec
+     */
+    @NonNull
+    static EnumMap<EventType, EventSpec> retainParameters(@NonNull EnumMap<EventType, EventSpec> specs,
+                                                          @NonNull Map<EventType, Set<String>> parameters)
+    {
+        for (Map.Entry<EventType, Set<String>> entry : parameters.entrySet()) {
+            EventSpec spec = specs.get(entry.getKey());
+            if (spec == null || spec.rules == null) {
+                continue;
+            }
+            List<Rule> rules = new ArrayList<>();
+            for (Rule rule : spec.rules) {
+                if (entry.getValue().contains(rule.outputKey)) {
+                    rules.add(rule);
+                }
+            }
+            specs.put(entry.getKey(), new EventSpec(spec.eventName, rules.toArray(new Rule[0])));
+        }
+        return specs;
+    }
+
+    /**
+     * Rule reading a UTM tag from the custom payload, then the deeplink query, then its fragment
+     *
+     * @param fallback Value used when the tag is found nowhere, null to omit the parameter
+     */
+    private static Rule deeplinkRule(@NonNull String outputKey, @NonNull UtmKey key, @Nullable String fallback)
+    {
+        if (fallback == null) {
+            return new Rule(outputKey, false,
+                    Source.customPayload(key), Source.query(key), Source.fragment(key));
+        }
+        return new Rule(outputKey, false,
+                Source.customPayload(key), Source.query(key), Source.fragment(key), Source.constant(fallback));
+    }
+}
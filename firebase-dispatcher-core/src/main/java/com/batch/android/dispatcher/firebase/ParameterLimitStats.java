@@ -0,0 +1,71 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Snapshot of the counters of the parameters changed to fit Firebase's limits
+ * See {@code FirebaseDispatcher.getParameterLimitStats()}
+ */
+public final class ParameterLimitStats
+{
+    /**
+     * Live counters, updated while parameters are built
+     */
+    static final class Counter
+    {
+        private final AtomicLong truncatedValueCount = new AtomicLong();
+        private final AtomicLong droppedParameterCount = new AtomicLong();
+
+        void onValueTruncated()
+        {
+            truncatedValueCount.incrementAndGet();
+        }
+
+        void onParametersDropped(int count)
+        {
+            droppedParameterCount.addAndGet(count);
+        }
+
+        @NonNull
+        ParameterLimitStats snapshot()
+        {
+            return new ParameterLimitStats(truncatedValueCount.get(), droppedParameterCount.get());
+        }
+    }
+
+    private final long truncatedValueCount;
+    private final long droppedParameterCount;
+
+    ParameterLimitStats(long truncatedValueCount, long droppedParameterCount)
+    {
+        this.truncatedValueCount = truncatedValueCount;
+        this.droppedParameterCount = droppedParameterCount;
+    }
+
+    /**
+     * @return Number of parameter values truncated to Firebase's maximum length
+     */
+    public long getTruncatedValueCount()
+    {
+        return truncatedValueCount;
+    }
+
+    /**
+     * @return Number of parameters not sent because their event had reached Firebase's maximum count
+     */
+    public long getDroppedParameterCount()
+    {
+        return droppedParameterCount;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "ParameterLimitStats{" +
+                "truncatedValues=" + truncatedValueCount +
+                ", droppedParameters=" + droppedParameterCount +
+                '}';
+    }
+}
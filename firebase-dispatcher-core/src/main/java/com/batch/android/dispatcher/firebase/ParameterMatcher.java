@@ -0,0 +1,195 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Case-insensitive matcher of the deeplink parameters read by the mapping rules
+ * Keys are compiled into a trie over their lowercase chars, so matching a parameter costs
+ * at most one step per char whatever the number of keys, and nothing is allocated.
+ * Each key gets an index, in the order keys were given.
+ */
+final class ParameterMatcher
+{
+    /**
+     * Matcher of the UTM keys only, indexed by {@link UtmKey#ordinal()}
+     */
+    static final ParameterMatcher DEFAULT = new ParameterMatcher(defaultKeys());
+
+    private static final int NO_MATCH = -1;
+
+    @NonNull
+    private final String[] keys;
+
+    /**
+     * Edges of the node n are at [edgeOffsets[n], edgeOffsets[n + 1]), sorted by label
+     */
+    private final int[] edgeOffsets;
+    private final char[] edgeLabels;
+    private final int[] edgeTargets;
+
+    /**
+     * Index of the key ending at each node, or NO_MATCH
+     */
+    private final int[] nodeKeys;
+
+    /**
+     * @param keys Keys to match, must be unique ignoring case. Their position is their index.
+     */
+    ParameterMatcher(@NonNull List<String> keys)
+    {
+        this.keys = new String[keys.size()];
+
+        // Build a pointer based trie first, then flatten it
+        List<Node> nodes = new ArrayList<>();
+        Node root = new Node();
+        nodes.add(root);
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i).toLowerCase(Locale.US);
+            if (key.isEmpty()) {
+                throw new IllegalArgumentException("Parameter names cannot be empty");
+            }
+            Node node = root;
+            for (int c = 0; c < key.length(); c++) {
+                node = node.child(key.charAt(c), nodes);
+            }
+            if (node.key != NO_MATCH) {
+                throw new IllegalArgumentException("Duplicate parameter name: " + keys.get(i));
+            }
+            node.key = i;
+            this.keys[i] = key;
+        }
+
+        int edgeCount = nodes.size() - 1;
+        edgeOffsets = new int[nodes.size() + 1];
+        edgeLabels = new char[edgeCount];
+        edgeTargets = new int[edgeCount];
+        nodeKeys = new int[nodes.size()];
+        int edge = 0;
+        for (int n = 0; n < nodes.size(); n++) {
+            Node node = nodes.get(n);
+            nodeKeys[n] = node.key;
+            edgeOffsets[n] = edge;
+            for (int i = 0; i < node.labels.length(); i++) {
+                edgeLabels[edge] = node.labels.charAt(i);
+                edgeTargets[edge] = node.children.get(i).id;
+                edge++;
+            }
+        }
+        edgeOffsets[nodes.size()] = edge;
+    }
+
+    /**
+     * Find the key matching a region of a string, ignoring case
+     *
+     * @param source String holding the parameter name
+     * @param start Start of the parameter name (inclusive)
+     * @param end End of the parameter name (exclusive)
+     * @return Index of the matching key, or -1 if the region isn't a known key
+     */
+    int match(@NonNull String source, int start, int end)
+    {
+        int node = 0;
+        for (int i = start; i < end; i++) {
+            char c = source.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            } else if (c > 0x7f) {
+                c = Character.toLowerCase(c);
+            }
+            node = step(node, c);
+            if (node < 0) {
+                return NO_MATCH;
+            }
+        }
+        return nodeKeys[node];
+    }
+
+    /**
+     * @return Index of a key, or -1 if it isn't known
+     */
+    int indexOf(@NonNull String key)
+    {
+        return match(key, 0, key.length());
+    }
+
+    int size()
+    {
+        return keys.length;
+    }
+
+    @NonNull
+    String getKey(int index)
+    {
+        return keys[index];
+    }
+
+    private int step(int node, char c)
+    {
+        // Fan-out is small in practice, binary search keeps wide nodes (like the root) cheap anyway
+        int low = edgeOffsets[node];
+        int high = edgeOffsets[node + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char label = edgeLabels[mid];
+            if (label < c) {
+                low = mid + 1;
+            } else if (label > c) {
+                high = mid - 1;
+            } else {
+                return edgeTargets[mid];
+            }
+        }
+        return NO_MATCH;
+    }
+
+    private static List<String> defaultKeys()
+    {
+        List<String> keys = new ArrayList<>();
+        for (UtmKey key : UtmKey.VALUES) {
+            keys.add(key.parameterName);
+        }
+        return keys;
+    }
+
+    private static final class Node
+    {
+        final int id;
+        int key = NO_MATCH;
+
+        /**
+         * Sorted labels of the children, parallel to children
+         */
+        String labels = "";
+        final List<Node> children = new ArrayList<>();
+
+        Node()
+        {
+            this.id = 0;
+        }
+
+        Node(int id)
+        {
+            this.id = id;
+        }
+
+        Node child(char label, List<Node> nodes)
+        {
+            int position = 0;
+            while (position < labels.length() && labels.charAt(position) < label) {
+                position++;
+            }
+            if (position < labels.length() && labels.charAt(position) == label) {
+                return children.get(position);
+            }
+            Node child = new Node(nodes.size());
+            nodes.add(child);
+            labels = labels.substring(0, position) + label + labels.substring(position);
+            children.add(position, child);
+            return child;
+        }
+    }
+}
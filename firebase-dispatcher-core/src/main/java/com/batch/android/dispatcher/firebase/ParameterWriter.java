@@ -0,0 +1,22 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Output of the parameters of a mapped event
+ * Lets the engine write straight into the platform's parameter container, so that mapping an
+ * event doesn't go through an intermediate copy.
+ *
+ * @param <T> Parameter container
+ */
+interface ParameterWriter<T>
+{
+    /**
+     * @param size Number of parameters that will be put, including those the caller adds afterwards
+     */
+    @NonNull
+    T create(int size);
+
+    void put(@NonNull T parameters, @NonNull String key, @Nullable String value);
+}
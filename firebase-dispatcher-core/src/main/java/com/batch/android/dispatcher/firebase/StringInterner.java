@@ -0,0 +1,166 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, thread-safe canonicalizer of parameter values
+ * Campaign, source, medium and tracking id values repeat across events, but every payload or deeplink
+ * gives a fresh copy, which Firebase then holds while it queues the event. Interning makes events
+ * share one copy of each value.
+ *
+ * Values are kept in a set-associative table: a value can only sit in one of the {@link #WAYS} slots
+ * of its set, and a full set evicts with the clock (second chance) algorithm. Values longer than
+ * the maximum length aren't interned, so memory is capped at capacity * maximum length chars.
+ * A char range is looked up without creating a String, one is only made on a miss.
+ */
+final class StringInterner
+{
+    /**
+     * Values longer than this are returned as is, they are rarely shared
+     */
+    static final int DEFAULT_MAX_LENGTH = 64;
+
+    static final int WAYS = 4;
+
+    private static final int LOCK_STRIPES = 16;
+
+    private final int maxLength;
+    private final int setMask;
+
+    /**
+     * Slots of the set s are at [s * WAYS, (s + 1) * WAYS), guarded by the lock of the set's stripe
+     */
+    private final String[] slots;
+    private final int[] hashes;
+    private final boolean[] referenced;
+    private final byte[] hands;
+
+    private final Object[] locks;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+
+    /**
+     * @param capacity Maximum number of interned values, rounded up to a power of two and at least {@link #WAYS}
+     */
+    StringInterner(int capacity)
+    {
+        this(capacity, DEFAULT_MAX_LENGTH);
+    }
+
+    StringInterner(int capacity, int maxLength)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Interner capacity must be positive");
+        }
+        int sets = 1;
+        while (sets * WAYS < capacity) {
+            sets <<= 1;
+        }
+        this.maxLength = maxLength;
+        this.setMask = sets - 1;
+        this.slots = new String[sets * WAYS];
+        this.hashes = new int[sets * WAYS];
+        this.referenced = new boolean[sets * WAYS];
+        this.hands = new byte[sets];
+        this.locks = new Object[Math.min(sets, LOCK_STRIPES)];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * @return The canonical instance of a value, which is the value itself if it wasn't interned yet
+     */
+    @Nullable
+    String intern(@Nullable String value)
+    {
+        if (value == null || value.length() > maxLength) {
+            return value;
+        }
+        return intern(value, 0, value.length(), value.hashCode(), value);
+    }
+
+    /**
+     * @return The canonical instance of a char range, only creating a String if it wasn't interned yet
+     */
+    @NonNull
+    String intern(@NonNull CharSequence source, int start, int end)
+    {
+        if (end - start > maxLength) {
+            return source.subSequence(start, end).toString();
+        }
+        // Same hash as String.hashCode(), so ranges and whole Strings find each other
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + source.charAt(i);
+        }
+        return intern(source, start, end, hash, null);
+    }
+
+    /**
+     * @param value The range as a String if the caller has one, reused on a miss
+     */
+    private String intern(@NonNull CharSequence source, int start, int end, int hash, @Nullable String value)
+    {
+        int set = (hash ^ (hash >>> 16)) & setMask;
+        int first = set * WAYS;
+        synchronized (locks[set % locks.length]) {
+            for (int slot = first; slot < first + WAYS; slot++) {
+                String candidate = slots[slot];
+                if (candidate != null && hashes[slot] == hash && regionEquals(candidate, source, start, end)) {
+                    referenced[slot] = true;
+                    hitCount.incrementAndGet();
+                    return candidate;
+                }
+            }
+
+            if (value == null) {
+                value = source.subSequence(start, end).toString();
+            }
+            // Clock eviction: skip and clear recently used slots, take the first one that wasn't
+            int hand = hands[set];
+            while (slots[first + hand] != null && referenced[first + hand]) {
+                referenced[first + hand] = false;
+                hand = (hand + 1) % WAYS;
+            }
+            slots[first + hand] = value;
+            hashes[first + hand] = hash;
+            referenced[first + hand] = false;
+            hands[set] = (byte) ((hand + 1) % WAYS);
+        }
+        missCount.incrementAndGet();
+        return value;
+    }
+
+    private static boolean regionEquals(@NonNull String candidate, @NonNull CharSequence source, int start, int end)
+    {
+        if (candidate.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (candidate.charAt(i - start) != source.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int capacity()
+    {
+        return slots.length;
+    }
+
+    long getHitCount()
+    {
+        return hitCount.get();
+    }
+
+    long getMissCount()
+    {
+        return missCount.get();
+    }
+}
@@ -0,0 +1,42 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Receives named sections around the stages of a dispatch, for system tracing or profiling
+ * Sections are begun and ended on the dispatching thread and nest: each {@link #endSection()}
+ * ends the last section begun on that thread.
+ * See {@code FirebaseDispatcherConfig.Builder.setTracer()}
+ */
+public interface Tracer
+{
+    String DISPATCH_EVENT = "Batch:dispatchEvent";
+    String PAYLOAD_READ = "Batch:payloadRead";
+    String DEEPLINK_PARSE = "Batch:deeplinkParse";
+    String QUERY_EXTRACTION = "Batch:queryExtraction";
+    String FRAGMENT_EXTRACTION = "Batch:fragmentExtraction";
+    String CUSTOM_PAYLOAD_MERGE = "Batch:customPayloadMerge";
+    String BUNDLE_BUILD = "Batch:bundleBuild";
+    String LOG_EVENT = "Batch:logEvent";
+
+    /**
+     * Tracer ignoring every section, used when tracing is disabled
+     * Its calls are empty and monomorphic, so the JIT inlines them away.
+     */
+    Tracer NONE = new Tracer()
+    {
+        @Override
+        public void beginSection(@NonNull String name)
+        {
+        }
+
+        @Override
+        public void endSection()
+        {
+        }
+    };
+
+    void beginSection(@NonNull String name);
+
+    void endSection();
+}
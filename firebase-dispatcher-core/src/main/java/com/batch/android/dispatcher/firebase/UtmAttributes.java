@@ -0,0 +1,105 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Immutable values of the parameters read from a deeplink
+ * Parameters are identified by their {@link ParameterMatcher} index, UTM keys by their ordinal.
+ * Query and fragment values are kept apart, so that the mapping rules decide which one wins.
+ * A missing parameter is null.
+ */
+final class UtmAttributes
+{
+    /**
+     * Attributes of a deeplink without any known parameter
+     */
+    static final UtmAttributes EMPTY = new UtmAttributes(new String[0], false);
+
+    /**
+     * Attributes of a deeplink that couldn't be parsed, and thus has no parameter
+     */
+    static final UtmAttributes MALFORMED = new UtmAttributes(new String[0], true);
+
+    private final String[] values;
+
+    private final boolean malformed;
+
+    /**
+     * @param values Values indexed by {@link #queryIndex(int)} and {@link #fragmentIndex(int)}.
+     *               Ownership is transferred.
+     * @param malformed Whether parts of the deeplink couldn't be parsed
+     */
+    UtmAttributes(@NonNull String[] values, boolean malformed)
+    {
+        this.values = values;
+        this.malformed = malformed;
+    }
+
+    /**
+     * @return Size of the values array for a number of parameters
+     */
+    static int valueCount(int parameterCount)
+    {
+        return parameterCount * 2;
+    }
+
+    static int queryIndex(int parameterIndex)
+    {
+        return parameterIndex * 2;
+    }
+
+    static int fragmentIndex(int parameterIndex)
+    {
+        return parameterIndex * 2 + 1;
+    }
+
+    /**
+     * @return The value of a UTM tag, the query overriding the fragment
+     */
+    @Nullable
+    String get(@NonNull UtmKey key)
+    {
+        String value = getFromQuery(key);
+        return value != null ? value : getFromFragment(key);
+    }
+
+    /**
+     * @param index Index of the value, from {@link #queryIndex(int)} or {@link #fragmentIndex(int)}
+     */
+    @Nullable
+    String getValue(int index)
+    {
+        return index < values.length ? values[index] : null;
+    }
+
+    @Nullable
+    String getFromQuery(@NonNull UtmKey key)
+    {
+        return getValue(queryIndex(key.ordinal()));
+    }
+
+    @Nullable
+    String getFromFragment(@NonNull UtmKey key)
+    {
+        return getValue(fragmentIndex(key.ordinal()));
+    }
+
+    /**
+     * @return Whether the deeplink is not a hierarchical URI, or holds invalid percent escapes
+     */
+    boolean isMalformed()
+    {
+        return malformed;
+    }
+
+    boolean isEmpty()
+    {
+        for (String value : values) {
+            if (value != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,262 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.charset.Charset;
+
+/**
+ * Single pass extractor of the UTM tags, and other parameters read by the mapping rules, of deeplinks
+ * Replaces Uri.parse and the split based parsing of the fragment: the deeplink is walked once,
+ * only UTM values are copied out and decoding only happens when an escape is actually present.
+ *
+ * Query and fragment values are kept apart: precedence is decided by the mapping rules
+ * ({@link MappingSpec}), which also handle custom payload values.
+ */
+final class UtmExtractor
+{
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * State of a parse, only allocated when the deeplink has a query or a fragment
+     */
+    private static final class Parse
+    {
+        @Nullable
+        final StringInterner interner;
+
+        String[] values;
+        boolean malformed;
+
+        Parse(@Nullable StringInterner interner)
+        {
+            this.interner = interner;
+        }
+    }
+
+    private UtmExtractor()
+    {
+    }
+
+    /**
+     * Extract the UTM tags of a deeplink
+     */
+    @NonNull
+    static UtmAttributes extract(@Nullable String deeplink)
+    {
+        return extract(deeplink, ParameterMatcher.DEFAULT);
+    }
+
+    /**
+     * Extract the parameters of a deeplink
+     * Never throws: non-hierarchical (opaque) URIs, like "mailto:", have no attributes, as with
+     * Uri.getQueryParameter. Invalid escapes are kept as is, and reported through {@link UtmAttributes#isMalformed()}.
+     *
+     * @param deeplink Deeplink to read, may be surrounded by whitespace
+     * @param matcher Parameters to extract
+     * @return The attributes, {@link UtmAttributes#EMPTY} if no parameter was found
+     */
+    @NonNull
+    static UtmAttributes extract(@Nullable String deeplink, @NonNull ParameterMatcher matcher)
+    {
+        return extract(deeplink, matcher, null);
+    }
+
+    /**
+     * Extract the parameters of a deeplink, canonicalizing their values
+     *
+     * @param interner Interner of the values, null to copy them out of the deeplink
+     */
+    @NonNull
+    static UtmAttributes extract(@Nullable String deeplink,
+                                 @NonNull ParameterMatcher matcher,
+                                 @Nullable StringInterner interner)
+    {
+        return extract(deeplink, matcher, interner, Tracer.NONE);
+    }
+
+    /**
+     * Extract the parameters of a deeplink, tracing the query and fragment extractions
+     */
+    @NonNull
+    static UtmAttributes extract(@Nullable String deeplink,
+                                 @NonNull ParameterMatcher matcher,
+                                 @Nullable StringInterner interner,
+                                 @NonNull Tracer tracer)
+    {
+        if (deeplink == null) {
+            return UtmAttributes.EMPTY;
+        }
+
+        // Trim without allocating a new string
+        int start = 0;
+        int end = deeplink.length();
+        while (start < end && deeplink.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && deeplink.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        if (start == end) {
+            return UtmAttributes.EMPTY;
+        }
+
+        // Same rules as android.net.Uri: the scheme ends at the first ':' found before any '/', '?' or '#',
+        // and the URI is hierarchical only if it has no scheme or if the scheme specific part starts with '/'
+        int partStart = start;
+        for (int i = start; i < end; i++) {
+            char c = deeplink.charAt(i);
+            if (c == ':') {
+                if (i + 1 == end || deeplink.charAt(i + 1) != '/') {
+                    return UtmAttributes.EMPTY;
+                }
+                partStart = i + 1;
+                break;
+            }
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+        }
+
+        int fragmentStart = indexOf(deeplink, '#', partStart, end);
+        int queryStart = indexOf(deeplink, '?', partStart, fragmentStart);
+
+        if (fragmentStart == end && queryStart == fragmentStart) {
+            return UtmAttributes.EMPTY;
+        }
+
+        Parse parse = new Parse(interner);
+        if (queryStart < fragmentStart) {
+            tracer.beginSection(Tracer.QUERY_EXTRACTION);
+            readParameters(deeplink, queryStart + 1, fragmentStart, true, matcher, parse);
+            tracer.endSection();
+        }
+        if (fragmentStart < end) {
+            tracer.beginSection(Tracer.FRAGMENT_EXTRACTION);
+            readParameters(deeplink, fragmentStart + 1, end, false, matcher, parse);
+            tracer.endSection();
+        }
+        if (parse.values == null) {
+            return parse.malformed ? UtmAttributes.MALFORMED : UtmAttributes.EMPTY;
+        }
+        return new UtmAttributes(parse.values, parse.malformed);
+    }
+
+    /**
+     * Read the known parameters of a "key=value&key=value" region
+     * In the query, the first occurrence of a key wins and a key without value is read as an empty string
+     * (like Uri.getQueryParameter). In the fragment, the last occurrence wins and empty values are ignored.
+     */
+    private static void readParameters(@NonNull String source,
+                                       int start,
+                                       int end,
+                                       boolean query,
+                                       @NonNull ParameterMatcher matcher,
+                                       @NonNull Parse parse)
+    {
+        int paramStart = start;
+        while (paramStart <= end) {
+            int paramEnd = indexOf(source, '&', paramStart, end);
+            int separator = indexOf(source, '=', paramStart, paramEnd);
+            int key = matcher.match(source, paramStart, separator);
+            if (key >= 0) {
+                int index = query ? UtmAttributes.queryIndex(key) : UtmAttributes.fragmentIndex(key);
+                String value = null;
+                if (query) {
+                    // A key without value is read as an empty string, so it also counts as the first occurrence
+                    if (parse.values == null || parse.values[index] == null) {
+                        value = separator < paramEnd ? decode(source, separator + 1, paramEnd, true, parse) : "";
+                    }
+                } else if (separator + 1 < paramEnd) {
+                    value = decode(source, separator + 1, paramEnd, false, parse);
+                }
+                if (value != null) {
+                    if (parse.values == null) {
+                        parse.values = new String[UtmAttributes.valueCount(matcher.size())];
+                    }
+                    parse.values[index] = value;
+                }
+            }
+            paramStart = paramEnd + 1;
+        }
+    }
+
+    /**
+     * Percent-decode a region of a string
+     * The region is returned as a plain substring when it holds no escape, or as its interned instance
+     * if the parse has an interner.
+     *
+     * @param convertPlus Whether '+' should be decoded as a space, as done for query parameters
+     * @param parse Parse state, flagged as malformed when an invalid escape is found. Can be null.
+     */
+    @NonNull
+    private static String decode(@NonNull String source,
+                                 int start,
+                                 int end,
+                                 boolean convertPlus,
+                                 @Nullable Parse parse)
+    {
+        int i = start;
+        while (i < end) {
+            char c = source.charAt(i);
+            if (c == '%' || (convertPlus && c == '+')) {
+                break;
+            }
+            i++;
+        }
+        StringInterner interner = parse != null ? parse.interner : null;
+        if (i == end) {
+            return interner != null ? interner.intern(source, start, end) : source.substring(start, end);
+        }
+
+        StringBuilder builder = new StringBuilder(end - start);
+        builder.append(source, start, i);
+        byte[] bytes = null;
+        while (i < end) {
+            char c = source.charAt(i);
+            if (c == '%') {
+                // Decode a whole run of escapes at once so multi-byte UTF-8 sequences are preserved
+                if (bytes == null) {
+                    bytes = new byte[(end - i) / 3];
+                }
+                int count = 0;
+                while (i + 2 < end && source.charAt(i) == '%') {
+                    int high = Character.digit(source.charAt(i + 1), 16);
+                    int low = Character.digit(source.charAt(i + 2), 16);
+                    if (high < 0 || low < 0) {
+                        break;
+                    }
+                    bytes[count++] = (byte) ((high << 4) | low);
+                    i += 3;
+                }
+                if (count > 0) {
+                    builder.append(new String(bytes, 0, count, UTF_8));
+                } else {
+                    // Invalid escape, keep it untouched
+                    if (parse != null) {
+                        parse.malformed = true;
+                    }
+                    builder.append(c);
+                    i++;
+                }
+            } else {
+                builder.append(convertPlus && c == '+' ? ' ' : c);
+                i++;
+            }
+        }
+        return interner != null ? interner.intern(builder, 0, builder.length()) : builder.toString();
+    }
+
+    /**
+     * @return The index of the char in [from, to), or to if not found
+     */
+    private static int indexOf(@NonNull String source, char c, int from, int to)
+    {
+        for (int i = from; i < to; i++) {
+            if (source.charAt(i) == c) {
+                return i;
+            }
+        }
+        return to;
+    }
+}
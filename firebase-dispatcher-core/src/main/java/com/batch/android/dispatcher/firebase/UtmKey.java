@@ -0,0 +1,31 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+/**
+ * UTM tag keys read from a deeplink or a custom payload
+ * Every {@link ParameterMatcher} built by the dispatcher starts with these keys, so their index is their ordinal.
+ * See : https://ga-dev-tools.appspot.com/campaign-url-builder/
+ */
+enum UtmKey
+{
+    CAMPAIGN("utm_campaign"),
+    SOURCE("utm_source"),
+    MEDIUM("utm_medium"),
+    CONTENT("utm_content"),
+    TERM("utm_term"),
+    ID("utm_id");
+
+    static final UtmKey[] VALUES = values();
+
+    /**
+     * Name of the parameter, as found in a deeplink or a custom payload
+     */
+    @NonNull
+    final String parameterName;
+
+    UtmKey(@NonNull String parameterName)
+    {
+        this.parameterName = parameterName;
+    }
+}
@@ -0,0 +1,80 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the deeplink attribution LRU cache
+ */
+public class AttributionCacheTest
+{
+    @Test
+    public void testRepeatedDeeplinkIsParsedOnce() {
+        AttributionCache cache = new AttributionCache(8);
+
+        UtmAttributes first = cache.get("https://batch.com?utm_campaign=yoloswag");
+        UtmAttributes second = cache.get("  https://batch.com?utm_campaign=yoloswag\n");
+
+        assertSame(first, second);
+        assertEquals("yoloswag", second.get(UtmKey.CAMPAIGN));
+        AttributionCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getSize());
+    }
+
+    @Test
+    public void testNegativeResultsAreCached() {
+        AttributionCache cache = new AttributionCache(8);
+
+        UtmAttributes malformed = cache.get("https://batch.com?utm_source=%zz");
+        assertTrue(malformed.isMalformed());
+        assertSame(malformed, cache.get("https://batch.com?utm_source=%zz"));
+
+        assertEquals(1, cache.getStats().getMissCount());
+        assertEquals(1, cache.getStats().getHitCount());
+    }
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        AttributionCache cache = new AttributionCache(2);
+
+        cache.get("https://batch.com?utm_source=a");
+        cache.get("https://batch.com?utm_source=b");
+        // Touch "a" so that "b" becomes the eldest entry
+        cache.get("https://batch.com?utm_source=a");
+        cache.get("https://batch.com?utm_source=c");
+
+        AttributionCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getEvictionCount());
+        assertEquals(2, stats.getSize());
+
+        cache.get("https://batch.com?utm_source=a");
+        assertEquals(2, cache.getStats().getHitCount());
+        cache.get("https://batch.com?utm_source=b");
+        assertEquals(4, cache.getStats().getMissCount());
+    }
+
+    @Test
+    public void testDisabledCache() {
+        AttributionCache cache = new AttributionCache(0);
+
+        cache.get("https://batch.com?utm_source=a");
+        cache.get("https://batch.com?utm_source=a");
+
+        assertEquals(0, cache.getStats().getHitCount());
+        assertEquals(2, cache.getStats().getMissCount());
+        assertEquals(0, cache.getStats().getSize());
+    }
+
+    @Test
+    public void testNullDeeplink() {
+        AttributionCache cache = new AttributionCache(8);
+
+        assertSame(UtmAttributes.EMPTY, cache.get(null));
+        assertEquals(0, cache.getStats().getMissCount());
+    }
+}
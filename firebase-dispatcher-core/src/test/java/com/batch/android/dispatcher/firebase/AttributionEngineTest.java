@@ -0,0 +1,251 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the platform-free mapping of events, on a plain JVM
+ */
+public class AttributionEngineTest
+{
+    private final AttributionEngine engine = new AttributionEngine(MappingPlan.compileDefaults(), 8, 64);
+
+    @Test
+    public void testNotificationPrecedence() {
+        TestAttributionPayload payload = new TestAttributionPayload(null,
+                "https://batch.com?utm_source=query_source&utm_campaign=query_campaign#utm_medium=fragment_medium" +
+                        "&utm_source=fragment_source")
+                .withCustomValue("utm_campaign", "custom_campaign");
+
+        EventParameters params = engine.map(EventType.NOTIFICATION_OPEN, payload);
+
+        assertEquals("batch_notification_open", params.getEventName());
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("campaign", "custom_campaign");
+        expected.put("source", "query_source");
+        expected.put("medium", "fragment_medium");
+        assertEquals(expected, params.toMap());
+    }
+
+    @Test
+    public void testNotificationDefaults() {
+        EventParameters params = engine.map(EventType.NOTIFICATION_DISPLAY, new TestAttributionPayload(null, null));
+
+        assertEquals("batch", params.get("source"));
+        assertEquals("push", params.get("medium"));
+        assertFalse(params.containsKey("campaign"));
+        assertEquals(2, params.size());
+    }
+
+    @Test
+    public void testInAppRequiredParameters() {
+        TestAttributionPayload payload = new TestAttributionPayload(null, "https://batch.com?utm_content=button")
+                .withWebViewAnalyticsId("webview_button");
+
+        EventParameters params = engine.map(EventType.MESSAGING_WEBVIEW_CLICK, payload);
+
+        assertEquals("batch_in_app_webview_click", params.getEventName());
+        assertTrue("Required parameters are sent as null", params.containsKey("campaign"));
+        assertNull(params.get("campaign"));
+        assertTrue(params.containsKey("batch_tracking_id"));
+        assertEquals("in-app", params.get("medium"));
+        assertEquals("webview_button", params.get("batch_webview_analytics_id"));
+        assertEquals("button", params.get("content"));
+    }
+
+    @Test
+    public void testInAppCampaignDefaultsToTrackingId() {
+        EventParameters params = engine.map(EventType.MESSAGING_SHOW, new TestAttributionPayload("tracking", null));
+
+        assertEquals("tracking", params.get("campaign"));
+        assertEquals("tracking", params.get("batch_tracking_id"));
+    }
+
+    @Test
+    public void testUnknownTypeHasNoParameters() {
+        EventParameters params = engine.map(null, new TestAttributionPayload("tracking", "https://batch.com"));
+
+        assertEquals(MappingSpec.UNKNOWN_EVENT_NAME, params.getEventName());
+        assertFalse(params.hasParameters());
+        assertNull(params.toMap());
+    }
+
+    @Test
+    public void testDeeplinksAreResolvedThroughTheCache() {
+        TestAttributionPayload payload = new TestAttributionPayload(null, "https://batch.com?utm_campaign=summer");
+
+        EventParameters display = engine.map(EventType.NOTIFICATION_DISPLAY, payload);
+        EventParameters open = engine.map(EventType.NOTIFICATION_OPEN, payload);
+        engine.map(EventType.MESSAGING_SHOW, new TestAttributionPayload("tracking", null));
+
+        assertEquals(display.toMap(), open.toMap());
+        AttributionCacheStats stats = engine.getAttributionCacheStats();
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getHitCount());
+    }
+
+    @Test
+    public void testParametersAreValues() {
+        TestAttributionPayload payload = new TestAttributionPayload(null, "https://batch.com?utm_campaign=summer");
+
+        EventParameters first = engine.map(EventType.NOTIFICATION_OPEN, payload);
+        payload.deeplink = "https://batch.com?utm_campaign=winter";
+        EventParameters second = engine.map(EventType.NOTIFICATION_OPEN, payload);
+
+        assertEquals("summer", first.get("campaign"));
+        assertEquals("winter", second.get("campaign"));
+        assertFalse(first.equals(second));
+        assertEquals(first, engine.map(EventType.NOTIFICATION_OPEN,
+                new TestAttributionPayload(null, "https://batch.com?utm_campaign=summer")));
+    }
+
+    @Test
+    public void testLongValuesAreTruncatedAtCodePoints() {
+        char[] chars = new char[120];
+        Arrays.fill(chars, 'a');
+        String longValue = new String(chars);
+        // 99 chars then a surrogate pair, whose 100th code point ends past 100 chars
+        String unicodeValue = longValue.substring(0, 99) + "\ud83d\ude00\ud83d\ude00";
+        TestAttributionPayload payload = new TestAttributionPayload(longValue, "https://batch.com?utm_content=" +
+                unicodeValue).withWebViewAnalyticsId(longValue.substring(0, 100));
+
+        EventParameters params = engine.map(EventType.MESSAGING_WEBVIEW_CLICK, payload);
+
+        assertEquals(longValue.substring(0, 100), params.get("campaign"));
+        assertEquals(longValue.substring(0, 100), params.get("batch_tracking_id"));
+        assertEquals(longValue.substring(0, 99) + "\ud83d\ude00", params.get("content"));
+        assertEquals(longValue.substring(0, 100), params.get("batch_webview_analytics_id"));
+        ParameterLimitStats stats = engine.getParameterLimitStats();
+        assertEquals(3, stats.getTruncatedValueCount());
+        assertEquals(0, stats.getDroppedParameterCount());
+    }
+
+    @Test
+    public void testValuesFittingInCodePointsAreKept() {
+        StringBuilder value = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            value.append("\ud83d\ude00");
+        }
+        EventParameters params = engine.map(EventType.MESSAGING_SHOW,
+                new TestAttributionPayload(value.toString(), null));
+
+        assertEquals(value.toString(), params.get("campaign"));
+        assertEquals(0, engine.getParameterLimitStats().getTruncatedValueCount());
+    }
+
+    @Test
+    public void testParametersPastTheMaximumCountAreDropped() {
+        MappingSpec.Rule[] rules = new MappingSpec.Rule[FirebaseLimits.MAX_PARAMETER_COUNT + 2];
+        for (int i = 0; i < rules.length; i++) {
+            rules[i] = new MappingSpec.Rule("param_" + i, true, MappingSpec.Source.trackingId());
+        }
+        EnumMap<EventType, MappingSpec.EventSpec> specs = new EnumMap<>(EventType.class);
+        specs.put(EventType.MESSAGING_SHOW, new MappingSpec.EventSpec("batch_in_app_show", rules));
+        AttributionEngine engine = new AttributionEngine(new MappingPlan(specs), 0, 0);
+
+        EventParameters params = engine.map(EventType.MESSAGING_SHOW, new TestAttributionPayload("tracking", null));
+        assertEquals(FirebaseLimits.MAX_PARAMETER_COUNT, params.size());
+        assertTrue("Parameters are kept in mapping order", params.containsKey("param_24"));
+        assertFalse(params.containsKey("param_25"));
+        assertEquals(2, engine.getParameterLimitStats().getDroppedParameterCount());
+
+        EventParameters.Builder withExtra = engine.write(engine.getEventPlan(EventType.MESSAGING_SHOW),
+                new TestAttributionPayload("tracking", null), null, 1, EventParameters.WRITER);
+        assertEquals("Extra parameters count towards the maximum", FirebaseLimits.MAX_PARAMETER_COUNT - 1,
+                withExtra.build("batch_in_app_show").size());
+        assertEquals(5, engine.getParameterLimitStats().getDroppedParameterCount());
+    }
+
+    @Test
+    public void testParametersWithLongNamesAreNeverSent() {
+        char[] name = new char[FirebaseLimits.MAX_PARAMETER_NAME_LENGTH + 1];
+        Arrays.fill(name, 'a');
+        char[] constant = new char[150];
+        Arrays.fill(constant, 'b');
+        EnumMap<EventType, MappingSpec.EventSpec> specs = new EnumMap<>(EventType.class);
+        specs.put(EventType.MESSAGING_SHOW, new MappingSpec.EventSpec("batch_in_app_show", new MappingSpec.Rule[]{
+                new MappingSpec.Rule(new String(name), true, MappingSpec.Source.trackingId()),
+                new MappingSpec.Rule(new String(name, 0, FirebaseLimits.MAX_PARAMETER_NAME_LENGTH), true,
+                        MappingSpec.Source.trackingId()),
+                new MappingSpec.Rule("constant", true, MappingSpec.Source.constant(new String(constant))),
+        }));
+        AttributionEngine engine = new AttributionEngine(new MappingPlan(specs), 0, 0);
+
+        EventParameters params = engine.map(EventType.MESSAGING_SHOW, new TestAttributionPayload("tracking", null));
+        assertEquals(2, params.size());
+        assertEquals("tracking", params.get(new String(name, 0, FirebaseLimits.MAX_PARAMETER_NAME_LENGTH)));
+        assertEquals("Constants are truncated when compiled", new String(constant, 0, 100), params.get("constant"));
+        assertEquals(0, engine.getParameterLimitStats().getTruncatedValueCount());
+    }
+
+    @Test
+    public void testStagesAreTraced() {
+        RecordingTracer tracer = new RecordingTracer();
+        AttributionEngine engine = new AttributionEngine(MappingPlan.compileDefaults(), 8, 64, tracer);
+        TestAttributionPayload payload = new TestAttributionPayload(null,
+                "https://batch.com?utm_source=query#utm_medium=fragment")
+                .withCustomValue("utm_campaign", "summer");
+
+        engine.map(EventType.NOTIFICATION_OPEN, payload);
+
+        List<String> names = tracer.getNames();
+        assertEquals(Arrays.asList(
+                Tracer.PAYLOAD_READ,
+                Tracer.DEEPLINK_PARSE,
+                "  " + Tracer.QUERY_EXTRACTION,
+                "  " + Tracer.FRAGMENT_EXTRACTION), names.subList(0, 4));
+        assertTrue(names.contains(Tracer.CUSTOM_PAYLOAD_MERGE));
+        assertEquals(Tracer.BUNDLE_BUILD, names.get(names.size() - 1));
+        assertTrue(tracer.isBalanced());
+        for (RecordingTracer.Span span : tracer.getSpans()) {
+            assertTrue(span.name, span.durationNanos >= 0);
+        }
+        RecordingTracer.Span parse = tracer.getSpans().get(1);
+        RecordingTracer.Span query = tracer.getSpans().get(2);
+        assertTrue("Extractions are timed within the parse", query.startNanos >= parse.startNanos &&
+                query.durationNanos <= parse.durationNanos);
+    }
+
+    @Test
+    public void testCachedDeeplinksAreNotTracedAsParsed() {
+        RecordingTracer tracer = new RecordingTracer();
+        AttributionEngine engine = new AttributionEngine(MappingPlan.compileDefaults(), 8, 64, tracer);
+        TestAttributionPayload payload = new TestAttributionPayload("tracking", "https://batch.com?utm_content=a");
+        engine.map(EventType.MESSAGING_CLICK, payload);
+        int firstSpans = tracer.getSpans().size();
+
+        engine.map(EventType.MESSAGING_CLICK, payload);
+
+        List<String> second = tracer.getNames().subList(firstSpans, tracer.getSpans().size());
+        assertTrue(second.contains(Tracer.PAYLOAD_READ));
+        assertFalse(second.contains(Tracer.DEEPLINK_PARSE));
+        assertEquals(Tracer.BUNDLE_BUILD, second.get(second.size() - 1));
+        assertTrue(tracer.isBalanced());
+    }
+
+    @Test
+    public void testDeeplinkIsOnlyReadForKeptParameters() {
+        EnumMap<EventType, MappingSpec.EventSpec> specs = MappingSpec.retainParameters(MappingSpec.defaults(),
+                Collections.singletonMap(EventType.MESSAGING_CLICK,
+                        Collections.singleton(MappingSpec.BATCH_TRACKING_ID)));
+        AttributionEngine engine = new AttributionEngine(new MappingPlan(specs), 8, 0);
+
+        assertFalse(engine.getEventPlan(EventType.MESSAGING_CLICK).readsDeeplink);
+        assertTrue(engine.getEventPlan(EventType.MESSAGING_SHOW).readsDeeplink);
+        EventParameters params = engine.map(EventType.MESSAGING_CLICK,
+                new TestAttributionPayload("tracking", "https://batch.com?utm_content=button"));
+        assertEquals(Collections.singletonMap(MappingSpec.BATCH_TRACKING_ID, "tracking"), params.toMap());
+        assertEquals(0, engine.getAttributionCacheStats().getMissCount());
+    }
+}
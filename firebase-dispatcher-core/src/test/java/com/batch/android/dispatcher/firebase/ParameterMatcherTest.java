@@ -0,0 +1,64 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the trie matching deeplink parameter names
+ */
+public class ParameterMatcherTest
+{
+    @Test
+    public void testDefaultMatchesUtmKeysByOrdinal() {
+        for (UtmKey key : UtmKey.values()) {
+            assertEquals(key.ordinal(), ParameterMatcher.DEFAULT.indexOf(key.parameterName));
+        }
+        assertEquals(-1, ParameterMatcher.DEFAULT.indexOf("utm_"));
+        assertEquals(-1, ParameterMatcher.DEFAULT.indexOf("utm_sourcex"));
+        assertEquals(-1, ParameterMatcher.DEFAULT.indexOf("gclid"));
+    }
+
+    @Test
+    public void testMatchIgnoresCase() {
+        ParameterMatcher matcher = new ParameterMatcher(Arrays.asList("gclid", "Batch_Ref"));
+        assertEquals(0, matcher.indexOf("GCLID"));
+        assertEquals(1, matcher.indexOf("batch_ref"));
+        assertEquals(1, matcher.indexOf("BATCH_REF"));
+        assertEquals("batch_ref", matcher.getKey(1));
+    }
+
+    @Test
+    public void testMatchRegion() {
+        ParameterMatcher matcher = new ParameterMatcher(Arrays.asList("ab", "abc"));
+        String source = "?abc=1&ab=2";
+        assertEquals(1, matcher.match(source, 1, 4));
+        assertEquals(0, matcher.match(source, 7, 9));
+        assertEquals(-1, matcher.match(source, 1, 2));
+        assertEquals(-1, matcher.match(source, 1, 1));
+    }
+
+    @Test
+    public void testManyKeys() {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            keys.add("batch_key_" + i);
+        }
+        ParameterMatcher matcher = new ParameterMatcher(keys);
+        assertEquals(500, matcher.size());
+        for (int i = 0; i < 500; i++) {
+            assertEquals(i, matcher.indexOf("BATCH_KEY_" + i));
+        }
+        assertEquals(-1, matcher.indexOf("batch_key_500"));
+        assertEquals(-1, matcher.indexOf("batch_key_"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testDuplicateKeys() {
+        new ParameterMatcher(Arrays.asList("gclid", "GCLID"));
+    }
+}
@@ -0,0 +1,91 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Tracer recording the sections it receives with their timings, in the order they were begun
+ * Confined to the thread that uses it.
+ */
+class RecordingTracer implements Tracer
+{
+    static final class Span
+    {
+        @NonNull
+        final String name;
+
+        /**
+         * Number of enclosing sections
+         */
+        final int depth;
+
+        final long startNanos;
+        long durationNanos = -1;
+
+        Span(@NonNull String name, int depth, long startNanos)
+        {
+            this.name = name;
+            this.depth = depth;
+            this.startNanos = startNanos;
+        }
+
+        @Override
+        public String toString()
+        {
+            return name + "@" + depth;
+        }
+    }
+
+    private final List<Span> spans = new ArrayList<>();
+    private final Deque<Span> open = new ArrayDeque<>();
+
+    @Override
+    public void beginSection(@NonNull String name)
+    {
+        Span span = new Span(name, open.size(), System.nanoTime());
+        spans.add(span);
+        open.push(span);
+    }
+
+    @Override
+    public void endSection()
+    {
+        Span span = open.pop();
+        span.durationNanos = System.nanoTime() - span.startNanos;
+    }
+
+    @NonNull
+    List<Span> getSpans()
+    {
+        return spans;
+    }
+
+    /**
+     * @return The names of the recorded spans, indented by depth
+     */
+    @NonNull
+    List<String> getNames()
+    {
+        List<String> names = new ArrayList<>();
+        for (Span span : spans) {
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < span.depth; i++) {
+                name.append("  ");
+            }
+            names.add(name.append(span.name).toString());
+        }
+        return names;
+    }
+
+    /**
+     * @return Whether every section was ended
+     */
+    boolean isBalanced()
+    {
+        return open.isEmpty();
+    }
+}
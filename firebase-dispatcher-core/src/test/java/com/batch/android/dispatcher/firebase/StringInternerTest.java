@@ -0,0 +1,116 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the bounded interner of parameter values
+ */
+public class StringInternerTest
+{
+    @Test
+    public void testRangeAndStringShareInstance() {
+        StringInterner interner = new StringInterner(16);
+        String first = interner.intern("?utm_campaign=summer_sale&x=1", 14, 25);
+        assertEquals("summer_sale", first);
+        assertSame(first, interner.intern("#utm_campaign=summer_sale", 14, 25));
+        assertSame(first, interner.intern(new String("summer_sale")));
+        assertSame(first, interner.intern(new StringBuilder("summer_sale"), 0, 11));
+        assertEquals(1, interner.getMissCount());
+        assertEquals(3, interner.getHitCount());
+        assertNull(interner.intern(null));
+    }
+
+    @Test
+    public void testMissKeepsGivenInstance() {
+        StringInterner interner = new StringInterner(16);
+        String value = new String("batch");
+        assertSame(value, interner.intern(value));
+        assertSame(value, interner.intern(new String("batch")));
+    }
+
+    @Test
+    public void testLongValuesAreNotInterned() {
+        StringInterner interner = new StringInterner(16, 8);
+        String value = "0123456789";
+        assertSame(value, interner.intern(value));
+        assertNotSame(interner.intern(value, 0, 9), interner.intern(value, 0, 9));
+        assertEquals(0, interner.getMissCount());
+    }
+
+    @Test
+    public void testSizeIsBounded() {
+        StringInterner interner = new StringInterner(8);
+        assertEquals(8, interner.capacity());
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            values.add(interner.intern("campaign-" + i));
+        }
+        int retained = 0;
+        for (String value : values) {
+            if (interner.intern(new String(value)) == value) {
+                retained++;
+            }
+        }
+        assertTrue("At most 8 values should be retained, got " + retained, retained <= 8);
+    }
+
+    @Test
+    public void testRecentlyUsedValueSurvivesEviction() {
+        // A single set, so that every value competes for the same slots
+        StringInterner interner = new StringInterner(StringInterner.WAYS);
+        String hot = interner.intern(new String("hot"));
+        for (int i = 0; i < 100; i++) {
+            assertSame(hot, interner.intern(new String("hot")));
+            interner.intern("cold-" + i);
+        }
+    }
+
+    @Test
+    public void testConcurrentInterningIsCanonical() throws Exception {
+        final StringInterner interner = new StringInterner(64);
+        final int threadCount = 8;
+        final String[][] results = new String[threadCount][16];
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final String[] threadResults = results[t];
+            threads[t] = new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int round = 0; round < 1000; round++) {
+                        for (int i = 0; i < threadResults.length; i++) {
+                            threadResults[i] = interner.intern(new String("value-" + i));
+                        }
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 16; i++) {
+            for (int t = 1; t < threadCount; t++) {
+                assertSame(results[0][i], results[t][i]);
+            }
+        }
+    }
+}
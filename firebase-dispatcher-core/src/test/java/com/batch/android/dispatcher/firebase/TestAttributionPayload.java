@@ -0,0 +1,64 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mutable payload of the attribution engine tests
+ */
+class TestAttributionPayload implements AttributionPayload
+{
+    String trackingId;
+    String webViewAnalyticsId;
+    String deeplink;
+    final Map<String, String> customValues = new HashMap<>();
+
+    TestAttributionPayload(String trackingId, String deeplink)
+    {
+        this.trackingId = trackingId;
+        this.deeplink = deeplink;
+    }
+
+    TestAttributionPayload withWebViewAnalyticsId(String webViewAnalyticsId)
+    {
+        this.webViewAnalyticsId = webViewAnalyticsId;
+        return this;
+    }
+
+    TestAttributionPayload withCustomValue(String key, String value)
+    {
+        customValues.put(key, value);
+        return this;
+    }
+
+    @Nullable
+    @Override
+    public String getTrackingId()
+    {
+        return trackingId;
+    }
+
+    @Nullable
+    @Override
+    public String getWebViewAnalyticsID()
+    {
+        return webViewAnalyticsId;
+    }
+
+    @Nullable
+    @Override
+    public String getDeeplink()
+    {
+        return deeplink;
+    }
+
+    @Nullable
+    @Override
+    public String getCustomValue(@NonNull String key)
+    {
+        return customValues.get(key);
+    }
+}
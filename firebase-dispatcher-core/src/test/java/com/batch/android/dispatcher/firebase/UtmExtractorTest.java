@@ -0,0 +1,125 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the single pass UTM extractor
+ * Parsing rules should stay compatible with the android.net.Uri based implementation
+ */
+public class UtmExtractorTest
+{
+    @Test
+    public void testNoDeeplink() {
+        assertSame(UtmAttributes.EMPTY, UtmExtractor.extract(null));
+        assertSame(UtmAttributes.EMPTY, UtmExtractor.extract(""));
+        assertSame(UtmAttributes.EMPTY, UtmExtractor.extract("   \n "));
+        assertSame(UtmAttributes.EMPTY, UtmExtractor.extract("https://batch.com/path"));
+        UtmAttributes attributes = UtmExtractor.extract("https://batch.com/path?foo=bar#baz");
+        assertTrue(attributes.isEmpty());
+        assertFalse(attributes.isMalformed());
+    }
+
+    @Test
+    public void testQueryOverridesFragment() {
+        UtmAttributes attributes = UtmExtractor.extract(
+                "https://batch.com?utm_source=query&utm_campaign=query#utm_source=fragment&utm_medium=fragment");
+        assertEquals("query", attributes.get(UtmKey.SOURCE));
+        assertEquals("query", attributes.get(UtmKey.CAMPAIGN));
+        assertEquals("fragment", attributes.get(UtmKey.MEDIUM));
+        assertNull(attributes.get(UtmKey.CONTENT));
+
+        // Both values are kept, for mapping rules with another precedence
+        assertEquals("query", attributes.getFromQuery(UtmKey.SOURCE));
+        assertEquals("fragment", attributes.getFromFragment(UtmKey.SOURCE));
+        assertNull(attributes.getFromQuery(UtmKey.MEDIUM));
+    }
+
+    @Test
+    public void testTermAndId() {
+        UtmAttributes attributes = UtmExtractor.extract("https://batch.com?utm_term=shoes&UTM_ID=42");
+        assertEquals("shoes", attributes.get(UtmKey.TERM));
+        assertEquals("42", attributes.get(UtmKey.ID));
+    }
+
+    @Test
+    public void testDuplicatedKeys() {
+        // First occurrence wins in the query, last one in the fragment
+        UtmAttributes attributes = UtmExtractor.extract(
+                "https://batch.com?UTM_SOURCE=first&utm_source=second#utm_content=first&utm_content=second");
+        assertEquals("first", attributes.get(UtmKey.SOURCE));
+        assertEquals("second", attributes.get(UtmKey.CONTENT));
+    }
+
+    @Test
+    public void testEmptyValues() {
+        UtmAttributes attributes = UtmExtractor.extract("https://batch.com?utm_source&utm_medium=#utm_content=");
+        assertEquals("", attributes.get(UtmKey.SOURCE));
+        assertEquals("", attributes.get(UtmKey.MEDIUM));
+        assertNull(attributes.get(UtmKey.CONTENT));
+    }
+
+    @Test
+    public void testDecoding() {
+        UtmAttributes attributes = UtmExtractor.extract(
+                "https://batch.com?utm_source=a+b%20c&utm_campaign=caf%C3%A9#utm_content=a+b%2Bc");
+        assertEquals("a b c", attributes.get(UtmKey.SOURCE));
+        assertEquals("caf\u00e9", attributes.get(UtmKey.CAMPAIGN));
+        // '+' is only decoded as a space in the query, like Uri.getFragment
+        assertEquals("a+b+c", attributes.get(UtmKey.CONTENT));
+    }
+
+    @Test
+    public void testMalformedEscapes() {
+        UtmAttributes attributes = UtmExtractor.extract("https://batch.com?utm_source=100%&utm_medium=%zz%4");
+        assertEquals("100%", attributes.get(UtmKey.SOURCE));
+        assertEquals("%zz%4", attributes.get(UtmKey.MEDIUM));
+        assertTrue(attributes.isMalformed());
+        assertFalse(UtmExtractor.extract("https://batch.com?utm_source=%5B%5D").isMalformed());
+    }
+
+    @Test
+    public void testNonHierarchicalUri() {
+        // Opaque URIs are valid, they just have no query
+        assertSame(UtmAttributes.EMPTY, UtmExtractor.extract("mailto:contact@batch.com?utm_source=batch"));
+        assertSame(UtmAttributes.EMPTY, UtmExtractor.extract("batch:"));
+    }
+
+    @Test
+    public void testRelativeUri() {
+        UtmAttributes attributes = UtmExtractor.extract("/path:with:colons?utm_campaign=relative");
+        assertEquals("relative", attributes.get(UtmKey.CAMPAIGN));
+    }
+
+    @Test
+    public void testCustomScheme() {
+        UtmAttributes attributes = UtmExtractor.extract("myapp://home?utm_medium=push#utm_campaign=summer");
+        assertEquals("push", attributes.get(UtmKey.MEDIUM));
+        assertEquals("summer", attributes.get(UtmKey.CAMPAIGN));
+    }
+
+    @Test
+    public void testUnrelatedParameters() {
+        UtmAttributes attributes = UtmExtractor.extract("https://batch.com?utm=1&utm_=2&utm_sourcex=3&&=&utm_source=ok");
+        assertEquals("ok", attributes.get(UtmKey.SOURCE));
+        assertNull(attributes.get(UtmKey.CAMPAIGN));
+    }
+
+    @Test
+    public void testInternedValuesAreShared() {
+        StringInterner interner = new StringInterner(16);
+        UtmAttributes first = UtmExtractor.extract("https://batch.com/a?utm_campaign=sale#utm_source=caf%C3%A9",
+                ParameterMatcher.DEFAULT, interner);
+        UtmAttributes second = UtmExtractor.extract("myapp://b?id=2&utm_campaign=sale&utm_source=caf%C3%A9",
+                ParameterMatcher.DEFAULT, interner);
+        assertEquals("sale", first.get(UtmKey.CAMPAIGN));
+        assertEquals("caf\u00e9", first.get(UtmKey.SOURCE));
+        assertSame(first.get(UtmKey.CAMPAIGN), second.get(UtmKey.CAMPAIGN));
+        assertSame(first.get(UtmKey.SOURCE), second.get(UtmKey.SOURCE));
+    }
+}
@@ -0,0 +1,23 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Receiver of the events built by the dispatcher
+ * Firebase Analytics is the default sink. Additional sinks, like your own local recorder, can be added
+ * with {@link FirebaseDispatcherConfig.Builder#addAnalyticsSink(AnalyticsSink)}: parameters are computed
+ * once and each sink receives its own copy of them.
+ */
+public interface AnalyticsSink
+{
+    /**
+     * Receive an event
+     *
+     * @param name Firebase event name
+     * @param params Event parameters, null if the event has none
+     */
+    void logEvent(@NonNull String name, @Nullable Bundle params);
+}
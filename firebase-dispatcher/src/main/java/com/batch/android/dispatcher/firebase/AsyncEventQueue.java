@@ -0,0 +1,252 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of events handled by a single background worker
+ * Events are handled in the order they were accepted. When the queue is full, the configured
+ * {@link FirebaseDispatcherConfig.OverflowPolicy} decides which event is dropped.
+ */
+final class AsyncEventQueue
+{
+    /**
+     * Handles an event on the worker thread
+     */
+    interface Handler
+    {
+        void handle(@NonNull Batch.EventDispatcher.Type type, @NonNull Batch.EventDispatcher.Payload payload);
+
+        /**
+         * Called on the enqueuing thread, with the queue locked, for an event dropped by the overflow policy
+         */
+        void drop(@NonNull Batch.EventDispatcher.Payload payload);
+    }
+
+    private static final class PendingEvent
+    {
+        final Batch.EventDispatcher.Type type;
+        final Batch.EventDispatcher.Payload payload;
+
+        PendingEvent(Batch.EventDispatcher.Type type, Batch.EventDispatcher.Payload payload)
+        {
+            this.type = type;
+            this.payload = payload;
+        }
+    }
+
+    private final Handler handler;
+    private final int capacity;
+    private final FirebaseDispatcherConfig.OverflowPolicy overflowPolicy;
+    private final long blockTimeoutNanos;
+
+    private final ArrayDeque<PendingEvent> queue;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private final Condition idle = lock.newCondition();
+
+    /**
+     * Guarded by lock: whether the worker is currently handling an event
+     */
+    private boolean handling = false;
+
+    /**
+     * Guarded by lock: whether the queue stopped accepting events
+     */
+    private boolean shutdown = false;
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    AsyncEventQueue(@NonNull Handler handler,
+                    int capacity,
+                    @NonNull FirebaseDispatcherConfig.OverflowPolicy overflowPolicy,
+                    long blockTimeoutMillis)
+    {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Queue capacity must be positive");
+        }
+        this.handler = handler;
+        this.capacity = capacity;
+        this.overflowPolicy = overflowPolicy;
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(blockTimeoutMillis);
+        this.queue = new ArrayDeque<>(Math.min(capacity, 64));
+
+        Thread worker = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                runWorker();
+            }
+        }, "BatchFirebaseDispatcher");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Enqueue an event
+     * The payload should already be captured, as it is read from the worker thread.
+     *
+     * @return false if the queue has been shut down, in which case the event hasn't been enqueued
+     */
+    boolean enqueue(@NonNull Batch.EventDispatcher.Type type, @NonNull Batch.EventDispatcher.Payload payload)
+    {
+        PendingEvent event = new PendingEvent(type, payload);
+        lock.lock();
+        try {
+            if (shutdown) {
+                return false;
+            }
+            if (queue.size() >= capacity) {
+                switch (overflowPolicy) {
+                    case DROP_NEWEST:
+                        droppedCount.incrementAndGet();
+                        handler.drop(payload);
+                        return true;
+                    case DROP_OLDEST:
+                        handler.drop(queue.pollFirst().payload);
+                        droppedCount.incrementAndGet();
+                        break;
+                    case BLOCK:
+                        if (!awaitRoom()) {
+                            droppedCount.incrementAndGet();
+                            handler.drop(payload);
+                            return true;
+                        }
+                        if (shutdown) {
+                            return false;
+                        }
+                        break;
+                }
+            }
+            queue.addLast(event);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait for the worker to make room in the queue. Must be called with the lock held.
+     *
+     * @return true if there is room in the queue or if it has been shut down
+     */
+    private boolean awaitRoom()
+    {
+        long nanos = blockTimeoutNanos;
+        try {
+            while (queue.size() >= capacity && !shutdown) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = notFull.awaitNanos(nanos);
+            }
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * Wait until every event enqueued so far has been handled
+     *
+     * @return true if the queue has been drained, false if the timeout elapsed first
+     */
+    boolean flush(long timeout, @NonNull TimeUnit unit) throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        lock.lock();
+        try {
+            while (!queue.isEmpty() || handling) {
+                if (nanos <= 0) {
+                    return false;
+                }
+                nanos = idle.awaitNanos(nanos);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Stop accepting events. Events already in the queue are still handled, then the worker stops.
+     */
+    void shutdown()
+    {
+        lock.lock();
+        try {
+            shutdown = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    int size()
+    {
+        lock.lock();
+        try {
+            return queue.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void runWorker()
+    {
+        while (true) {
+            PendingEvent event;
+            lock.lock();
+            try {
+                while (queue.isEmpty() && !shutdown) {
+                    notEmpty.awaitUninterruptibly();
+                }
+                event = queue.pollFirst();
+                if (event == null) {
+                    // Shut down and drained
+                    idle.signalAll();
+                    return;
+                }
+                handling = true;
+                notFull.signal();
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                handler.handle(event.type, event.payload);
+            } catch (RuntimeException e) {
+                Log.e("Batch", "Could not dispatch event " + event.type, e);
+            }
+
+            lock.lock();
+            try {
+                handling = false;
+                if (queue.isEmpty()) {
+                    idle.signalAll();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import java.util.EnumMap;
+
+/**
+ * Adapts the Batch SDK events to the {@link AttributionEngine}
+ */
+final class BatchEventAdapter
+{
+    private static final EnumMap<Batch.EventDispatcher.Type, EventType> TYPES =
+            new EnumMap<>(Batch.EventDispatcher.Type.class);
+
+    static {
+        for (Batch.EventDispatcher.Type type : Batch.EventDispatcher.Type.values()) {
+            try {
+                TYPES.put(type, EventType.valueOf(type.name()));
+            } catch (IllegalArgumentException ignored) {
+                // Type added by a newer SDK, sent as an unknown event
+            }
+        }
+    }
+
+    /**
+     * Reads the fields of a Batch payload
+     */
+    private static final class PayloadAdapter implements AttributionPayload
+    {
+        @NonNull
+        private final Batch.EventDispatcher.Payload payload;
+
+        PayloadAdapter(@NonNull Batch.EventDispatcher.Payload payload)
+        {
+            this.payload = payload;
+        }
+
+        @Nullable
+        @Override
+        public String getTrackingId()
+        {
+            return payload.getTrackingId();
+        }
+
+        @Nullable
+        @Override
+        public String getWebViewAnalyticsID()
+        {
+            return payload.getWebViewAnalyticsID();
+        }
+
+        @Nullable
+        @Override
+        public String getDeeplink()
+        {
+            return payload.getDeeplink();
+        }
+
+        @Nullable
+        @Override
+        public String getCustomValue(@NonNull String key)
+        {
+            return payload.getCustomValue(key);
+        }
+    }
+
+    private BatchEventAdapter()
+    {
+    }
+
+    /**
+     * @return The engine's event type, null if the engine doesn't know the type
+     */
+    @Nullable
+    static EventType typeOf(@NonNull Batch.EventDispatcher.Type type)
+    {
+        return TYPES.get(type);
+    }
+
+    /**
+     * @return The payload as read by the engine, itself if it already implements {@link AttributionPayload}
+     */
+    @NonNull
+    static AttributionPayload payloadOf(@NonNull Batch.EventDispatcher.Payload payload)
+    {
+        if (payload instanceof AttributionPayload) {
+            return (AttributionPayload) payload;
+        }
+        return new PayloadAdapter(payload);
+    }
+}
@@ -0,0 +1,31 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Writes the parameters mapped by the {@link AttributionEngine} into the Bundle sent to Firebase
+ */
+final class BundleParameterWriter implements ParameterWriter<Bundle>
+{
+    static final BundleParameterWriter INSTANCE = new BundleParameterWriter();
+
+    private BundleParameterWriter()
+    {
+    }
+
+    @NonNull
+    @Override
+    public Bundle create(int size)
+    {
+        return new Bundle(size);
+    }
+
+    @Override
+    public void put(@NonNull Bundle parameters, @NonNull String key, @Nullable String value)
+    {
+        parameters.putString(key, value);
+    }
+}
@@ -0,0 +1,133 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.BatchMessage;
+import com.batch.android.BatchPushPayload;
+
+/**
+ * Copy of the payload fields read by the dispatcher
+ * Used to hand an event over to another thread without keeping the original payload
+ * (and the message or push it references) alive.
+ */
+final class CapturedPayload implements Batch.EventDispatcher.Payload, AttributionPayload
+{
+    @Nullable
+    private final String trackingId;
+
+    @Nullable
+    private final String webViewAnalyticsId;
+
+    @Nullable
+    private final String deeplink;
+
+    /**
+     * Custom payload keys read by the mapping rules, and their values
+     */
+    @NonNull
+    private final String[] customKeys;
+
+    @NonNull
+    private final String[] customValues;
+
+    private final boolean positiveAction;
+
+    /**
+     * Journal record of the event, {@link EventJournal#NO_RECORD} if it isn't journaled
+     */
+    final long journalRecord;
+
+    /**
+     * Time the event was received, on the {@link android.os.SystemClock#elapsedRealtime()} clock, 0 if unknown
+     */
+    final long receivedMillis;
+
+    /**
+     * @param customKeys Custom payload keys to copy
+     */
+    CapturedPayload(@NonNull Batch.EventDispatcher.Payload payload, @NonNull String[] customKeys)
+    {
+        this(payload, customKeys, EventJournal.NO_RECORD, 0);
+    }
+
+    /**
+     * @param customKeys Custom payload keys to copy
+     * @param journalRecord Journal record to commit once the event is sent
+     * @param receivedMillis Time the event was received
+     */
+    CapturedPayload(@NonNull Batch.EventDispatcher.Payload payload,
+                    @NonNull String[] customKeys,
+                    long journalRecord,
+                    long receivedMillis)
+    {
+        this.trackingId = payload.getTrackingId();
+        this.webViewAnalyticsId = payload.getWebViewAnalyticsID();
+        this.deeplink = payload.getDeeplink();
+        this.positiveAction = payload.isPositiveAction();
+        this.journalRecord = journalRecord;
+        this.receivedMillis = receivedMillis;
+        this.customKeys = customKeys;
+        this.customValues = new String[customKeys.length];
+        for (int i = 0; i < customKeys.length; i++) {
+            customValues[i] = payload.getCustomValue(customKeys[i]);
+        }
+    }
+
+    @Nullable
+    @Override
+    public String getTrackingId()
+    {
+        return trackingId;
+    }
+
+    @Nullable
+    @Override
+    public String getWebViewAnalyticsID()
+    {
+        return webViewAnalyticsId;
+    }
+
+    @Nullable
+    @Override
+    public String getDeeplink()
+    {
+        return deeplink;
+    }
+
+    /**
+     * Only the keys given at capture are kept, any other key reads as null
+     */
+    @Nullable
+    @Override
+    public String getCustomValue(@NonNull String key)
+    {
+        for (int i = 0; i < customKeys.length; i++) {
+            if (customKeys[i].equals(key)) {
+                return customValues[i];
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean isPositiveAction()
+    {
+        return positiveAction;
+    }
+
+    @Nullable
+    @Override
+    public BatchMessage getMessagingPayload()
+    {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public BatchPushPayload getPushPayload()
+    {
+        return null;
+    }
+}
@@ -0,0 +1,245 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sink whose delegate is created on a background thread
+ * Events logged before the delegate is ready are kept in a bounded buffer, then forwarded in order
+ * once it is. When the buffer is full, the oldest event is dropped.
+ * Only the latest value of each user property is kept, and never dropped: later events may rely on it.
+ * These values are forwarded before the buffered events, so that they are attached to all of them,
+ * and only if the delegate is a {@link UserPropertySink}.
+ * Buffered events logged with a delivery listener are reported to it once forwarded.
+ */
+final class DeferredAnalyticsSink implements DeliveryTrackingSink, UserPropertySink
+{
+    /**
+     * Creates the delegate sink, called once on the initialization thread
+     */
+    interface Factory
+    {
+        @NonNull
+        AnalyticsSink create();
+    }
+
+    private static final class PendingEvent
+    {
+        final String name;
+        final Bundle params;
+
+        /**
+         * Told about the event once forwarded, null if nobody tracks it
+         */
+        final Listener listener;
+        final long token;
+
+        PendingEvent(String name, Bundle params, Listener listener, long token)
+        {
+            this.name = name;
+            this.params = params;
+            this.listener = listener;
+            this.token = token;
+        }
+
+        void forward(AnalyticsSink sink)
+        {
+            sink.logEvent(name, params);
+            if (listener != null) {
+                listener.onDelivered(token);
+            }
+        }
+    }
+
+    private final int bufferCapacity;
+
+    /**
+     * Set once the buffer has been drained into it. Read without the lock on the fast path.
+     */
+    @Nullable
+    private volatile AnalyticsSink delegate;
+
+    /**
+     * Guarded by this: events waiting for the delegate, null once initialization completed
+     */
+    @Nullable
+    private ArrayDeque<PendingEvent> buffer;
+
+    /**
+     * Guarded by this: latest value of each user property set before the delegate is ready, by name
+     * Values may be null, to clear the property.
+     */
+    @Nullable
+    private LinkedHashMap<String, String> pendingProperties = new LinkedHashMap<>();
+
+    /**
+     * Guarded by this: whether the delegate couldn't be created, in which case events are dropped
+     */
+    private boolean failed = false;
+
+    private final CountDownLatch initialized = new CountDownLatch(1);
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * @param bufferCapacity Maximum number of events kept until the delegate is ready, must be positive
+     */
+    DeferredAnalyticsSink(int bufferCapacity)
+    {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Buffer capacity must be positive");
+        }
+        this.bufferCapacity = bufferCapacity;
+        this.buffer = new ArrayDeque<>(Math.min(bufferCapacity, 16));
+    }
+
+    /**
+     * Create the delegate on a new background thread
+     */
+    void initializeInBackground(@NonNull final Factory factory)
+    {
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                initialize(factory);
+            }
+        }, "BatchFirebaseInit");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Create the delegate on the calling thread and forward the buffered events to it
+     */
+    void initialize(@NonNull Factory factory)
+    {
+        AnalyticsSink logger;
+        try {
+            logger = factory.create();
+        } catch (RuntimeException e) {
+            Log.e("Batch", "Could not initialize Firebase Analytics, events will not be dispatched", e);
+            synchronized (this) {
+                if (buffer != null) {
+                    droppedCount.addAndGet(buffer.size());
+                    buffer = null;
+                }
+                pendingProperties = null;
+                failed = true;
+            }
+            initialized.countDown();
+            return;
+        }
+
+        synchronized (this) {
+            // Events logged while draining wait on the lock, so they can't overtake buffered ones
+            if (pendingProperties != null && logger instanceof UserPropertySink) {
+                for (Map.Entry<String, String> property : pendingProperties.entrySet()) {
+                    ((UserPropertySink) logger).setUserProperty(property.getKey(), property.getValue());
+                }
+            }
+            pendingProperties = null;
+            if (buffer != null) {
+                for (PendingEvent event : buffer) {
+                    event.forward(logger);
+                }
+                buffer = null;
+            }
+            delegate = logger;
+        }
+        initialized.countDown();
+    }
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        log(name, params, null, 0);
+    }
+
+    @Override
+    public boolean logEvent(@NonNull String name, @Nullable Bundle params, long token, @NonNull Listener listener)
+    {
+        return log(name, params, listener, token);
+    }
+
+    /**
+     * @return true if the event was forwarded to the delegate, false if it was buffered or dropped
+     */
+    private boolean log(@NonNull String name, @Nullable Bundle params, @Nullable Listener listener, long token)
+    {
+        AnalyticsSink logger = delegate;
+        if (logger == null) {
+            synchronized (this) {
+                logger = delegate;
+                if (logger == null) {
+                    if (failed) {
+                        droppedCount.incrementAndGet();
+                        return false;
+                    }
+                    if (buffer.size() >= bufferCapacity) {
+                        buffer.pollFirst();
+                        droppedCount.incrementAndGet();
+                    }
+                    buffer.addLast(new PendingEvent(name, params, listener, token));
+                    return false;
+                }
+            }
+        }
+        logger.logEvent(name, params);
+        return true;
+    }
+
+    @Override
+    public void setUserProperty(@NonNull String name, @Nullable String value)
+    {
+        AnalyticsSink logger = delegate;
+        if (logger == null) {
+            synchronized (this) {
+                logger = delegate;
+                if (logger == null) {
+                    if (!failed) {
+                        pendingProperties.put(name, value);
+                    }
+                    return;
+                }
+            }
+        }
+        if (logger instanceof UserPropertySink) {
+            ((UserPropertySink) logger).setUserProperty(name, value);
+        }
+    }
+
+    /**
+     * Wait until the delegate has been created, or its creation failed
+     *
+     * @return true if initialization completed, false if the timeout elapsed first
+     */
+    boolean awaitInitialization(long timeout, @NonNull TimeUnit unit) throws InterruptedException
+    {
+        return initialized.await(timeout, unit);
+    }
+
+    boolean isInitialized()
+    {
+        return delegate != null;
+    }
+
+    /**
+     * @return Number of events dropped because the buffer was full or initialization failed
+     */
+    long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+}
@@ -0,0 +1,30 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Sink which may keep events to deliver them later, telling when they reach Firebase
+ * Used by the event journal, so that an event is only committed once delivered.
+ */
+interface DeliveryTrackingSink extends AnalyticsSink
+{
+    /**
+     * Receives the tokens of the kept events, once they are delivered
+     */
+    interface Listener
+    {
+        void onDelivered(long token);
+    }
+
+    /**
+     * Log an event, calling the listener if it is kept and delivered later
+     * The listener is never called for events dropped while kept.
+     *
+     * @param token Token given to the listener
+     * @return true if the event was delivered before returning, false if it was kept or dropped
+     */
+    boolean logEvent(@NonNull String name, @Nullable Bundle params, long token, @NonNull Listener listener);
+}
@@ -0,0 +1,39 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+/**
+ * A Batch event to dispatch with {@link FirebaseDispatcher#dispatchEvents(java.util.List)}
+ */
+public final class DispatcherEvent
+{
+    @NonNull
+    private final Batch.EventDispatcher.Type type;
+
+    @NonNull
+    private final Batch.EventDispatcher.Payload payload;
+
+    /**
+     * @param type The type of the event
+     * @param payload The payload associated with the event
+     */
+    public DispatcherEvent(@NonNull Batch.EventDispatcher.Type type, @NonNull Batch.EventDispatcher.Payload payload)
+    {
+        this.type = type;
+        this.payload = payload;
+    }
+
+    @NonNull
+    public Batch.EventDispatcher.Type getType()
+    {
+        return type;
+    }
+
+    @NonNull
+    public Batch.EventDispatcher.Payload getPayload()
+    {
+        return payload;
+    }
+}
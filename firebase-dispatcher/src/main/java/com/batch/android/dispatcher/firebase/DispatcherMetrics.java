@@ -0,0 +1,97 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+/**
+ * Snapshot of the dispatcher metrics
+ * See {@link FirebaseDispatcher#getMetrics()} and {@link FirebaseDispatcher#getAndResetMetrics()}
+ */
+public final class DispatcherMetrics
+{
+    private final long[] receivedCounts;
+    private final long[] dispatchedCounts;
+    private final long parseFailureCount;
+    private final LatencySnapshot extractionLatency;
+    private final LatencySnapshot logEventLatency;
+
+    DispatcherMetrics(long[] receivedCounts,
+                      long[] dispatchedCounts,
+                      long parseFailureCount,
+                      LatencySnapshot extractionLatency,
+                      LatencySnapshot logEventLatency)
+    {
+        this.receivedCounts = receivedCounts;
+        this.dispatchedCounts = dispatchedCounts;
+        this.parseFailureCount = parseFailureCount;
+        this.extractionLatency = extractionLatency;
+        this.logEventLatency = logEventLatency;
+    }
+
+    /**
+     * @return Number of events of a type received from the Batch SDK
+     */
+    public long getReceivedCount(@NonNull Batch.EventDispatcher.Type type)
+    {
+        return receivedCounts[type.ordinal()];
+    }
+
+    /**
+     * @return Number of events of a type sent to Firebase, after sampling, throttling and duplicate suppression
+     */
+    public long getDispatchedCount(@NonNull Batch.EventDispatcher.Type type)
+    {
+        return dispatchedCounts[type.ordinal()];
+    }
+
+    /**
+     * @return Number of events sent to Firebase, all types included
+     */
+    public long getTotalDispatchedCount()
+    {
+        long total = 0;
+        for (long count : dispatchedCounts) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * @return Number of events whose deeplink held invalid escapes. Opaque URIs, like "mailto:", have no UTM tags
+     * but aren't failures.
+     */
+    public long getParseFailureCount()
+    {
+        return parseFailureCount;
+    }
+
+    /**
+     * @return Time spent building the Firebase parameters of an event
+     */
+    @NonNull
+    public LatencySnapshot getExtractionLatency()
+    {
+        return extractionLatency;
+    }
+
+    /**
+     * @return Time spent in FirebaseAnalytics.logEvent
+     */
+    @NonNull
+    public LatencySnapshot getLogEventLatency()
+    {
+        return logEventLatency;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "DispatcherMetrics{" +
+                "dispatched=" + getTotalDispatchedCount() +
+                ", parseFailures=" + parseFailureCount +
+                ", extraction=" + extractionLatency +
+                ", logEvent=" + logEventLatency +
+                '}';
+    }
+}
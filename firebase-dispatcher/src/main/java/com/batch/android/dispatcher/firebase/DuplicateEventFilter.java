@@ -0,0 +1,110 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drops events identical to one seen less than a time window ago
+ * Events are identified by a 64 bit fingerprint of their type, tracking id, webview analytics id and deeplink.
+ * Fingerprints are kept in a fixed size direct-mapped table, so memory stays flat whatever the traffic:
+ * a slot is simply overwritten by the next event hashing to it. This can only let a duplicate through,
+ * never drop a distinct event (short of a 64 bit hash collision).
+ */
+final class DuplicateEventFilter
+{
+    /**
+     * Number of fingerprints kept, must be a power of two
+     */
+    static final int CAPACITY = 256;
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final long windowMillis;
+
+    /**
+     * Guarded by this: fingerprints and the time they were recorded at, indexed by slot
+     */
+    private final long[] fingerprints = new long[CAPACITY];
+    private final long[] timestamps = new long[CAPACITY];
+    private final boolean[] used = new boolean[CAPACITY];
+
+    private final AtomicLong suppressedCount = new AtomicLong();
+
+    /**
+     * @param windowMillis Time during which an identical event is considered a duplicate, must be positive
+     */
+    DuplicateEventFilter(long windowMillis)
+    {
+        if (windowMillis <= 0) {
+            throw new IllegalArgumentException("Window must be positive");
+        }
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * Check whether an event is a duplicate, and record it if it isn't
+     * The window isn't extended by duplicates: a continuous stream of identical events lets one through per window.
+     *
+     * @param nowMillis Current time on a monotonic clock
+     * @return true if the event should be dropped
+     */
+    boolean isDuplicate(@NonNull Batch.EventDispatcher.Type type,
+                        @NonNull Batch.EventDispatcher.Payload payload,
+                        long nowMillis)
+    {
+        long fingerprint = fingerprint(type,
+                payload.getTrackingId(),
+                payload.getWebViewAnalyticsID(),
+                payload.getDeeplink());
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & (CAPACITY - 1);
+
+        synchronized (this) {
+            if (used[slot] && fingerprints[slot] == fingerprint && nowMillis - timestamps[slot] < windowMillis) {
+                suppressedCount.incrementAndGet();
+                return true;
+            }
+            used[slot] = true;
+            fingerprints[slot] = fingerprint;
+            timestamps[slot] = nowMillis;
+            return false;
+        }
+    }
+
+    long getSuppressedCount()
+    {
+        return suppressedCount.get();
+    }
+
+    /**
+     * FNV-1a over the event fields, separated so that ("ab", "c") and ("a", "bc") differ
+     */
+    static long fingerprint(@NonNull Batch.EventDispatcher.Type type,
+                            @Nullable String trackingId,
+                            @Nullable String webViewAnalyticsId,
+                            @Nullable String deeplink)
+    {
+        long hash = FNV_OFFSET_BASIS;
+        hash = (hash ^ type.ordinal()) * FNV_PRIME;
+        hash = hash(hash, trackingId);
+        hash = hash(hash, webViewAnalyticsId);
+        hash = hash(hash, deeplink);
+        return hash;
+    }
+
+    private static long hash(long hash, @Nullable String value)
+    {
+        if (value == null) {
+            return (hash ^ 0xff) * FNV_PRIME;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Length acts as a field separator
+        return (hash ^ (value.length() + 0x100)) * FNV_PRIME;
+    }
+}
@@ -0,0 +1,435 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Ring file of the events received but not handed to the analytics sink yet, replayed after a crash
+ *
+ * The file is memory-mapped: appending an event and committing it once sent are memory writes,
+ * without any system call or fsync. The kernel writes the pages back, so records survive the
+ * process being killed, though not the device losing power.
+ *
+ * The file starts with a header of {@link #HEADER_SIZE} bytes: the {@link #MAGIC}, {@link #VERSION}
+ * and data capacity ints, then the offsets of the next record to write (head) and of the oldest live
+ * record (tail), the live record count and the next sequence number. Records follow, as a state
+ * byte, a sequence int and a body length int, then the body: the type name, deeplink, tracking id,
+ * webview analytics id and custom values encoded with {@link RecordCodec}. A {@link #WRAP} byte
+ * marks the end of the data when the next record didn't fit.
+ *
+ * The header is only updated once a record is fully written, so a record torn by a crash is ignored.
+ * Committed records are dropped from the tail right away. When the ring is full, the oldest
+ * records are overwritten even if they were not committed, and counted as lost: the header is
+ * updated before, so that it never points to overwritten records.
+ * Recovery stops at the first unreadable record, keeping the ones before it.
+ */
+final class EventJournal implements Closeable
+{
+    static final int MAGIC = 0x424A524E; // "BJRN"
+    static final int VERSION = 1;
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+
+    /**
+     * Returned instead of a record when an event isn't journaled
+     */
+    static final long NO_RECORD = -1;
+
+    static final int HEADER_SIZE = 32;
+
+    private static final int HEAD_OFFSET = 12;
+    private static final int TAIL_OFFSET = 16;
+    private static final int COUNT_OFFSET = 20;
+    private static final int SEQUENCE_OFFSET = 24;
+
+    static final int RECORD_HEADER_SIZE = 9;
+
+    static final byte PENDING = 1;
+    static final byte COMMITTED = 2;
+    static final byte WRAP = 3;
+
+    /**
+     * An event found uncommitted when the journal was opened
+     */
+    static final class PendingEvent
+    {
+        /**
+         * Record to commit once the event is sent again
+         */
+        final long record;
+
+        @NonNull
+        final TraceReader.Record event;
+
+        PendingEvent(long record, @NonNull TraceReader.Record event)
+        {
+            this.record = record;
+            this.event = event;
+        }
+    }
+
+    private final RandomAccessFile file;
+
+    /**
+     * Guarded by this
+     */
+    private final MappedByteBuffer buffer;
+
+    /**
+     * Data region of the buffer, offsets are relative to its start
+     */
+    private final ByteBuffer data;
+
+    private final int capacity;
+
+    private int head;
+    private int tail;
+    private int count;
+    private int sequence;
+
+    /**
+     * Guarded by this: body of the record being encoded, copied into the mapped buffer at once
+     */
+    private ByteBuffer scratch = ByteBuffer.allocate(512);
+
+    private long lostCount = 0;
+
+    private boolean closed = false;
+
+    @NonNull
+    private List<PendingEvent> pendingEvents;
+
+    /**
+     * Open a journal, reading the events left uncommitted by the previous process
+     * A file that isn't a journal of this version and capacity, or can't be read, is reset.
+     *
+     * @param capacity Size of the data region, in bytes
+     */
+    EventJournal(@NonNull File file, int capacity) throws IOException
+    {
+        this.capacity = capacity;
+        this.file = new RandomAccessFile(file, "rw");
+        try {
+            this.buffer = this.file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        } catch (IOException e) {
+            this.file.close();
+            throw e;
+        }
+        buffer.position(HEADER_SIZE);
+        this.data = buffer.slice();
+        buffer.position(0);
+
+        try {
+            if (!readHeader()) {
+                reset();
+            }
+            this.pendingEvents = recover();
+        } catch (RuntimeException e) {
+            Log.e("Batch", "Firebase dispatcher: unreadable event journal, its events will not be replayed", e);
+            reset();
+            this.pendingEvents = Collections.emptyList();
+        }
+    }
+
+    /**
+     * @return The events left uncommitted by the previous process, in the order they were received.
+     * Only returned once.
+     */
+    @NonNull
+    synchronized List<PendingEvent> takePendingEvents()
+    {
+        List<PendingEvent> events = pendingEvents;
+        pendingEvents = Collections.emptyList();
+        return events;
+    }
+
+    /**
+     * Append an event, to be committed once handed to the sink
+     *
+     * @param customKeys Custom payload keys read by the dispatcher, whose values are kept
+     * @return The record of the event, or {@link #NO_RECORD} if it is too large for the journal or the journal is closed
+     */
+    synchronized long append(@NonNull Batch.EventDispatcher.Type type,
+                             @NonNull Batch.EventDispatcher.Payload payload,
+                             @NonNull String[] customKeys)
+    {
+        if (closed) {
+            return NO_RECORD;
+        }
+        String deeplink = payload.getDeeplink();
+        String trackingId = payload.getTrackingId();
+        String webViewAnalyticsId = payload.getWebViewAnalyticsID();
+        int customCount = 0;
+        int length = RecordCodec.stringSize(type.name()) + RecordCodec.stringSize(deeplink) +
+                RecordCodec.stringSize(trackingId) + RecordCodec.stringSize(webViewAnalyticsId);
+        for (String key : customKeys) {
+            String value = payload.getCustomValue(key);
+            if (value != null) {
+                customCount++;
+                length += RecordCodec.stringSize(key) + RecordCodec.stringSize(value);
+            }
+        }
+        length += RecordCodec.varLongSize(customCount);
+
+        int size = RECORD_HEADER_SIZE + length;
+        if (size > capacity) {
+            return NO_RECORD;
+        }
+        int liveCount = count;
+        if (capacity - head < size) {
+            // Records don't span the end of the data, continue from its start
+            free(capacity);
+            if (head < capacity) {
+                data.put(head, WRAP);
+            }
+            head = 0;
+        }
+        free(head + size);
+        if (count < liveCount) {
+            // The freed records are about to be overwritten, the header must not point to them anymore
+            writeHeader();
+        }
+
+        if (scratch.capacity() < length) {
+            scratch = ByteBuffer.allocate(Math.max(scratch.capacity() * 2, length));
+        }
+        scratch.clear();
+        RecordCodec.putString(scratch, type.name());
+        RecordCodec.putString(scratch, deeplink);
+        RecordCodec.putString(scratch, trackingId);
+        RecordCodec.putString(scratch, webViewAnalyticsId);
+        RecordCodec.putVarLong(scratch, customCount);
+        for (String key : customKeys) {
+            String value = payload.getCustomValue(key);
+            if (value != null) {
+                RecordCodec.putString(scratch, key);
+                RecordCodec.putString(scratch, value);
+            }
+        }
+        scratch.flip();
+
+        int offset = head;
+        data.position(offset + RECORD_HEADER_SIZE);
+        data.put(scratch);
+        data.put(offset, PENDING);
+        data.putInt(offset + 1, sequence);
+        data.putInt(offset + 5, length);
+
+        long record = (sequence & 0xFFFFFFFFL) << 32 | offset;
+        sequence++;
+        if (count == 0) {
+            tail = offset;
+        }
+        head = offset + size;
+        count++;
+        writeHeader();
+        return record;
+    }
+
+    /**
+     * Mark an event as handed to the sink, so that it isn't replayed
+     * Does nothing if the record was already overwritten or committed.
+     */
+    synchronized void commit(long record)
+    {
+        if (record == NO_RECORD || closed) {
+            return;
+        }
+        int offset = (int) record;
+        if (!isLive(offset) || data.get(offset) != PENDING || data.getInt(offset + 1) != (int) (record >>> 32)) {
+            return;
+        }
+        data.put(offset, COMMITTED);
+        while (count > 0 && data.get(tail) == COMMITTED) {
+            dropTail();
+        }
+        writeHeader();
+    }
+
+    /**
+     * @return Number of uncommitted events overwritten because the journal was full
+     */
+    synchronized long getLostCount()
+    {
+        return lostCount;
+    }
+
+    /**
+     * @return Number of records not committed yet
+     */
+    synchronized int getPendingCount()
+    {
+        int pending = 0;
+        int offset = tail;
+        for (int i = 0; i < count; i++) {
+            offset = skipWrap(offset);
+            if (data.get(offset) == PENDING) {
+                pending++;
+            }
+            offset += RECORD_HEADER_SIZE + data.getInt(offset + 5);
+        }
+        return pending;
+    }
+
+    /**
+     * Stop journaling, pending records are kept for the next process
+     */
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        file.close();
+    }
+
+    /**
+     * Drop the live records stored before the given offset, from the head
+     */
+    private void free(int end)
+    {
+        while (count > 0 && tail >= head && tail < end) {
+            if (data.get(tail) == PENDING) {
+                lostCount++;
+            }
+            dropTail();
+        }
+    }
+
+    private void dropTail()
+    {
+        tail += RECORD_HEADER_SIZE + data.getInt(tail + 5);
+        count--;
+        tail = count > 0 ? skipWrap(tail) : head;
+    }
+
+    /**
+     * @return Whether an offset is in the live part of the ring
+     */
+    private boolean isLive(int offset)
+    {
+        if (count == 0) {
+            return false;
+        }
+        if (tail < head) {
+            return offset >= tail && offset < head;
+        }
+        return offset >= tail || offset < head;
+    }
+
+    private int skipWrap(int offset)
+    {
+        return offset >= capacity || data.get(offset) == WRAP ? 0 : offset;
+    }
+
+    private boolean readHeader()
+    {
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != capacity) {
+            return false;
+        }
+        head = buffer.getInt(HEAD_OFFSET);
+        tail = buffer.getInt(TAIL_OFFSET);
+        count = buffer.getInt(COUNT_OFFSET);
+        sequence = buffer.getInt(SEQUENCE_OFFSET);
+        return head >= 0 && head <= capacity && tail >= 0 && tail <= capacity && count >= 0;
+    }
+
+    private void reset()
+    {
+        head = 0;
+        tail = 0;
+        count = 0;
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+        buffer.putInt(8, capacity);
+        writeHeader();
+    }
+
+    private void writeHeader()
+    {
+        buffer.putInt(HEAD_OFFSET, head);
+        buffer.putInt(TAIL_OFFSET, tail);
+        buffer.putInt(COUNT_OFFSET, count);
+        buffer.putInt(SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * Read the uncommitted records
+     * If a record is corrupted, it and the following ones are dropped, and the next records are
+     * written in their place.
+     */
+    @NonNull
+    private List<PendingEvent> recover()
+    {
+        List<PendingEvent> events = new ArrayList<>();
+        int offset = tail;
+        int valid = 0;
+        try {
+            for (; valid < count; valid++) {
+                int start = skipWrap(offset);
+                byte state = data.get(start);
+                int recordSequence = data.getInt(start + 1);
+                int length = data.getInt(start + 5);
+                if ((state != PENDING && state != COMMITTED) || length < 0 ||
+                        start + RECORD_HEADER_SIZE + length > capacity) {
+                    throw new IllegalStateException("Corrupted journal record");
+                }
+                if (state == PENDING) {
+                    data.position(start + RECORD_HEADER_SIZE);
+                    TraceReader.Record event = readEvent();
+                    if (data.position() != start + RECORD_HEADER_SIZE + length) {
+                        throw new IllegalStateException("Corrupted journal record");
+                    }
+                    events.add(new PendingEvent((recordSequence & 0xFFFFFFFFL) << 32 | start, event));
+                }
+                offset = start + RECORD_HEADER_SIZE + length;
+            }
+        } catch (IllegalStateException | IndexOutOfBoundsException | BufferUnderflowException e) {
+            // The records before the corrupted one are still replayed
+            count = valid;
+            head = offset;
+            if (count == 0) {
+                tail = head;
+            }
+            writeHeader();
+        }
+        return events;
+    }
+
+    @NonNull
+    private TraceReader.Record readEvent()
+    {
+        String typeName = RecordCodec.getString(data);
+        String deeplink = RecordCodec.getString(data);
+        String trackingId = RecordCodec.getString(data);
+        String webViewAnalyticsId = RecordCodec.getString(data);
+        int customCount = (int) RecordCodec.getVarLong(data);
+        if (typeName == null || customCount < 0 || customCount > data.remaining()) {
+            throw new IllegalStateException("Corrupted journal record");
+        }
+        String[] customKeys = new String[customCount];
+        String[] customValues = new String[customCount];
+        for (int i = 0; i < customCount; i++) {
+            customKeys[i] = RecordCodec.getString(data);
+            customValues[i] = RecordCodec.getString(data);
+        }
+        return new TraceReader.Record(0, typeName, deeplink, trackingId, webViewAnalyticsId,
+                customKeys, customValues);
+    }
+}
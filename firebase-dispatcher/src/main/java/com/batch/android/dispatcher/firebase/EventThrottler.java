@@ -0,0 +1,116 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Per event type sampling and rate limiting
+ * Runs before anything is read from the deeplink, so dropped events cost a hash and a table lookup.
+ *
+ * Sampling is deterministic: an event is kept when the hash of its key (usually the tracking id)
+ * falls under the type's sample rate. As the hash doesn't depend on the type, a key kept for a type
+ * is also kept for every type with a higher rate, so funnels (show, click, close) stay consistent.
+ */
+final class EventThrottler
+{
+    private static final Batch.EventDispatcher.Type[] TYPES = Batch.EventDispatcher.Type.values();
+
+    /**
+     * 2^32, used to map a hash to [0, 1)
+     */
+    private static final double HASH_RANGE = 4294967296d;
+
+    /**
+     * Sample rates indexed by type ordinal, 1 for unsampled types
+     */
+    private final double[] sampleRates = new double[TYPES.length];
+
+    /**
+     * Rate limiters indexed by type ordinal, null for unlimited types
+     */
+    private final TokenBucket[] buckets = new TokenBucket[TYPES.length];
+
+    private final AtomicLong sampledOutCount = new AtomicLong();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+
+    EventThrottler(@NonNull Map<Batch.EventDispatcher.Type, Double> sampleRates,
+                   @NonNull Map<Batch.EventDispatcher.Type, FirebaseDispatcherConfig.RateLimit> rateLimits,
+                   long nowNanos)
+    {
+        for (Batch.EventDispatcher.Type type : TYPES) {
+            Double rate = sampleRates.get(type);
+            this.sampleRates[type.ordinal()] = rate == null ? 1d : rate;
+            FirebaseDispatcherConfig.RateLimit limit = rateLimits.get(type);
+            if (limit != null) {
+                buckets[type.ordinal()] = new TokenBucket(limit.eventsPerSecond, limit.burst, nowNanos);
+            }
+        }
+    }
+
+    /**
+     * Decide whether an event should be dispatched
+     *
+     * @param samplingKey Stable key the sampling decision is based on. Events without key are sampled randomly,
+     *                    which keeps counts scaled by the sample rate right.
+     * @param nowNanos Current time on a monotonic clock
+     */
+    boolean shouldDispatch(@NonNull Batch.EventDispatcher.Type type, @Nullable String samplingKey, long nowNanos)
+    {
+        int index = type.ordinal();
+        double rate = sampleRates[index];
+        if (rate < 1d && !(samplingKey != null ? isSampledIn(samplingKey, rate) : Math.random() < rate)) {
+            sampledOutCount.incrementAndGet();
+            return false;
+        }
+        TokenBucket bucket = buckets[index];
+        if (bucket != null && !bucket.tryAcquire(nowNanos)) {
+            rateLimitedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return Whether events of a type are sampled, and thus need a sampling key
+     */
+    boolean isSampled(@NonNull Batch.EventDispatcher.Type type)
+    {
+        return sampleRates[type.ordinal()] < 1d;
+    }
+
+    /**
+     * @return The sample rate applied to a type, 1 if the type isn't sampled
+     */
+    double getSampleRate(@NonNull Batch.EventDispatcher.Type type)
+    {
+        return sampleRates[type.ordinal()];
+    }
+
+    long getSampledOutCount()
+    {
+        return sampledOutCount.get();
+    }
+
+    long getRateLimitedCount()
+    {
+        return rateLimitedCount.get();
+    }
+
+    static boolean isSampledIn(@NonNull String samplingKey, double rate)
+    {
+        // String.hashCode is specified, so decisions are stable across processes and versions.
+        // It is mixed (murmur3 finalizer) to spread similar keys over the whole range.
+        int hash = samplingKey.hashCode();
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return (hash & 0xffffffffL) < rate * HASH_RANGE;
+    }
+}
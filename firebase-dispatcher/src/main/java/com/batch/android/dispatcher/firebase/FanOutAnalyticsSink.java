@@ -0,0 +1,164 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sink delivering each event to the primary sink, then to additional sinks
+ * The primary sink is called on the dispatching thread. Additional sinks are called on their executor,
+ * so a slow sink can't hold the dispatching thread, and each gets its own copy of the parameters.
+ * Sinks registered without an executor get a dedicated thread with a bounded queue: once it is full,
+ * new events are dropped for that sink only.
+ */
+final class FanOutAnalyticsSink implements DeliveryTrackingSink
+{
+    /**
+     * Number of events waiting for a sink on its dedicated thread
+     */
+    static final int DEDICATED_QUEUE_CAPACITY = 256;
+
+    private static final class Target
+    {
+        final AnalyticsSink sink;
+        final Executor executor;
+
+        Target(AnalyticsSink sink, Executor executor)
+        {
+            this.sink = sink;
+            this.executor = executor;
+        }
+    }
+
+    @NonNull
+    private final AnalyticsSink primary;
+
+    @NonNull
+    private final Target[] targets;
+
+    /**
+     * Dedicated executors, shut down with the sink
+     */
+    @NonNull
+    private final List<ThreadPoolExecutor> ownedExecutors = new ArrayList<>();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    FanOutAnalyticsSink(@NonNull AnalyticsSink primary,
+                        @NonNull List<FirebaseDispatcherConfig.SinkRegistration> registrations)
+    {
+        this.primary = primary;
+        this.targets = new Target[registrations.size()];
+        for (int i = 0; i < targets.length; i++) {
+            FirebaseDispatcherConfig.SinkRegistration registration = registrations.get(i);
+            Executor executor = registration.executor;
+            if (executor == null) {
+                ThreadPoolExecutor dedicated = createDedicatedExecutor(i);
+                ownedExecutors.add(dedicated);
+                executor = dedicated;
+            }
+            targets[i] = new Target(registration.sink, executor);
+        }
+    }
+
+    private ThreadPoolExecutor createDedicatedExecutor(final int index)
+    {
+        return new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(DEDICATED_QUEUE_CAPACITY),
+                new ThreadFactory()
+                {
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable)
+                    {
+                        Thread thread = new Thread(runnable, "BatchFirebaseSink-" + index);
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                },
+                new RejectedExecutionHandler()
+                {
+                    @Override
+                    public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor)
+                    {
+                        droppedCount.incrementAndGet();
+                    }
+                });
+    }
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        logToTargets(name, params);
+        primary.logEvent(name, params);
+    }
+
+    /**
+     * Log an event, telling whether the primary sink delivered it
+     */
+    @Override
+    public boolean logEvent(@NonNull String name, @Nullable Bundle params, long token, @NonNull Listener listener)
+    {
+        logToTargets(name, params);
+        if (primary instanceof DeliveryTrackingSink) {
+            return ((DeliveryTrackingSink) primary).logEvent(name, params, token, listener);
+        }
+        primary.logEvent(name, params);
+        return true;
+    }
+
+    private void logToTargets(@NonNull final String name, @Nullable Bundle params)
+    {
+        // Copies are made before the primary sink gets the original, in case it keeps or changes it
+        for (final Target target : targets) {
+            final Bundle copy = params == null ? null : new Bundle(params);
+            try {
+                target.executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        try {
+                            target.sink.logEvent(name, copy);
+                        } catch (RuntimeException e) {
+                            Log.e("Batch", "Firebase dispatcher: analytics sink failed to log " + name, e);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                droppedCount.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * @return Number of events an additional sink didn't receive because its executor rejected them
+     */
+    long getDroppedCount()
+    {
+        return droppedCount.get();
+    }
+
+    /**
+     * Stop the dedicated threads once the events already queued are delivered
+     * Later events aren't delivered to sinks that had a dedicated thread.
+     */
+    void shutdown()
+    {
+        for (ThreadPoolExecutor executor : ownedExecutors) {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+/**
+ * Sink forwarding events and user properties to Firebase Analytics
+ */
+final class FirebaseAnalyticsSink implements AnalyticsSink, UserPropertySink
+{
+    private final FirebaseAnalytics firebaseAnalytics;
+
+    FirebaseAnalyticsSink(@NonNull FirebaseAnalytics firebaseAnalytics)
+    {
+        this.firebaseAnalytics = firebaseAnalytics;
+    }
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        firebaseAnalytics.logEvent(name, params);
+    }
+
+    @Override
+    public void setUserProperty(@NonNull String name, @Nullable String value)
+    {
+        firebaseAnalytics.setUserProperty(name, value);
+    }
+}
@@ -1,8 +1,9 @@
 package com.batch.android.dispatcher.firebase;
 
 import android.content.Context;
-import android.net.Uri;
+import android.content.SharedPreferences;
 import android.os.Bundle;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -12,9 +13,18 @@ import com.batch.android.Batch;
 import com.batch.android.BatchEventDispatcher;
 import com.google.firebase.analytics.FirebaseAnalytics;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Firebase Event Dispatcher
@@ -31,47 +41,478 @@ public class FirebaseDispatcher implements BatchEventDispatcher
     private static final int DISPATCHER_VERSION = 1;
 
     /**
-     * Firebase UTM tag keys
+     * Key used to dispatch the sample rate of sampled events
      */
-    private static final String CAMPAIGN = "campaign";
-    private static final String SOURCE = "source";
-    private static final String MEDIUM = "medium";
-    private static final String CONTENT = "content";
+    private static final String BATCH_SAMPLE_RATE = "batch_sample_rate";
 
     /**
-     * UTM tag keys
+     * Maximum time {@link #shutdown()} waits for the queued events before summarizing the open in-app displays
      */
-    private static final String UTM_CAMPAIGN = "utm_campaign";
-    private static final String UTM_SOURCE = "utm_source";
-    private static final String UTM_MEDIUM = "utm_medium";
-    private static final String UTM_CONTENT = "utm_content";
+    static final long SHUTDOWN_DRAIN_TIMEOUT_MILLIS = 1000;
+
+    private final AnalyticsSink sink;
+
+    /**
+     * Sink delivering events to the additional sinks, null if none is configured
+     */
+    @Nullable
+    private final FanOutAnalyticsSink fanOutSink;
+
+    /**
+     * Sink buffering events until Firebase Analytics is initialized, null if lazy initialization is disabled
+     */
+    @Nullable
+    private final DeferredAnalyticsSink deferredSink;
+
+    /**
+     * Compiled mapping of the events and the state depending on it
+     */
+    private static final class Mapping
+    {
+        /**
+         * Platform-free mapping of the events, the dispatcher writes its output into Bundles
+         */
+        final AttributionEngine engine;
+
+        /**
+         * Aggregator of the in-app events, null if in-app aggregation is disabled
+         */
+        @Nullable
+        final InAppFunnelAggregator funnelAggregator;
+
+        Mapping(@NonNull AttributionEngine engine, @Nullable InAppFunnelAggregator funnelAggregator)
+        {
+            this.engine = engine;
+            this.funnelAggregator = funnelAggregator;
+        }
+
+        @NonNull
+        String[] getCustomPayloadKeys()
+        {
+            return engine.getPlan().getCustomPayloadKeys();
+        }
+    }
+
+    /**
+     * Mapping of the events, null while the manifest's rules are compiled on the initialization thread
+     */
+    @Nullable
+    private volatile Mapping mapping;
+
+    /**
+     * Released once the mapping is set
+     */
+    private final CountDownLatch mappingCompiled = new CountDownLatch(1);
+
+    /**
+     * Attributes of the displayed notifications whose deeplink the attribution cache doesn't keep
+     */
+    private final NotificationAttributions notificationAttributions = new NotificationAttributions();
+
+    /**
+     * Types of the events to dispatch, the others are dropped before anything is read
+     */
+    @NonNull
+    private final EnumSet<Batch.EventDispatcher.Type> enabledEventTypes;
+
+    /**
+     * Tracer of the dispatch stages, {@link Tracer#NONE} if tracing is disabled
+     */
+    @NonNull
+    private final Tracer tracer;
 
     /**
-     * Key used to dispatch the Batch tracking Id on Firebase
+     * Metrics collector, null if metrics are disabled
      */
-    private static final String BATCH_TRACKING_ID = "batch_tracking_id";
+    @Nullable
+    private final MetricsCollector metrics;
 
-    private static final String BATCH_WEBVIEW_ANALYTICS_ID = "batch_webview_analytics_id";
+    /**
+     * Sampling and rate limiting of the events, null if no type is sampled or limited
+     */
+    @Nullable
+    private final EventThrottler throttler;
 
     /**
-     * Event name used when logging on Firebase
+     * Filter of the events identical to a recent one, null if duplicate suppression is disabled
      */
-    private static final String NOTIFICATION_DISPLAY_NAME = "batch_notification_display";
-    private static final String NOTIFICATION_OPEN_NAME = "batch_notification_open";
-    private static final String NOTIFICATION_DISMISS_NAME = "batch_notification_dismiss";
-    private static final String MESSAGING_SHOW_NAME = "batch_in_app_show";
-    private static final String MESSAGING_CLOSE_NAME = "batch_in_app_close";
-    private static final String MESSAGING_AUTO_CLOSE_NAME = "batch_in_app_auto_close";
-    private static final String MESSAGING_CLOSE_ERROR_NAME = "batch_in_app_close_error";
-    private static final String MESSAGING_CLICK_NAME = "batch_in_app_click";
-    private static final String MESSAGING_WEBVIEW_CLICK_NAME = "batch_in_app_webview_click";
-    private static final String UNKNOWN_EVENT_NAME = "batch_unknown";
+    @Nullable
+    private final DuplicateEventFilter duplicateFilter;
 
-    private FirebaseAnalytics firebaseAnalytics;
+    /**
+     * Queue of the events waiting to be dispatched, null if asynchronous dispatch is disabled
+     */
+    @Nullable
+    private final AsyncEventQueue asyncQueue;
+
+    /**
+     * Writer of the incoming events, null if trace capture is disabled or failed
+     */
+    @Nullable
+    private volatile TraceWriter traceWriter;
+
+    /**
+     * Journal of the events not delivered yet, null if disabled, not opened yet or if it couldn't be opened
+     */
+    @Nullable
+    private volatile EventJournal journal;
+
+    /**
+     * Released once the journal thread tried to open the journal, then once it replayed it
+     */
+    private final CountDownLatch journalOpened;
+    private final CountDownLatch journalReplayed;
+
+    /**
+     * Commits the journaled events the sink kept, once they are delivered
+     */
+    private final DeliveryTrackingSink.Listener journalCommitter = new DeliveryTrackingSink.Listener()
+    {
+        @Override
+        public void onDelivered(long record)
+        {
+            commit(record);
+        }
+    };
+
+    /**
+     * Summarizes the timed out in-app message displays, null if in-app aggregation is disabled
+     */
+    @Nullable
+    private final ScheduledThreadPoolExecutor funnelExpiration;
 
     FirebaseDispatcher(Context context)
     {
-        firebaseAnalytics = FirebaseAnalytics.getInstance(context);
+        this(context, FirebaseDispatcherConfig.getDefault());
+    }
+
+    FirebaseDispatcher(Context context, @NonNull FirebaseDispatcherConfig config)
+    {
+        // Rules are compiled first, so that invalid ones fail before anything is started.
+        // With lazy initialization, the manifest's rules are compiled on the initialization thread instead.
+        this(readsManifestLazily(config) ? null : compileMappingPlan(context, config),
+                config.lazyInitializationEnabled ?
+                        new DeferredAnalyticsSink(config.pendingEventBufferSize) :
+                        new FirebaseAnalyticsSink(FirebaseAnalytics.getInstance(context)),
+                config,
+                config.stickyAttributionEnabled ?
+                        context.getSharedPreferences(StickyAttribution.PREFERENCES_NAME, Context.MODE_PRIVATE) :
+                        null);
+        if (deferredSink != null) {
+            initializeInBackground(deferredSink, context, config);
+        }
+    }
+
+    FirebaseDispatcher(@NonNull AnalyticsSink sink, @NonNull FirebaseDispatcherConfig config)
+    {
+        this(MappingRules.compile(config.mappingRules, parameterMasks(config)), sink, config, null);
+    }
+
+    /**
+     * @param mappingPlan Compiled mapping, null if it is set once compiled on the initialization thread
+     * @param preferences Storage of the sticky attribution, null to only keep it in memory
+     */
+    private FirebaseDispatcher(@Nullable MappingPlan mappingPlan,
+                               @NonNull AnalyticsSink sink,
+                               @NonNull FirebaseDispatcherConfig config,
+                               @Nullable SharedPreferences preferences)
+    {
+        this.enabledEventTypes = config.enabledEventTypes;
+        this.tracer = config.tracer;
+        this.deferredSink = sink instanceof DeferredAnalyticsSink ? (DeferredAnalyticsSink) sink : null;
+        AnalyticsSink primarySink = sink;
+        if (config.stickyAttributionEnabled) {
+            if (sink instanceof UserPropertySink) {
+                // Only the primary sink gets the user properties, additional sinks keep the full parameters
+                primarySink = new StickyAttribution(sink, preferences);
+            } else {
+                Log.w("Batch", "Firebase dispatcher: the analytics sink doesn't support user properties, " +
+                        "sticky attribution is disabled");
+            }
+        }
+        this.fanOutSink = config.additionalSinks.isEmpty() ? null :
+                new FanOutAnalyticsSink(primarySink, config.additionalSinks);
+        this.sink = fanOutSink != null ? fanOutSink : primarySink;
+        this.metrics = config.metricsEnabled ? new MetricsCollector() : null;
+        this.throttler = config.sampleRates.isEmpty() && config.rateLimits.isEmpty() ? null :
+                new EventThrottler(config.sampleRates, config.rateLimits, System.nanoTime());
+        this.duplicateFilter = config.duplicateWindowMillis > 0 ?
+                new DuplicateEventFilter(config.duplicateWindowMillis) : null;
+        if (config.asyncDispatchEnabled) {
+            this.asyncQueue = new AsyncEventQueue(new AsyncEventQueue.Handler()
+            {
+                @Override
+                public void handle(@NonNull Batch.EventDispatcher.Type type,
+                                   @NonNull Batch.EventDispatcher.Payload payload)
+                {
+                    CapturedPayload captured = (CapturedPayload) payload;
+                    if (dispatchEventNow(type, captured, null, captured.journalRecord, captured.receivedMillis)) {
+                        commit(captured.journalRecord);
+                    }
+                }
+
+                @Override
+                public void drop(@NonNull Batch.EventDispatcher.Payload payload)
+                {
+                    // Dropped on purpose, not to be sent by the next process either
+                    commit(((CapturedPayload) payload).journalRecord);
+                }
+            }, config.asyncQueueCapacity, config.asyncOverflowPolicy, config.asyncBlockTimeoutMillis);
+        } else {
+            this.asyncQueue = null;
+        }
+        if (config.traceCaptureFile != null) {
+            try {
+                this.traceWriter = new TraceWriter(config.traceCaptureFile);
+            } catch (IOException e) {
+                Log.e("Batch", "Firebase dispatcher: could not open trace file, events will not be captured", e);
+            }
+        }
+        this.funnelExpiration = config.inAppAggregationEnabled ?
+                startFunnelExpiration(config.inAppAggregationTimeoutMillis) : null;
+        if (mappingPlan != null) {
+            setMapping(mappingPlan, config);
+        }
+        int journalThreads = config.eventJournalFile != null ? 1 : 0;
+        this.journalOpened = new CountDownLatch(journalThreads);
+        this.journalReplayed = new CountDownLatch(journalThreads);
+        if (config.eventJournalFile != null) {
+            openJournalInBackground(config.eventJournalFile);
+        }
+    }
+
+    /**
+     * Build the state depending on the mapping, and release the events waiting for it
+     */
+    private void setMapping(@NonNull MappingPlan mappingPlan, @NonNull FirebaseDispatcherConfig config)
+    {
+        AttributionEngine engine = new AttributionEngine(mappingPlan, config.attributionCacheSize,
+                config.stringInternerCapacity, tracer);
+        InAppFunnelAggregator funnelAggregator = null;
+        if (config.inAppAggregationEnabled) {
+            funnelAggregator = new InAppFunnelAggregator(new InAppFunnelAggregator.Emitter()
+            {
+                @Override
+                public void emit(@NonNull Batch.EventDispatcher.Payload payload,
+                                 @NonNull InAppFunnelAggregator.Summary summary)
+                {
+                    dispatchSummary(payload, summary);
+                }
+
+                @Override
+                public void release(long journalRecord)
+                {
+                    commit(journalRecord);
+                }
+            }, config.inAppAggregationTimeoutMillis, mappingPlan.getCustomPayloadKeys());
+        }
+        this.mapping = new Mapping(engine, funnelAggregator);
+        mappingCompiled.countDown();
+    }
+
+    /**
+     * @return The mapping of the events. Events dispatched while the initialization thread compiles
+     * the manifest's rules wait for them.
+     */
+    @NonNull
+    private Mapping mapping()
+    {
+        Mapping current = mapping;
+        if (current != null) {
+            return current;
+        }
+        awaitUninterruptibly(mappingCompiled);
+        return mapping;
+    }
+
+    /**
+     * @return The journal, null if disabled or if it couldn't be opened. Events dispatched while
+     * the journal thread opens it wait for it.
+     */
+    @Nullable
+    private EventJournal journal()
+    {
+        if (journalOpened.getCount() > 0) {
+            awaitUninterruptibly(journalOpened);
+        }
+        return journal;
+    }
+
+    private static void awaitUninterruptibly(@NonNull CountDownLatch latch)
+    {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Open the journal, then replay it once the sink is initialized, on a background thread
+     * If Firebase Analytics can't be initialized, the events are kept for the next process.
+     */
+    private void openJournalInBackground(@NonNull final File file)
+    {
+        Thread thread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try {
+                    journal = openJournal(file);
+                } finally {
+                    journalOpened.countDown();
+                }
+                try {
+                    EventJournal opened = journal;
+                    if (opened != null && awaitSink()) {
+                        replayJournal(opened);
+                    }
+                } finally {
+                    journalReplayed.countDown();
+                }
+            }
+        }, "BatchFirebaseJournal");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * @return Whether events can be delivered, once the lazy initialization completed
+     */
+    private boolean awaitSink()
+    {
+        if (deferredSink == null) {
+            return true;
+        }
+        while (true) {
+            try {
+                deferredSink.awaitInitialization(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+                return deferredSink.isInitialized();
+            } catch (InterruptedException e) {
+                // Nothing interrupts the journal thread
+            }
+        }
+    }
+
+    @Nullable
+    private static EventJournal openJournal(@NonNull File file)
+    {
+        try {
+            return new EventJournal(file, EventJournal.DEFAULT_CAPACITY);
+        } catch (IOException | RuntimeException e) {
+            Log.e("Batch", "Firebase dispatcher: could not open the event journal, events will not be journaled", e);
+            return null;
+        }
+    }
+
+    /**
+     * Send the events the previous process received but didn't deliver
+     * They already went through sampling, rate limiting and duplicate suppression.
+     */
+    private void replayJournal(@NonNull EventJournal journal)
+    {
+        for (EventJournal.PendingEvent pending : journal.takePendingEvents()) {
+            if (pending.event.type == null || !enabledEventTypes.contains(pending.event.type) ||
+                    dispatchEventNow(pending.event.type, pending.event, null, pending.record,
+                            SystemClock.elapsedRealtime())) {
+                journal.commit(pending.record);
+            }
+        }
+    }
+
+    private ScheduledThreadPoolExecutor startFunnelExpiration(long timeoutMillis)
+    {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactory()
+        {
+            @Override
+            public Thread newThread(@NonNull Runnable runnable)
+            {
+                Thread thread = new Thread(runnable, "BatchFirebaseFunnel");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        // Displays are also expired when events are recorded, this only covers quiet periods
+        long period = Math.max(1000, timeoutMillis / 2);
+        executor.scheduleWithFixedDelay(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                Mapping current = mapping;
+                if (current != null && current.funnelAggregator != null) {
+                    current.funnelAggregator.expire(SystemClock.elapsedRealtime());
+                }
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+        return executor;
+    }
+
+    /**
+     * @return Whether the manifest's rules are read, on the initialization thread
+     */
+    private static boolean readsManifestLazily(@NonNull FirebaseDispatcherConfig config)
+    {
+        return config.lazyInitializationEnabled && config.manifestMappingRulesEnabled && config.mappingRules == null;
+    }
+
+    private static MappingPlan compileMappingPlan(Context context, @NonNull FirebaseDispatcherConfig config)
+    {
+        MappingRules rules = config.mappingRules;
+        if (rules == null && config.manifestMappingRulesEnabled) {
+            rules = MappingRules.fromManifest(context);
+        }
+        return MappingRules.compile(rules, parameterMasks(config));
+    }
+
+    private static Map<EventType, Set<String>> parameterMasks(@NonNull FirebaseDispatcherConfig config)
+    {
+        Map<EventType, Set<String>> masks = new EnumMap<>(EventType.class);
+        for (Map.Entry<Batch.EventDispatcher.Type, Set<String>> entry : config.eventParameters.entrySet()) {
+            EventType type = BatchEventAdapter.typeOf(entry.getKey());
+            if (type != null) {
+                masks.put(type, entry.getValue());
+            }
+        }
+        return masks;
+    }
+
+    /**
+     * Compile the manifest's rules if they are read lazily, then create Firebase Analytics, on a background thread
+     * Invalid rules fail the initialization: the events are then dropped, as when Firebase Analytics
+     * can't be initialized.
+     */
+    private void initializeInBackground(@NonNull DeferredAnalyticsSink deferred,
+                                        Context context,
+                                        @NonNull final FirebaseDispatcherConfig config)
+    {
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        deferred.initializeInBackground(new DeferredAnalyticsSink.Factory()
+        {
+            @NonNull
+            @Override
+            public AnalyticsSink create()
+            {
+                if (mapping == null) {
+                    MappingPlan plan = null;
+                    try {
+                        plan = compileMappingPlan(appContext, config);
+                    } finally {
+                        // Events waiting for the mapping are released either way
+                        setMapping(plan != null ? plan : MappingRules.compile(null, parameterMasks(config)), config);
+                    }
+                }
+                return new FirebaseAnalyticsSink(FirebaseAnalytics.getInstance(appContext));
+            }
+        });
     }
 
     /**
@@ -84,165 +525,543 @@ public class FirebaseDispatcher implements BatchEventDispatcher
     public void dispatchEvent(@NonNull Batch.EventDispatcher.Type type,
                               @NonNull Batch.EventDispatcher.Payload payload)
     {
-        Bundle firebaseParams = null;
-        if (type.isNotificationEvent()) {
-            firebaseParams = getNotificationParams(payload);
-        } else if (type.isMessagingEvent()) {
-            firebaseParams = getInAppParams(payload);
+        if (!enabledEventTypes.contains(type)) {
+            return;
+        }
+        if (traceWriter != null) {
+            capture(type, payload);
+        }
+        if (!accept(type, payload)) {
+            return;
+        }
+        // In-app displays are timed from the reception of their events, not from their dispatch
+        long receivedMillis = SystemClock.elapsedRealtime();
+        EventJournal journal = journal();
+        long record = journal != null ?
+                journal.append(type, payload, mapping().getCustomPayloadKeys()) :
+                EventJournal.NO_RECORD;
+        if (asyncQueue != null && asyncQueue.enqueue(type,
+                new CapturedPayload(payload, mapping().getCustomPayloadKeys(), record, receivedMillis))) {
+            return;
+        }
+        if (dispatchEventNow(type, payload, null, record, receivedMillis)) {
+            commit(record);
         }
-
-        firebaseAnalytics.logEvent(getFirebaseEventName(type), firebaseParams);
     }
 
-    private static Bundle getInAppParams(Batch.EventDispatcher.Payload payload)
+    /**
+     * Dispatch many events at once, for example to replay events captured while offline
+     * or before consent was given.
+     * Events go through the same sampling, rate limiting and duplicate suppression as with
+     * {@link #dispatchEvent(Batch.EventDispatcher.Type, Batch.EventDispatcher.Payload)}, and are sent
+     * in the order of the list. Each distinct deeplink is only parsed once for the whole list.
+     *
+     * @param events Events to dispatch
+     */
+    public void dispatchEvents(@NonNull List<DispatcherEvent> events)
     {
-        Bundle firebaseParams = new Bundle();
-        firebaseParams.putString(CAMPAIGN, payload.getTrackingId());
-        firebaseParams.putString(SOURCE, "batch");
-        firebaseParams.putString(MEDIUM, "in-app");
-        firebaseParams.putString(BATCH_TRACKING_ID, payload.getTrackingId());
+        Mapping mapping = mapping();
+        EventJournal journal = journal();
+        long receivedMillis = SystemClock.elapsedRealtime();
+        int count = events.size();
+        Batch.EventDispatcher.Type[] types = new Batch.EventDispatcher.Type[count];
+        Batch.EventDispatcher.Payload[] payloads = new Batch.EventDispatcher.Payload[count];
+        long[] records = new long[count];
+        int accepted = 0;
+        for (int i = 0; i < count; i++) {
+            DispatcherEvent event = events.get(i);
+            if (!enabledEventTypes.contains(event.getType())) {
+                continue;
+            }
+            if (traceWriter != null) {
+                capture(event.getType(), event.getPayload());
+            }
+            if (accept(event.getType(), event.getPayload())) {
+                types[accepted] = event.getType();
+                payloads[accepted] = event.getPayload();
+                records[accepted] = journal != null ?
+                        journal.append(event.getType(), event.getPayload(), mapping.getCustomPayloadKeys()) :
+                        EventJournal.NO_RECORD;
+                accepted++;
+            }
+        }
 
-        String webViewAnalyticsId = payload.getWebViewAnalyticsID();
-        if (webViewAnalyticsId != null) {
-            firebaseParams.putString(BATCH_WEBVIEW_ANALYTICS_ID, webViewAnalyticsId);
+        int start = 0;
+        if (asyncQueue != null) {
+            String[] customKeys = mapping.getCustomPayloadKeys();
+            while (start < accepted &&
+                    asyncQueue.enqueue(types[start],
+                            new CapturedPayload(payloads[start], customKeys, records[start], receivedMillis))) {
+                start++;
+            }
         }
 
-        String deeplink = payload.getDeeplink();
-        if (deeplink != null) {
-            try {
-                deeplink = deeplink.trim();
-                Uri uri = Uri.parse(deeplink);
-                if (uri.isHierarchical()) {
-                    String fragment = uri.getFragment();
-                    if (fragment != null && !fragment.isEmpty()) {
-                        Map<String, String> fragments = getFragmentMap(fragment);
-                        // Copy from fragment part of the deeplink
-                        copyValueFromMap(fragments, UTM_CONTENT, firebaseParams, CONTENT);
+        // Events sharing a deeplink share its attributes: resolve each one once, then send in order.
+        // Consecutive events (display, open, dismiss of a notification) usually share it, so the
+        // previous deeplink is checked before the map.
+        Map<String, UtmAttributes> attributesByDeeplink = new HashMap<>(Math.max(16, (accepted - start) * 4 / 3));
+        String previousDeeplink = null;
+        UtmAttributes previousAttributes = null;
+        for (int i = start; i < accepted; i++) {
+            UtmAttributes attributes = null;
+            if (mapping.engine.getEventPlan(BatchEventAdapter.typeOf(types[i])).readsDeeplink) {
+                String deeplink = payloads[i].getDeeplink();
+                if (deeplink == null) {
+                    attributes = UtmAttributes.EMPTY;
+                } else if (deeplink.equals(previousDeeplink)) {
+                    attributes = previousAttributes;
+                } else {
+                    attributes = attributesByDeeplink.get(deeplink);
+                    if (attributes == null) {
+                        attributes = mapping.engine.resolve(deeplink);
+                        attributesByDeeplink.put(deeplink, attributes);
                     }
-                    // Copy from query parameters of the deeplink
-                    copyValueFromQuery(uri, UTM_CONTENT, firebaseParams, CONTENT);
+                    previousDeeplink = deeplink;
+                    previousAttributes = attributes;
                 }
-            } catch (Exception e) {
-                Log.e("Batch", "Something went wrong parsing deeplink: " + e.getLocalizedMessage());
+            }
+            if (dispatchEventNow(types[i], payloads[i], attributes, records[i], receivedMillis)) {
+                commit(records[i]);
             }
         }
-        // Load from custom payload
-        copyValueFromPayload(payload, UTM_CAMPAIGN, firebaseParams, CAMPAIGN);
-        copyValueFromPayload(payload, UTM_MEDIUM, firebaseParams, MEDIUM);
-        copyValueFromPayload(payload, UTM_SOURCE, firebaseParams, SOURCE);
-        return firebaseParams;
     }
 
-    private static Bundle getNotificationParams(Batch.EventDispatcher.Payload payload)
+    /**
+     * Mark a journaled event as delivered
+     */
+    private void commit(long record)
     {
-        Bundle firebaseParams = new Bundle();
-        firebaseParams.putString(SOURCE, "batch");
-        firebaseParams.putString(MEDIUM, "push");
+        if (journal != null) {
+            journal.commit(record);
+        }
+    }
 
-        String deeplink = payload.getDeeplink();
-        if (deeplink != null) {
-            try {
-                deeplink = deeplink.trim();
-                Uri uri = Uri.parse(deeplink);
-                if(uri.isHierarchical()) {
-                    String fragment = uri.getFragment();
-                    if (fragment != null && !fragment.isEmpty()) {
-                        Map<String, String> fragments = getFragmentMap(fragment);
-                        // Copy from fragment part of the deeplink
-                        copyValueFromMap(fragments, UTM_CAMPAIGN, firebaseParams, CAMPAIGN);
-                        copyValueFromMap(fragments, UTM_MEDIUM, firebaseParams, MEDIUM);
-                        copyValueFromMap(fragments, UTM_SOURCE, firebaseParams, SOURCE);
-                        copyValueFromMap(fragments, UTM_CONTENT, firebaseParams, CONTENT);
-                    }
+    /**
+     * Write an event to the trace, stopping the capture if the trace can't be written
+     */
+    private void capture(@NonNull Batch.EventDispatcher.Type type, @NonNull Batch.EventDispatcher.Payload payload)
+    {
+        TraceWriter writer = traceWriter;
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.record(type, payload, mapping().getCustomPayloadKeys());
+        } catch (IOException e) {
+            Log.e("Batch", "Firebase dispatcher: could not write trace, stopping capture", e);
+            traceWriter = null;
+            closeQuietly(writer);
+        }
+    }
+
+    private static void closeQuietly(@NonNull TraceWriter writer)
+    {
+        try {
+            writer.close();
+        } catch (IOException ignored) {
+            // The capture is already stopped
+        }
+    }
 
-                    // Copy from query parameters of the deeplink
-                    copyValueFromQuery(uri, UTM_CAMPAIGN, firebaseParams, CAMPAIGN);
-                    copyValueFromQuery(uri, UTM_MEDIUM, firebaseParams, MEDIUM);
-                    copyValueFromQuery(uri, UTM_SOURCE, firebaseParams, SOURCE);
-                    copyValueFromQuery(uri, UTM_CONTENT, firebaseParams, CONTENT);
+    /**
+     * Record an event and run it through sampling, rate limiting and duplicate suppression
+     *
+     * @return true if the event should be dispatched
+     */
+    private boolean accept(@NonNull Batch.EventDispatcher.Type type,
+                           @NonNull Batch.EventDispatcher.Payload payload)
+    {
+        if (metrics != null) {
+            metrics.onEventReceived(type);
+        }
+        // Duplicates are suppressed first, so that they don't use rate limiting tokens
+        if (duplicateFilter != null && duplicateFilter.isDuplicate(type, payload, SystemClock.elapsedRealtime())) {
+            return false;
+        }
+        return throttler == null || shouldDispatch(throttler, type, payload);
+    }
+
+    /**
+     * @param attributes Attributes of the payload's deeplink if already resolved, null to resolve them
+     * @param record Journal record of the event, committed by {@link #journalCommitter} if the sink
+     * keeps the event and delivers it later, or with the summary if the event is aggregated
+     * @param receivedMillis Time the event was received, on the {@link SystemClock#elapsedRealtime()} clock
+     * @return true if the record can be committed: the event was delivered
+     */
+    private boolean dispatchEventNow(@NonNull Batch.EventDispatcher.Type type,
+                                     @NonNull Batch.EventDispatcher.Payload payload,
+                                     @Nullable UtmAttributes attributes,
+                                     long record,
+                                     long receivedMillis)
+    {
+        Mapping mapping = mapping();
+        if (mapping.funnelAggregator != null &&
+                mapping.funnelAggregator.record(type, payload, receivedMillis, record)) {
+            return false;
+        }
+        tracer.beginSection(Tracer.DISPATCH_EVENT);
+        try {
+            return mapAndLogEvent(mapping, type, payload, attributes, record);
+        } finally {
+            tracer.endSection();
+        }
+    }
+
+    private boolean mapAndLogEvent(@NonNull Mapping mapping,
+                                   @NonNull Batch.EventDispatcher.Type type,
+                                   @NonNull Batch.EventDispatcher.Payload payload,
+                                   @Nullable UtmAttributes attributes,
+                                   long record)
+    {
+        long start = metrics != null ? System.nanoTime() : 0;
+
+        AttributionEngine engine = mapping.engine;
+        MappingPlan.EventPlan plan = engine.getEventPlan(BatchEventAdapter.typeOf(type));
+        // The open and dismiss of a notification reuse the attributes its display resolved
+        if (plan.readsDeeplink) {
+            if (attributes == null && isNotificationEvent(type)) {
+                attributes = getNotificationAttributes(engine, type, payload);
+            }
+            attributes = getAttributes(engine, payload, attributes);
+        }
+        boolean sampled = throttler != null && throttler.isSampled(type);
+        Bundle firebaseParams = engine.write(plan, BatchEventAdapter.payloadOf(payload), attributes,
+                sampled ? 1 : 0, BundleParameterWriter.INSTANCE);
+
+        if (sampled && firebaseParams != null) {
+            firebaseParams.putDouble(BATCH_SAMPLE_RATE, throttler.getSampleRate(type));
+        }
+
+        if (metrics == null) {
+            return logEvent(plan.eventName, firebaseParams, record);
+        }
+        long extracted = System.nanoTime();
+        metrics.onParamsExtracted(extracted - start);
+        boolean delivered = logEvent(plan.eventName, firebaseParams, record);
+        metrics.onEventLogged(type, System.nanoTime() - extracted);
+        return delivered;
+    }
+
+    /**
+     * Send the summary of an in-app message display, with the parameters of its show event
+     * The journal records of the aggregated events are committed once the summary is delivered.
+     */
+    private void dispatchSummary(@NonNull Batch.EventDispatcher.Payload payload,
+                                 @NonNull InAppFunnelAggregator.Summary summary)
+    {
+        AttributionEngine engine = mapping().engine;
+        MappingPlan.EventPlan plan = engine.getEventPlan(EventType.MESSAGING_SHOW);
+        UtmAttributes attributes = plan.readsDeeplink ? getAttributes(engine, payload, null) : null;
+        Bundle params = engine.write(plan, BatchEventAdapter.payloadOf(payload), attributes, 4,
+                BundleParameterWriter.INSTANCE);
+        if (params == null) {
+            params = new Bundle(4);
+        }
+        params.putLong(InAppFunnelAggregator.CLICK_COUNT, summary.clickCount);
+        if (summary.timeToFirstClickMillis >= 0) {
+            params.putLong(InAppFunnelAggregator.TIME_TO_FIRST_CLICK, summary.timeToFirstClickMillis);
+        }
+        params.putLong(InAppFunnelAggregator.DISPLAY_DURATION, summary.displayDurationMillis);
+        params.putString(InAppFunnelAggregator.CLOSE_REASON, summary.closeReason);
+        final long[] records = summary.journalRecords;
+        if (records.length == 0) {
+            logEvent(InAppFunnelAggregator.SUMMARY_EVENT_NAME, params, EventJournal.NO_RECORD, null);
+            return;
+        }
+        DeliveryTrackingSink.Listener committer = new DeliveryTrackingSink.Listener()
+        {
+            @Override
+            public void onDelivered(long token)
+            {
+                for (long record : records) {
+                    commit(record);
                 }
-            } catch (Exception e) {
-                Log.e("Batch", "Something went wrong parsing deeplink: " + e.getLocalizedMessage());
             }
+        };
+        if (logEvent(InAppFunnelAggregator.SUMMARY_EVENT_NAME, params, 0, committer)) {
+            committer.onDelivered(0);
         }
-        // Load from custom payload
-        copyValueFromPayload(payload, UTM_CAMPAIGN, firebaseParams, CAMPAIGN);
-        copyValueFromPayload(payload, UTM_MEDIUM, firebaseParams, MEDIUM);
-        copyValueFromPayload(payload, UTM_SOURCE, firebaseParams, SOURCE);
-        return firebaseParams;
     }
 
-    private static Map<String, String> getFragmentMap(String fragment)
+    private boolean logEvent(@NonNull String name, @Nullable Bundle params, long record)
     {
-        String[] params = fragment.split("&");
-        Map<String, String> map = new HashMap<>();
-        for (String param : params) {
-            String[] parts = param.split("=");
-            if (parts.length >= 2) {
-                map.put(parts[0].toLowerCase(), parts[1]);
+        return logEvent(name, params, record, record != EventJournal.NO_RECORD ? journalCommitter : null);
+    }
+
+    /**
+     * @param listener Called with the token if the sink keeps the event and delivers it later, null if untracked
+     * @return true if the event was delivered, false if the sink kept or dropped it
+     */
+    private boolean logEvent(@NonNull String name,
+                             @Nullable Bundle params,
+                             long token,
+                             @Nullable DeliveryTrackingSink.Listener listener)
+    {
+        tracer.beginSection(Tracer.LOG_EVENT);
+        try {
+            if (listener != null && sink instanceof DeliveryTrackingSink) {
+                return ((DeliveryTrackingSink) sink).logEvent(name, params, token, listener);
             }
+            sink.logEvent(name, params);
+            return true;
+        } finally {
+            tracer.endSection();
         }
-        return map;
     }
 
-    private static void copyValueFromMap(Map<String, String> map,
-                                         String keyFrom,
-                                         Bundle bundle,
-                                         String keyOut)
+    private static boolean shouldDispatch(@NonNull EventThrottler throttler,
+                                          @NonNull Batch.EventDispatcher.Type type,
+                                          @NonNull Batch.EventDispatcher.Payload payload)
     {
-        String value = map.get(keyFrom);
-        if (value != null) {
-            bundle.putString(keyOut, value);
+        String samplingKey = null;
+        if (throttler.isSampled(type)) {
+            samplingKey = payload.getTrackingId();
+            if (samplingKey == null) {
+                samplingKey = Batch.User.getInstallationID();
+            }
         }
+        return throttler.shouldDispatch(type, samplingKey, System.nanoTime());
     }
 
-    private static void copyValueFromQuery(Uri uri, String keyFrom, Bundle bundle, String keyOut)
+    private static boolean isNotificationEvent(@NonNull Batch.EventDispatcher.Type type)
     {
-        Set<String> keys = uri.getQueryParameterNames();
-        for (String key : keys) {
-            if (keyFrom.equalsIgnoreCase(key)) {
-                String value = uri.getQueryParameter(key);
-                if (value != null) {
-                    bundle.putString(keyOut, value);
-                    return;
-                }
+        return type == Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY ||
+                type == Batch.EventDispatcher.Type.NOTIFICATION_OPEN ||
+                type == Batch.EventDispatcher.Type.NOTIFICATION_DISMISS;
+    }
+
+    /**
+     * Resolve the attributes of a notification event, keeping those of a display for its open and
+     * dismiss when the attribution cache doesn't
+     */
+    @NonNull
+    private UtmAttributes getNotificationAttributes(@NonNull AttributionEngine engine,
+                                                   @NonNull Batch.EventDispatcher.Type type,
+                                                   @NonNull Batch.EventDispatcher.Payload payload)
+    {
+        tracer.beginSection(Tracer.PAYLOAD_READ);
+        String deeplink = payload.getDeeplink();
+        tracer.endSection();
+        if (deeplink == null || engine.cachesAttributes(deeplink)) {
+            return engine.resolve(deeplink);
+        }
+        long now = System.nanoTime();
+        if (type == Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY) {
+            UtmAttributes attributes = engine.resolve(deeplink);
+            notificationAttributions.put(deeplink, attributes, now);
+            return attributes;
+        }
+        UtmAttributes attributes = notificationAttributions.get(deeplink, now);
+        return attributes != null ? attributes : engine.resolve(deeplink);
+    }
+
+    private UtmAttributes getAttributes(@NonNull AttributionEngine engine,
+                                        Batch.EventDispatcher.Payload payload,
+                                        @Nullable UtmAttributes resolved)
+    {
+        UtmAttributes attributes = resolved;
+        if (attributes == null) {
+            tracer.beginSection(Tracer.PAYLOAD_READ);
+            String deeplink = payload.getDeeplink();
+            tracer.endSection();
+            attributes = engine.resolve(deeplink);
+        }
+        if (metrics != null && attributes.isMalformed()) {
+            metrics.onParseFailure();
+        }
+        return attributes;
+    }
+
+    /**
+     * Wait until every event dispatched so far has been sent to Firebase, with the events the journal
+     * kept from the previous process
+     * Returns immediately if asynchronous dispatch, lazy initialization and the journal are disabled.
+     *
+     * @param timeout Maximum time to wait
+     * @param unit Unit of the timeout
+     * @return true if every event has been sent, false if the timeout elapsed first
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    public boolean flush(long timeout, @NonNull TimeUnit unit) throws InterruptedException
+    {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        TraceWriter writer = traceWriter;
+        if (writer != null) {
+            try {
+                writer.flush();
+            } catch (IOException e) {
+                Log.e("Batch", "Firebase dispatcher: could not write trace, stopping capture", e);
+                traceWriter = null;
+                closeQuietly(writer);
+            }
+        }
+        // The queue, then the initialization, share the caller's deadline
+        if (asyncQueue != null && !asyncQueue.flush(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        if (deferredSink != null &&
+                !deferredSink.awaitInitialization(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+            return false;
+        }
+        return journalReplayed.await(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Stop the asynchronous dispatch worker and the threads of the additional sinks,
+     * once the events already queued are sent
+     * Events dispatched afterwards are sent synchronously, on the calling thread, and aren't
+     * delivered to additional sinks registered without an executor.
+     * In-app message displays still open are summarized as timed out, once the queued events are
+     * recorded, waiting up to {@link #SHUTDOWN_DRAIN_TIMEOUT_MILLIS} for them.
+     */
+    public void shutdown()
+    {
+        if (asyncQueue != null) {
+            asyncQueue.shutdown();
+        }
+        if (funnelExpiration != null) {
+            funnelExpiration.shutdown();
+            if (asyncQueue != null) {
+                awaitQueueDrained(asyncQueue);
+            }
+            Mapping current = mapping;
+            if (current != null && current.funnelAggregator != null) {
+                current.funnelAggregator.expireAll();
             }
         }
+        TraceWriter writer = traceWriter;
+        if (writer != null) {
+            traceWriter = null;
+            try {
+                writer.close();
+            } catch (IOException e) {
+                Log.e("Batch", "Firebase dispatcher: could not write the end of the trace", e);
+            }
+        }
+        if (fanOutSink != null) {
+            fanOutSink.shutdown();
+        }
+    }
+
+    /**
+     * Wait for the worker to handle the queued events, so that they are part of the summarized displays
+     */
+    private static void awaitQueueDrained(@NonNull AsyncEventQueue queue)
+    {
+        try {
+            if (!queue.flush(SHUTDOWN_DRAIN_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w("Batch", "Firebase dispatcher: queued events are still being dispatched at shutdown");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the number of events dropped because the asynchronous dispatch queue was full
+     *
+     * @return Number of dropped events, always 0 if asynchronous dispatch is disabled
+     */
+    public long getDroppedEventCount()
+    {
+        return asyncQueue == null ? 0 : asyncQueue.getDroppedCount();
+    }
+
+    /**
+     * Get the number of events dropped while waiting for Firebase Analytics to be initialized,
+     * because the pending event buffer was full or initialization failed
+     *
+     * @return Number of dropped events, always 0 if lazy initialization is disabled
+     */
+    public long getPendingEventDroppedCount()
+    {
+        return deferredSink == null ? 0 : deferredSink.getDroppedCount();
+    }
+
+    /**
+     * Get the number of events an additional sink didn't receive, because it fell too far behind
+     * or its executor rejected them
+     *
+     * @return Number of dropped deliveries, always 0 if no additional sink is configured
+     */
+    public long getSinkDroppedEventCount()
+    {
+        return fanOutSink == null ? 0 : fanOutSink.getDroppedCount();
+    }
+
+    /**
+     * Get the number of events dropped by sampling
+     *
+     * @return Number of sampled out events
+     */
+    public long getSampledOutEventCount()
+    {
+        return throttler == null ? 0 : throttler.getSampledOutCount();
+    }
+
+    /**
+     * Get the number of events dropped because their type exceeded its rate limit
+     *
+     * @return Number of rate limited events
+     */
+    public long getRateLimitedEventCount()
+    {
+        return throttler == null ? 0 : throttler.getRateLimitedCount();
     }
 
-    private static void copyValueFromPayload(Batch.EventDispatcher.Payload payload,
-                                             String keyFrom,
-                                             Bundle bundle,
-                                             String keyOut)
-    {
-        String value = payload.getCustomValue(keyFrom);
-        if (value != null) {
-            bundle.putString(keyOut, value);
-        }
-    }
-
-    private static String getFirebaseEventName(Batch.EventDispatcher.Type type) {
-        switch (type) {
-            case NOTIFICATION_DISPLAY:
-                return NOTIFICATION_DISPLAY_NAME;
-            case NOTIFICATION_OPEN:
-                return NOTIFICATION_OPEN_NAME;
-            case NOTIFICATION_DISMISS:
-                return NOTIFICATION_DISMISS_NAME;
-            case MESSAGING_SHOW:
-                return MESSAGING_SHOW_NAME;
-            case MESSAGING_CLOSE:
-                return MESSAGING_CLOSE_NAME;
-            case MESSAGING_AUTO_CLOSE:
-                return MESSAGING_AUTO_CLOSE_NAME;
-            case MESSAGING_CLOSE_ERROR:
-                return MESSAGING_CLOSE_ERROR_NAME;
-            case MESSAGING_CLICK:
-                return MESSAGING_CLICK_NAME;
-            case MESSAGING_WEBVIEW_CLICK:
-                return MESSAGING_WEBVIEW_CLICK_NAME;
-        }
-        return UNKNOWN_EVENT_NAME;
+    /**
+     * Get the number of events dropped because an identical event was dispatched within the suppression window
+     *
+     * @return Number of suppressed events, always 0 if duplicate suppression is disabled
+     */
+    public long getSuppressedDuplicateCount()
+    {
+        return duplicateFilter == null ? 0 : duplicateFilter.getSuppressedCount();
+    }
+
+    /**
+     * Get the dispatcher metrics: event counters, deeplink parse failures and stage latencies
+     *
+     * @return A snapshot of the metrics, or null if metrics are disabled
+     */
+    @Nullable
+    public DispatcherMetrics getMetrics()
+    {
+        return metrics == null ? null : metrics.snapshot(false);
+    }
+
+    /**
+     * Get the dispatcher metrics and reset them, so that the next snapshot only covers new events
+     * Useful to periodically forward the metrics to your own telemetry.
+     *
+     * @return A snapshot of the metrics, or null if metrics are disabled
+     */
+    @Nullable
+    public DispatcherMetrics getAndResetMetrics()
+    {
+        return metrics == null ? null : metrics.snapshot(true);
+    }
+
+    /**
+     * Get the counters of the cache holding the UTM attributes of recently seen deeplinks
+     *
+     * @return A snapshot of the cache counters
+     */
+    @NonNull
+    public AttributionCacheStats getAttributionCacheStats()
+    {
+        return mapping().engine.getAttributionCacheStats();
+    }
+
+    /**
+     * Get the counters of the event parameters changed to fit Firebase's limits on their length and count
+     *
+     * @return A snapshot of the counters
+     */
+    @NonNull
+    public ParameterLimitStats getParameterLimitStats()
+    {
+        return mapping().engine.getParameterLimitStats();
     }
 
     @Nullable
@@ -0,0 +1,669 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Firebase dispatcher configuration
+ * Must be given to {@link FirebaseRegistrar#setConfig(FirebaseDispatcherConfig)} before Batch starts,
+ * as the dispatcher is created once by the Batch SDK.
+ */
+public final class FirebaseDispatcherConfig
+{
+    /**
+     * Default number of deeplinks kept in the attribution cache
+     */
+    public static final int DEFAULT_ATTRIBUTION_CACHE_SIZE = 64;
+
+    /**
+     * Default capacity of the asynchronous dispatch queue
+     */
+    public static final int DEFAULT_ASYNC_QUEUE_CAPACITY = 256;
+
+    /**
+     * Default time an event waits for room in a full queue with {@link OverflowPolicy#BLOCK}
+     */
+    public static final long DEFAULT_ASYNC_BLOCK_TIMEOUT_MS = 50;
+
+    /**
+     * Default number of events kept while Firebase Analytics is being initialized
+     */
+    public static final int DEFAULT_PENDING_EVENT_BUFFER_SIZE = 64;
+
+    /**
+     * Default number of distinct parameter values shared between events
+     */
+    public static final int DEFAULT_STRING_INTERNER_CAPACITY = 256;
+
+    /**
+     * Default time without event after which an aggregated in-app message display is summarized
+     */
+    public static final long DEFAULT_IN_APP_AGGREGATION_TIMEOUT_MS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * What to do with an event when the asynchronous dispatch queue is full
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * Drop the oldest queued event to make room for the new one
+         */
+        DROP_OLDEST,
+
+        /**
+         * Drop the new event
+         */
+        DROP_NEWEST,
+
+        /**
+         * Block the calling thread until there is room in the queue, or drop the new event
+         * once the block timeout elapsed
+         */
+        BLOCK
+    }
+
+    /**
+     * Rate limit of an event type
+     */
+    static final class RateLimit
+    {
+        final double eventsPerSecond;
+        final int burst;
+
+        RateLimit(double eventsPerSecond, int burst)
+        {
+            this.eventsPerSecond = eventsPerSecond;
+            this.burst = burst;
+        }
+    }
+
+    /**
+     * Additional sink and the executor delivering events to it
+     */
+    static final class SinkRegistration
+    {
+        @NonNull
+        final AnalyticsSink sink;
+
+        /**
+         * Executor to call the sink on, null to give it a dedicated thread
+         */
+        @Nullable
+        final Executor executor;
+
+        SinkRegistration(@NonNull AnalyticsSink sink, @Nullable Executor executor)
+        {
+            this.sink = sink;
+            this.executor = executor;
+        }
+    }
+
+    final int attributionCacheSize;
+
+    final boolean asyncDispatchEnabled;
+    final int asyncQueueCapacity;
+    final OverflowPolicy asyncOverflowPolicy;
+    final long asyncBlockTimeoutMillis;
+
+    final long duplicateWindowMillis;
+
+    final EnumMap<Batch.EventDispatcher.Type, Double> sampleRates;
+    final EnumMap<Batch.EventDispatcher.Type, RateLimit> rateLimits;
+
+    final EnumSet<Batch.EventDispatcher.Type> enabledEventTypes;
+
+    /**
+     * Parameters to send by event type, types without an entry send all of theirs
+     */
+    final EnumMap<Batch.EventDispatcher.Type, Set<String>> eventParameters;
+
+    final boolean metricsEnabled;
+
+    final boolean lazyInitializationEnabled;
+    final int pendingEventBufferSize;
+
+    @Nullable
+    final MappingRules mappingRules;
+
+    final boolean manifestMappingRulesEnabled;
+
+    final List<SinkRegistration> additionalSinks;
+
+    final int stringInternerCapacity;
+
+    final boolean inAppAggregationEnabled;
+    final long inAppAggregationTimeoutMillis;
+
+    @Nullable
+    final File traceCaptureFile;
+
+    @Nullable
+    final File eventJournalFile;
+
+    final boolean stickyAttributionEnabled;
+
+    @NonNull
+    final Tracer tracer;
+
+    private FirebaseDispatcherConfig(@NonNull Builder builder)
+    {
+        this.attributionCacheSize = builder.attributionCacheSize;
+        this.asyncDispatchEnabled = builder.asyncDispatchEnabled;
+        this.asyncQueueCapacity = builder.asyncQueueCapacity;
+        this.asyncOverflowPolicy = builder.asyncOverflowPolicy;
+        this.asyncBlockTimeoutMillis = builder.asyncBlockTimeoutMillis;
+        this.duplicateWindowMillis = builder.duplicateWindowMillis;
+        this.sampleRates = new EnumMap<>(builder.sampleRates);
+        this.rateLimits = new EnumMap<>(builder.rateLimits);
+        this.enabledEventTypes = EnumSet.copyOf(builder.enabledEventTypes);
+        this.eventParameters = new EnumMap<>(builder.eventParameters);
+        this.metricsEnabled = builder.metricsEnabled;
+        this.lazyInitializationEnabled = builder.lazyInitializationEnabled;
+        this.pendingEventBufferSize = builder.pendingEventBufferSize;
+        this.mappingRules = builder.mappingRules;
+        this.manifestMappingRulesEnabled = builder.manifestMappingRulesEnabled;
+        this.additionalSinks = Collections.unmodifiableList(new ArrayList<>(builder.additionalSinks));
+        this.stringInternerCapacity = builder.stringInternerCapacity;
+        this.inAppAggregationEnabled = builder.inAppAggregationEnabled;
+        this.inAppAggregationTimeoutMillis = builder.inAppAggregationTimeoutMillis;
+        this.traceCaptureFile = builder.traceCaptureFile;
+        this.eventJournalFile = builder.eventJournalFile;
+        this.stickyAttributionEnabled = builder.stickyAttributionEnabled;
+        this.tracer = builder.tracer != null ? builder.tracer : Tracer.NONE;
+    }
+
+    /**
+     * @return A configuration with every option set to its default value
+     */
+    @NonNull
+    public static FirebaseDispatcherConfig getDefault()
+    {
+        return new Builder().build();
+    }
+
+    /**
+     * Builder of {@link FirebaseDispatcherConfig}
+     */
+    public static final class Builder
+    {
+        private int attributionCacheSize = DEFAULT_ATTRIBUTION_CACHE_SIZE;
+        private boolean asyncDispatchEnabled = false;
+        private int asyncQueueCapacity = DEFAULT_ASYNC_QUEUE_CAPACITY;
+        private OverflowPolicy asyncOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private long asyncBlockTimeoutMillis = DEFAULT_ASYNC_BLOCK_TIMEOUT_MS;
+        private long duplicateWindowMillis = 0;
+        private final EnumMap<Batch.EventDispatcher.Type, Double> sampleRates =
+                new EnumMap<>(Batch.EventDispatcher.Type.class);
+        private final EnumMap<Batch.EventDispatcher.Type, RateLimit> rateLimits =
+                new EnumMap<>(Batch.EventDispatcher.Type.class);
+        private EnumSet<Batch.EventDispatcher.Type> enabledEventTypes =
+                EnumSet.allOf(Batch.EventDispatcher.Type.class);
+        private final EnumMap<Batch.EventDispatcher.Type, Set<String>> eventParameters =
+                new EnumMap<>(Batch.EventDispatcher.Type.class);
+        private boolean metricsEnabled = false;
+        private boolean lazyInitializationEnabled = false;
+        private int pendingEventBufferSize = DEFAULT_PENDING_EVENT_BUFFER_SIZE;
+        private MappingRules mappingRules = null;
+        private boolean manifestMappingRulesEnabled = false;
+        private final List<SinkRegistration> additionalSinks = new ArrayList<>();
+        private int stringInternerCapacity = DEFAULT_STRING_INTERNER_CAPACITY;
+        private boolean inAppAggregationEnabled = false;
+        private long inAppAggregationTimeoutMillis = DEFAULT_IN_APP_AGGREGATION_TIMEOUT_MS;
+        private File traceCaptureFile = null;
+        private File eventJournalFile = null;
+        private boolean stickyAttributionEnabled = false;
+        private Tracer tracer = null;
+
+        /**
+         * Set the number of deeplinks whose UTM attributes are kept in memory,
+         * so that events sharing a deeplink don't parse it again.
+         *
+         * @param size Maximum number of cached deeplinks, 0 disables the cache
+         * @return This builder
+         */
+        @NonNull
+        public Builder setAttributionCacheSize(int size)
+        {
+            if (size < 0) {
+                throw new IllegalArgumentException("Attribution cache size cannot be negative");
+            }
+            this.attributionCacheSize = size;
+            return this;
+        }
+
+        /**
+         * Enable asynchronous dispatch. When enabled, the fields of an event's payload are copied on the
+         * calling thread and the event is sent to Firebase from a background thread.
+         * Disabled by default.
+         *
+         * @param enabled Whether events should be dispatched from a background thread
+         * @return This builder
+         */
+        @NonNull
+        public Builder setAsyncDispatchEnabled(boolean enabled)
+        {
+            this.asyncDispatchEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of events waiting to be dispatched when asynchronous dispatch is enabled
+         *
+         * @param capacity Queue capacity, must be positive
+         * @return This builder
+         */
+        @NonNull
+        public Builder setAsyncQueueCapacity(int capacity)
+        {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Queue capacity must be positive");
+            }
+            this.asyncQueueCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Set what happens to an event when the asynchronous dispatch queue is full
+         *
+         * @param policy Overflow policy, {@link OverflowPolicy#DROP_OLDEST} by default
+         * @return This builder
+         */
+        @NonNull
+        public Builder setAsyncOverflowPolicy(@NonNull OverflowPolicy policy)
+        {
+            this.asyncOverflowPolicy = policy;
+            return this;
+        }
+
+        /**
+         * Set how long an event waits for room in a full queue with {@link OverflowPolicy#BLOCK}
+         *
+         * @param timeout Maximum time to wait
+         * @param unit Unit of the timeout
+         * @return This builder
+         */
+        @NonNull
+        public Builder setAsyncBlockTimeout(long timeout, @NonNull TimeUnit unit)
+        {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("Timeout cannot be negative");
+            }
+            this.asyncBlockTimeoutMillis = unit.toMillis(timeout);
+            return this;
+        }
+
+        /**
+         * Drop events identical to one dispatched less than the given duration ago.
+         * Events are identical when they have the same type, tracking id, webview analytics id and deeplink,
+         * which happens when activities are recreated or notifications are re-posted.
+         * Disabled by default.
+         *
+         * @param window Duration of the suppression window, 0 to disable it
+         * @param unit Unit of the window
+         * @return This builder
+         */
+        @NonNull
+        public Builder setDuplicateSuppressionWindow(long window, @NonNull TimeUnit unit)
+        {
+            if (window < 0) {
+                throw new IllegalArgumentException("Window cannot be negative");
+            }
+            this.duplicateWindowMillis = unit.toMillis(window);
+            return this;
+        }
+
+        /**
+         * Only dispatch a fraction of the events of a type.
+         * The decision is deterministic for a given tracking id (or installation, for events without one),
+         * so an in-app message kept for its show event is also kept for its clicks if they are sampled
+         * at the same or a higher rate. Sampled events carry the rate in a "batch_sample_rate" parameter,
+         * so that counts can be scaled back.
+         *
+         * @param type Event type
+         * @param rate Fraction of the events to keep, between 0 and 1. 1 disables sampling.
+         * @return This builder
+         */
+        @NonNull
+        public Builder setSampleRate(@NonNull Batch.EventDispatcher.Type type, double rate)
+        {
+            if (!(rate >= 0 && rate <= 1)) {
+                throw new IllegalArgumentException("Sample rate must be between 0 and 1");
+            }
+            if (rate == 1) {
+                sampleRates.remove(type);
+            } else {
+                sampleRates.put(type, rate);
+            }
+            return this;
+        }
+
+        /**
+         * Cap the rate at which events of a type are dispatched, using a token bucket.
+         * Events over the cap are dropped.
+         *
+         * @param type Event type
+         * @param eventsPerSecond Sustained rate, must be positive
+         * @param burst Number of events that can be dispatched at once after a quiet period, must be positive
+         * @return This builder
+         */
+        @NonNull
+        public Builder setRateLimit(@NonNull Batch.EventDispatcher.Type type, double eventsPerSecond, int burst)
+        {
+            if (!(eventsPerSecond > 0) || burst <= 0) {
+                throw new IllegalArgumentException("Rate and burst must be positive");
+            }
+            rateLimits.put(type, new RateLimit(eventsPerSecond, burst));
+            return this;
+        }
+
+        /**
+         * Only dispatch events of some types. Events of the other types are dropped as soon as they are received,
+         * before being sampled, counted in metrics, captured, aggregated or journaled. All types are enabled
+         * by default.
+         *
+         * @param types Event types to send to Firebase Analytics
+         * @return This builder
+         */
+        @NonNull
+        public Builder setEnabledEventTypes(@NonNull Set<Batch.EventDispatcher.Type> types)
+        {
+            EnumSet<Batch.EventDispatcher.Type> enabled = EnumSet.noneOf(Batch.EventDispatcher.Type.class);
+            enabled.addAll(types);
+            this.enabledEventTypes = enabled;
+            return this;
+        }
+
+        /**
+         * Only send some parameters with the events of a type, for example to not send "content".
+         * Parameters are named as sent to Firebase, after the mapping rules are applied, and names not sent
+         * with the type are ignored. The deeplink of an event is only parsed if a kept parameter can come from it.
+         * Parameters added by the dispatcher itself, like "batch_sample_rate", are always sent.
+         *
+         * @param type Event type
+         * @param parameters Parameters to send with the events of this type, none to send the events alone.
+         * null to send all of them again.
+         * @return This builder
+         */
+        @NonNull
+        public Builder setEventParameters(@NonNull Batch.EventDispatcher.Type type, @Nullable String... parameters)
+        {
+            if (parameters == null) {
+                eventParameters.remove(type);
+            } else {
+                eventParameters.put(type, Collections.unmodifiableSet(new HashSet<>(Arrays.asList(parameters))));
+            }
+            return this;
+        }
+
+        /**
+         * Collect event counters and latency histograms, readable with {@link FirebaseDispatcher#getMetrics()}.
+         * Disabled by default.
+         *
+         * @param enabled Whether metrics should be collected
+         * @return This builder
+         */
+        @NonNull
+        public Builder setMetricsEnabled(boolean enabled)
+        {
+            this.metricsEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Initialize Firebase Analytics on a background thread rather than when Batch starts,
+         * keeping it off the application's startup path.
+         * Events dispatched before Firebase Analytics is ready are buffered, and sent in order once it is.
+         * Disabled by default.
+         *
+         * @param enabled Whether Firebase Analytics should be initialized in the background
+         * @return This builder
+         */
+        @NonNull
+        public Builder setLazyInitializationEnabled(boolean enabled)
+        {
+            this.lazyInitializationEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Set the maximum number of events kept while Firebase Analytics is being initialized,
+         * when lazy initialization is enabled. Once full, the oldest events are dropped.
+         *
+         * @param size Buffer size, must be positive
+         * @return This builder
+         */
+        @NonNull
+        public Builder setPendingEventBufferSize(int size)
+        {
+            if (size <= 0) {
+                throw new IllegalArgumentException("Buffer size must be positive");
+            }
+            this.pendingEventBufferSize = size;
+            return this;
+        }
+
+        /**
+         * Override or extend how Batch events are mapped to Firebase parameters, for example to send
+         * a "gclid" parameter read from deeplinks.
+         * Takes precedence over rules declared in the manifest. See the README for the rules format.
+         *
+         * @param json Mapping rules document
+         * @return This builder
+         * @throws IllegalArgumentException if the rules are invalid
+         */
+        @NonNull
+        public Builder setMappingRules(@NonNull String json)
+        {
+            this.mappingRules = MappingRules.parse(json);
+            return this;
+        }
+
+        /**
+         * Read mapping rules declared in the manifest, inline or as a bundled asset, when none are set
+         * with {@link #setMappingRules(String)}.
+         * The manifest is read when the dispatcher is created, or on the initialization thread if lazy
+         * initialization is enabled. Disabled by default, so that the manifest isn't read at all.
+         *
+         * @param enabled Whether the manifest's rules should be read
+         * @return This builder
+         */
+        @NonNull
+        public Builder setManifestMappingRulesEnabled(boolean enabled)
+        {
+            this.manifestMappingRulesEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Also send events to another sink, such as a local recorder.
+         * Parameters are computed once for every sink. The sink is called on a dedicated background thread,
+         * so it can't slow the dispatch down: if it falls too far behind, events are dropped for it.
+         *
+         * @param sink Sink to add
+         * @return This builder
+         */
+        @NonNull
+        public Builder addAnalyticsSink(@NonNull AnalyticsSink sink)
+        {
+            additionalSinks.add(new SinkRegistration(sink, null));
+            return this;
+        }
+
+        /**
+         * Also send events to another sink, called on the given executor.
+         * Events rejected by the executor are dropped for this sink.
+         *
+         * @param sink Sink to add
+         * @param executor Executor delivering events to the sink
+         * @return This builder
+         */
+        @NonNull
+        public Builder addAnalyticsSink(@NonNull AnalyticsSink sink, @NonNull Executor executor)
+        {
+            additionalSinks.add(new SinkRegistration(sink, executor));
+            return this;
+        }
+
+        /**
+         * Set the number of distinct parameter values (campaign, source, tracking id...) shared between events.
+         * Events carrying the same values then reference a single copy of each, rather than one per event,
+         * which lowers the memory held while Firebase queues them. Values over 64 chars are never shared.
+         *
+         * @param capacity Maximum number of shared values, 0 disables sharing
+         * @return This builder
+         */
+        @NonNull
+        public Builder setStringInternerCapacity(int capacity)
+        {
+            if (capacity < 0) {
+                throw new IllegalArgumentException("Interner capacity cannot be negative");
+            }
+            this.stringInternerCapacity = capacity;
+            return this;
+        }
+
+        /**
+         * Send one "batch_in_app_summary" event per in-app message display, instead of an event for
+         * each show, click, webview click and close.
+         * A display starts with the first event of a tracking id, and ends when the message is closed
+         * or a CTA is clicked, or when no event was seen for the aggregation timeout. The summary has the
+         * parameters of the show event, plus "batch_click_count", "batch_time_to_first_click_ms" (if clicked),
+         * "batch_display_duration_ms" and "batch_close_reason" (close, auto_close, close_error, click,
+         * timeout or replaced).
+         * In-app events without a tracking id are still sent one by one. Disabled by default.
+         *
+         * @param enabled Whether in-app events should be aggregated
+         * @return This builder
+         */
+        @NonNull
+        public Builder setInAppAggregationEnabled(boolean enabled)
+        {
+            this.inAppAggregationEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Set the time without event after which an aggregated in-app message display is summarized,
+         * with a "timeout" close reason
+         *
+         * @param timeout Timeout, must be positive
+         * @param unit Unit of the timeout
+         * @return This builder
+         */
+        @NonNull
+        public Builder setInAppAggregationTimeout(long timeout, @NonNull TimeUnit unit)
+        {
+            if (timeout <= 0) {
+                throw new IllegalArgumentException("Timeout must be positive");
+            }
+            this.inAppAggregationTimeoutMillis = Math.max(1, unit.toMillis(timeout));
+            return this;
+        }
+
+        /**
+         * Record every incoming event, with the payload fields the dispatcher reads, to a binary trace file.
+         * The trace can be replayed on a plain JVM to measure the dispatcher against real traffic,
+         * see the README. The file is overwritten, and written to until the dispatcher is shut down.
+         * Meant for debug builds: traces hold deeplinks and tracking ids. Disabled by default.
+         *
+         * @param file Trace file, null to disable capture
+         * @return This builder
+         */
+        @NonNull
+        public Builder setTraceCaptureFile(@Nullable File file)
+        {
+            this.traceCaptureFile = file;
+            return this;
+        }
+
+        /**
+         * Journal the events received but not handed to Firebase Analytics yet to a memory-mapped file, so that
+         * they are sent when the dispatcher is created again if the process is killed first, for example
+         * when the app is swiped away right after a notification is opened. Appending an event to the journal
+         * doesn't make any system call. With lazy initialization, events buffered until Firebase Analytics is
+         * initialized are only marked as sent once delivered to it. The journal is opened and replayed on a
+         * background thread. Disabled by default.
+         *
+         * @param file Journal file, kept across launches, for example in {@code Context#getFilesDir()}.
+         * null to disable the journal.
+         * @return This builder
+         */
+        @NonNull
+        public Builder setEventJournalFile(@Nullable File file)
+        {
+            this.eventJournalFile = file;
+            return this;
+        }
+
+        /**
+         * Keep the last campaign, source and medium as the "batch_campaign", "batch_source" and "batch_medium"
+         * Firebase user properties, and only send these parameters with an event when their value changed.
+         * Firebase attaches user properties to every event, so reports grouped by these properties still
+         * cover every event, while events get smaller. The last values are kept in the app's
+         * shared preferences, so that they survive restarts.
+         * Additional sinks don't receive the user properties, and always get every parameter. Disabled by default.
+         *
+         * @param enabled Whether attribution should be sent as user properties
+         * @return This builder
+         */
+        @NonNull
+        public Builder setStickyAttributionEnabled(boolean enabled)
+        {
+            this.stickyAttributionEnabled = enabled;
+            return this;
+        }
+
+        /**
+         * Trace the stages of each dispatch as named sections of the system trace (android.os.Trace): payload
+         * read, deeplink parse, query and fragment extraction, custom payload merge, Bundle build and logEvent,
+         * within a "Batch:dispatchEvent" section. Only available from API 18.
+         * When disabled, tracing costs nothing. Disabled by default.
+         *
+         * @param enabled Whether the dispatch stages should be traced
+         * @return This builder
+         */
+        @NonNull
+        public Builder setTracingEnabled(boolean enabled)
+        {
+            boolean available = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+            this.tracer = enabled && available ? SystemTracer.INSTANCE : null;
+            return this;
+        }
+
+        /**
+         * Trace the stages of each dispatch with a custom tracer rather than the system trace,
+         * see {@link #setTracingEnabled(boolean)}
+         *
+         * @param tracer Tracer receiving the sections, called on the dispatching thread. null to disable tracing.
+         * @return This builder
+         */
+        @NonNull
+        public Builder setTracer(@Nullable Tracer tracer)
+        {
+            this.tracer = tracer;
+            return this;
+        }
+
+        @NonNull
+        public FirebaseDispatcherConfig build()
+        {
+            return new FirebaseDispatcherConfig(this);
+        }
+    }
+}
@@ -2,6 +2,9 @@ package com.batch.android.dispatcher.firebase;
 
 import android.content.Context;
 
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
 import com.batch.android.BatchEventDispatcher;
 import com.batch.android.eventdispatcher.DispatcherRegistrar;
 
@@ -15,19 +18,65 @@ public class FirebaseRegistrar implements DispatcherRegistrar
     /**
      * Singleton instance
      */
-    private static FirebaseDispatcher instance = null;
+    private static volatile FirebaseDispatcher instance = null;
+
+    /**
+     * Configuration used when creating the dispatcher
+     */
+    private static volatile FirebaseDispatcherConfig config = FirebaseDispatcherConfig.getDefault();
+
+    /**
+     * Set the configuration of the dispatcher
+     * Must be called before Batch starts (in your Application's onCreate), as the configuration
+     * is only read when the dispatcher is created.
+     *
+     * @param config Dispatcher configuration
+     */
+    public static void setConfig(@NonNull FirebaseDispatcherConfig config)
+    {
+        FirebaseRegistrar.config = config;
+    }
+
+    /**
+     * Get the dispatcher created by the Batch SDK, if any
+     *
+     * @return Dispatcher instance, or null if Batch didn't request it yet
+     */
+    @Nullable
+    public static FirebaseDispatcher getInstance()
+    {
+        return instance;
+    }
 
     /**
-     * Singleton accessor
+     * Singleton accessor, safe to call from any thread
      * @param context Context used to initialize the dispatcher
      * @return Dispatcher instance
      */
     @Override
     public BatchEventDispatcher getDispatcher(Context context)
     {
-        if (instance == null) {
-            instance = new FirebaseDispatcher(context);
+        FirebaseDispatcher dispatcher = instance;
+        if (dispatcher == null) {
+            synchronized (FirebaseRegistrar.class) {
+                dispatcher = instance;
+                if (dispatcher == null) {
+                    dispatcher = new FirebaseDispatcher(context, config);
+                    instance = dispatcher;
+                }
+            }
+        }
+        return dispatcher;
+    }
+
+    /**
+     * Forget the dispatcher instance, for tests
+     */
+    static void reset()
+    {
+        synchronized (FirebaseRegistrar.class) {
+            instance = null;
+            config = FirebaseDispatcherConfig.getDefault();
         }
-        return instance;
     }
 }
@@ -0,0 +1,373 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collapses the events of an in-app message into one summary event per display
+ * Messages are tracked by tracking id, from their first event until they are closed (close, auto close,
+ * close error or CTA click), or until no event was seen for the timeout. Webview clicks and clicks are counted
+ * along the way. The summary carries the parameters of the first event, plus the click count, the time
+ * to the first click, the display duration and the close reason. Events of a display received after its
+ * closing event, within the timeout, are dropped.
+ * The journal records of the aggregated events are kept with their display, and given with its summary,
+ * so that they are only committed once the summary is delivered.
+ */
+final class InAppFunnelAggregator
+{
+    /**
+     * Firebase event sent for each message display
+     */
+    static final String SUMMARY_EVENT_NAME = "batch_in_app_summary";
+
+    static final String CLICK_COUNT = "batch_click_count";
+    static final String TIME_TO_FIRST_CLICK = "batch_time_to_first_click_ms";
+    static final String DISPLAY_DURATION = "batch_display_duration_ms";
+    static final String CLOSE_REASON = "batch_close_reason";
+
+    static final String REASON_CLOSE = "close";
+    static final String REASON_AUTO_CLOSE = "auto_close";
+    static final String REASON_CLOSE_ERROR = "close_error";
+    static final String REASON_CLICK = "click";
+
+    /**
+     * No closing event was seen before the timeout, or the dispatcher was shut down
+     */
+    static final String REASON_TIMEOUT = "timeout";
+
+    /**
+     * The message was shown again before a closing event was seen
+     */
+    static final String REASON_REPLACED = "replaced";
+
+    /**
+     * Maximum number of messages tracked at once. Past it, the least recently active one is summarized as timed out.
+     */
+    static final int MAX_OPEN_MESSAGES = 64;
+
+    /**
+     * Receives the summary of a message display
+     */
+    interface Emitter
+    {
+        /**
+         * @param payload Payload of the first event of the display
+         */
+        void emit(@NonNull Batch.EventDispatcher.Payload payload, @NonNull Summary summary);
+
+        /**
+         * Called for an event dropped without being part of a summary, whose journal record can be committed
+         */
+        void release(long journalRecord);
+    }
+
+    /**
+     * Aggregated events of a message display
+     */
+    static final class Summary
+    {
+        final int clickCount;
+
+        /**
+         * Time between the first event and the first click, -1 if there was no click
+         */
+        final long timeToFirstClickMillis;
+
+        final long displayDurationMillis;
+
+        @NonNull
+        final String closeReason;
+
+        /**
+         * Journal records of the aggregated events, to commit once the summary is delivered
+         */
+        @NonNull
+        final long[] journalRecords;
+
+        Summary(int clickCount,
+                long timeToFirstClickMillis,
+                long displayDurationMillis,
+                @NonNull String closeReason,
+                @NonNull long[] journalRecords)
+        {
+            this.clickCount = clickCount;
+            this.timeToFirstClickMillis = timeToFirstClickMillis;
+            this.displayDurationMillis = displayDurationMillis;
+            this.closeReason = closeReason;
+            this.journalRecords = journalRecords;
+        }
+    }
+
+    private static final class Funnel
+    {
+        final CapturedPayload payload;
+        final long startMillis;
+        long lastEventMillis;
+        int clickCount = 0;
+        long firstClickMillis = -1;
+        long[] journalRecords = NO_RECORDS;
+        int journalRecordCount = 0;
+
+        Funnel(CapturedPayload payload, long startMillis)
+        {
+            this.payload = payload;
+            this.startMillis = startMillis;
+            this.lastEventMillis = startMillis;
+        }
+
+        void addJournalRecord(long record)
+        {
+            if (journalRecordCount == journalRecords.length) {
+                journalRecords = Arrays.copyOf(journalRecords, Math.max(4, journalRecordCount * 2));
+            }
+            journalRecords[journalRecordCount++] = record;
+        }
+
+        Summary close(long endMillis, String reason)
+        {
+            return new Summary(clickCount,
+                    firstClickMillis < 0 ? -1 : firstClickMillis - startMillis,
+                    endMillis - startMillis,
+                    reason,
+                    journalRecordCount == 0 ? NO_RECORDS : Arrays.copyOf(journalRecords, journalRecordCount));
+        }
+    }
+
+    private static final class Closed
+    {
+        final CapturedPayload payload;
+        final Summary summary;
+
+        Closed(CapturedPayload payload, Summary summary)
+        {
+            this.payload = payload;
+            this.summary = summary;
+        }
+    }
+
+    private static final long[] NO_RECORDS = new long[0];
+
+    private final Emitter emitter;
+    private final long timeoutMillis;
+    private final String[] customPayloadKeys;
+
+    /**
+     * Guarded by this: open displays by tracking id, least recently active first
+     */
+    private final LinkedHashMap<String, Funnel> funnels = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Guarded by this: close time of the displays recently closed by an event, by tracking id, oldest first
+     * Kept for the timeout, so that a late event of the display, such as the close following a CTA click,
+     * doesn't start a new one.
+     */
+    private final LinkedHashMap<String, Long> closedDisplays = new LinkedHashMap<>();
+
+    /**
+     * @param timeoutMillis Time without event after which a display is summarized, must be positive
+     * @param customPayloadKeys Custom payload keys to keep from the first event
+     */
+    InAppFunnelAggregator(@NonNull Emitter emitter, long timeoutMillis, @NonNull String[] customPayloadKeys)
+    {
+        if (timeoutMillis <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        this.emitter = emitter;
+        this.timeoutMillis = timeoutMillis;
+        this.customPayloadKeys = customPayloadKeys;
+    }
+
+    /**
+     * Record an event that isn't journaled
+     *
+     * @see #record(Batch.EventDispatcher.Type, Batch.EventDispatcher.Payload, long, long)
+     */
+    boolean record(@NonNull Batch.EventDispatcher.Type type,
+                   @NonNull Batch.EventDispatcher.Payload payload,
+                   long nowMillis)
+    {
+        return record(type, payload, nowMillis, EventJournal.NO_RECORD);
+    }
+
+    /**
+     * Record an event
+     * Summaries of displays closed by this event, or timed out, are emitted from the calling thread.
+     *
+     * @param nowMillis Time the event was received, on a monotonic clock
+     * @param journalRecord Journal record of the event, given with the summary or released if the
+     * event is aggregated
+     * @return true if the event was aggregated, false if it should be dispatched as is
+     */
+    boolean record(@NonNull Batch.EventDispatcher.Type type,
+                   @NonNull Batch.EventDispatcher.Payload payload,
+                   long nowMillis,
+                   long journalRecord)
+    {
+        String trackingId = payload.getTrackingId();
+        if (trackingId == null || !type.isMessagingEvent()) {
+            return false;
+        }
+        String closeReason;
+        switch (type) {
+            case MESSAGING_SHOW:
+            case MESSAGING_WEBVIEW_CLICK:
+                closeReason = null;
+                break;
+            case MESSAGING_CLICK:
+                closeReason = REASON_CLICK;
+                break;
+            case MESSAGING_CLOSE:
+                closeReason = REASON_CLOSE;
+                break;
+            case MESSAGING_AUTO_CLOSE:
+                closeReason = REASON_AUTO_CLOSE;
+                break;
+            case MESSAGING_CLOSE_ERROR:
+                closeReason = REASON_CLOSE_ERROR;
+                break;
+            default:
+                // Event types this version doesn't know about are dispatched as is
+                return false;
+        }
+
+        List<Closed> closed = new ArrayList<>(2);
+        boolean kept;
+        synchronized (this) {
+            collectExpired(nowMillis, closed);
+            kept = record(trackingId, type, payload, closeReason, nowMillis, journalRecord, closed);
+        }
+        emit(closed);
+        if (!kept && journalRecord != EventJournal.NO_RECORD) {
+            emitter.release(journalRecord);
+        }
+        return true;
+    }
+
+    /**
+     * Must be called with the lock held
+     *
+     * @return false if the event was dropped
+     */
+    private boolean record(@NonNull String trackingId,
+                           @NonNull Batch.EventDispatcher.Type type,
+                           @NonNull Batch.EventDispatcher.Payload payload,
+                           String closeReason,
+                           long nowMillis,
+                           long journalRecord,
+                           @NonNull List<Closed> closed)
+    {
+        Funnel funnel = funnels.get(trackingId);
+        if (type == Batch.EventDispatcher.Type.MESSAGING_SHOW) {
+            closedDisplays.remove(trackingId);
+        } else if (funnel == null && closedDisplays.containsKey(trackingId)) {
+            // Late event of a display already summarized
+            return false;
+        }
+        if (funnel != null && type == Batch.EventDispatcher.Type.MESSAGING_SHOW) {
+            funnels.remove(trackingId);
+            closed.add(new Closed(funnel.payload, funnel.close(funnel.lastEventMillis, REASON_REPLACED)));
+            funnel = null;
+        }
+        if (funnel == null) {
+            // Also covers displays whose show event was sent before the dispatcher was created
+            funnel = new Funnel(new CapturedPayload(payload, customPayloadKeys), nowMillis);
+            funnels.put(trackingId, funnel);
+            if (funnels.size() > MAX_OPEN_MESSAGES) {
+                Iterator<Funnel> eldest = funnels.values().iterator();
+                Funnel evicted = eldest.next();
+                eldest.remove();
+                closed.add(new Closed(evicted.payload, evicted.close(evicted.lastEventMillis, REASON_TIMEOUT)));
+            }
+        }
+        funnel.lastEventMillis = nowMillis;
+        if (journalRecord != EventJournal.NO_RECORD) {
+            funnel.addJournalRecord(journalRecord);
+        }
+        if (type == Batch.EventDispatcher.Type.MESSAGING_CLICK ||
+                type == Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK) {
+            funnel.clickCount++;
+            if (funnel.firstClickMillis < 0) {
+                funnel.firstClickMillis = nowMillis;
+            }
+        }
+        if (closeReason != null) {
+            funnels.remove(trackingId);
+            closed.add(new Closed(funnel.payload, funnel.close(nowMillis, closeReason)));
+            closedDisplays.put(trackingId, nowMillis);
+            if (closedDisplays.size() > MAX_OPEN_MESSAGES) {
+                Iterator<Long> eldest = closedDisplays.values().iterator();
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Summarize the displays without event for the timeout
+     *
+     * @param nowMillis Current time on a monotonic clock
+     */
+    void expire(long nowMillis)
+    {
+        List<Closed> closed = new ArrayList<>(0);
+        synchronized (this) {
+            collectExpired(nowMillis, closed);
+        }
+        emit(closed);
+    }
+
+    /**
+     * Summarize every open display as timed out
+     */
+    void expireAll()
+    {
+        List<Closed> closed = new ArrayList<>();
+        synchronized (this) {
+            for (Funnel funnel : funnels.values()) {
+                closed.add(new Closed(funnel.payload, funnel.close(funnel.lastEventMillis, REASON_TIMEOUT)));
+            }
+            funnels.clear();
+            closedDisplays.clear();
+        }
+        emit(closed);
+    }
+
+    synchronized int getOpenCount()
+    {
+        return funnels.size();
+    }
+
+    private void collectExpired(long nowMillis, @NonNull List<Closed> closed)
+    {
+        Iterator<Long> closeTimes = closedDisplays.values().iterator();
+        while (closeTimes.hasNext() && nowMillis - closeTimes.next() >= timeoutMillis) {
+            closeTimes.remove();
+        }
+        Iterator<Map.Entry<String, Funnel>> iterator = funnels.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Funnel funnel = iterator.next().getValue();
+            if (nowMillis - funnel.lastEventMillis < timeoutMillis) {
+                // Displays are ordered by activity, the next ones are more recent
+                return;
+            }
+            iterator.remove();
+            closed.add(new Closed(funnel.payload, funnel.close(funnel.lastEventMillis, REASON_TIMEOUT)));
+        }
+    }
+
+    private void emit(@NonNull List<Closed> closed)
+    {
+        for (Closed display : closed) {
+            emitter.emit(display.payload, display.summary);
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sink keeping the events it receives in memory
+ * Useful to check what the dispatcher sends in tests, or as a local recorder next to Firebase.
+ * Events are kept until {@link #clear()} is called.
+ */
+public final class InMemoryAnalyticsSink implements AnalyticsSink
+{
+    /**
+     * An event received by the sink
+     */
+    public static final class Event
+    {
+        @NonNull
+        private final String name;
+
+        @Nullable
+        private final Bundle params;
+
+        Event(@NonNull String name, @Nullable Bundle params)
+        {
+            this.name = name;
+            this.params = params;
+        }
+
+        @NonNull
+        public String getName()
+        {
+            return name;
+        }
+
+        /**
+         * @return The event parameters, null if the event has none
+         */
+        @Nullable
+        public Bundle getParams()
+        {
+            return params;
+        }
+    }
+
+    private final List<Event> events = new ArrayList<>();
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        Event event = new Event(name, params == null ? null : new Bundle(params));
+        synchronized (events) {
+            events.add(event);
+        }
+    }
+
+    /**
+     * @return A copy of the received events, in order
+     */
+    @NonNull
+    public List<Event> getEvents()
+    {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    public int size()
+    {
+        synchronized (events) {
+            return events.size();
+        }
+    }
+
+    /**
+     * Forget the received events
+     */
+    public void clear()
+    {
+        synchronized (events) {
+            events.clear();
+        }
+    }
+}
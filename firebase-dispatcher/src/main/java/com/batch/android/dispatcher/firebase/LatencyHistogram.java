@@ -0,0 +1,90 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear latency histogram, in the spirit of HdrHistogram
+ * Each power of two range is split in {@link #SUB_BUCKETS} linear buckets, so recorded values are
+ * known within 12.5% whatever their magnitude. Recording is a few shifts and an atomic increment:
+ * there is deliberately no running total, the mean is derived from the buckets.
+ */
+final class LatencyHistogram
+{
+    static final int SUB_BUCKET_BITS = 3;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * Values are clamped to 2^MAX_MAGNITUDE - 1 nanoseconds (about 68 seconds)
+     */
+    private static final int MAX_MAGNITUDE = 36;
+    private static final long MAX_VALUE = (1L << MAX_MAGNITUDE) - 1;
+
+    static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    void record(long nanos)
+    {
+        if (nanos < 0) {
+            nanos = 0;
+        } else if (nanos > MAX_VALUE) {
+            nanos = MAX_VALUE;
+        }
+        counts.incrementAndGet(bucketIndex(nanos));
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Copy the histogram, optionally resetting it
+     * Each bucket is read (and reset) atomically, but not the histogram as a whole:
+     * values recorded concurrently are either in this snapshot or in the next one.
+     */
+    @NonNull
+    LatencySnapshot snapshot(boolean reset)
+    {
+        long[] copy = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            copy[i] = reset ? counts.getAndSet(i, 0) : counts.get(i);
+        }
+        long max = reset ? maxNanos.getAndSet(0) : maxNanos.get();
+        return new LatencySnapshot(copy, max);
+    }
+
+    static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return ((magnitude - SUB_BUCKET_BITS + 1) << SUB_BUCKET_BITS) + subBucket;
+    }
+
+    /**
+     * @return The smallest value counted in a bucket
+     */
+    static long bucketLowerBound(int index)
+    {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int magnitude = (index >> SUB_BUCKET_BITS) + SUB_BUCKET_BITS - 1;
+        long subBucket = index & (SUB_BUCKETS - 1);
+        return (SUB_BUCKETS + subBucket) << (magnitude - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * @return The largest value counted in a bucket
+     */
+    static long bucketUpperBound(int index)
+    {
+        return index + 1 < BUCKET_COUNT ? bucketLowerBound(index + 1) - 1 : MAX_VALUE;
+    }
+}
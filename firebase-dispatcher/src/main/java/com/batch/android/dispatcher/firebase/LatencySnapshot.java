@@ -0,0 +1,87 @@
+package com.batch.android.dispatcher.firebase;
+
+/**
+ * Latency distribution of a dispatcher stage, in nanoseconds
+ * Percentiles are approximated by the upper bound of the histogram bucket they fall in (12.5% precision).
+ */
+public final class LatencySnapshot
+{
+    private final long[] counts;
+    private final long count;
+    private final double meanNanos;
+    private final long maxNanos;
+
+    LatencySnapshot(long[] counts, long maxNanos)
+    {
+        this.counts = counts;
+        long count = 0;
+        double total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            count += counts[i];
+            // Each value is approximated by the middle of its bucket
+            total += counts[i] * ((LatencyHistogram.bucketLowerBound(i) + LatencyHistogram.bucketUpperBound(i)) / 2d);
+        }
+        this.count = count;
+        this.meanNanos = count == 0 ? 0 : total / count;
+        this.maxNanos = maxNanos;
+    }
+
+    /**
+     * @return Number of recorded values
+     */
+    public long getCount()
+    {
+        return count;
+    }
+
+    /**
+     * @return Approximate mean latency, 0 if nothing was recorded
+     */
+    public double getMeanNanos()
+    {
+        return meanNanos;
+    }
+
+    /**
+     * @return Maximum recorded latency
+     */
+    public long getMaxNanos()
+    {
+        return maxNanos;
+    }
+
+    /**
+     * @param percentile Percentile to compute, between 0 and 100
+     * @return Approximate latency under which the given percentage of values fall, 0 if nothing was recorded
+     */
+    public long getPercentileNanos(double percentile)
+    {
+        if (percentile < 0 || percentile > 100) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100d * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(LatencyHistogram.bucketUpperBound(i), maxNanos);
+            }
+        }
+        return maxNanos;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "LatencySnapshot{" +
+                "count=" + count +
+                ", mean=" + (long) getMeanNanos() +
+                "ns, p50=" + getPercentileNanos(50) +
+                "ns, p99=" + getPercentileNanos(99) +
+                "ns, max=" + maxNanos +
+                "ns}";
+    }
+}
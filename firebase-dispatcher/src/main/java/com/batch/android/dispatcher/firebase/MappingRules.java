@@ -0,0 +1,389 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Mapping rules provided by the app, overriding or extending the default {@link MappingSpec}
+ *
+ * Rules are read from JSON:
+ * <pre>
+ * {
+ *   "rules": [
+ *     {
+ *       "events": ["notification", "MESSAGING_CLICK"],
+ *       "param": "gclid",
+ *       "sources": ["query:gclid", "fragment:gclid"],
+ *       "required": false
+ *     }
+ *   ]
+ * }
+ * </pre>
+ * "events" is optional and defaults to every event. It accepts event types and the "notification"
+ * and "in_app" groups. A rule replaces the default rule sending the same parameter, or is added after
+ * the default ones. An empty "sources" array removes the parameter.
+ * Sources, by decreasing precedence, are "query:key", "fragment:key", "deeplink:key" (query then fragment),
+ * "custom:key", "constant:value", "tracking_id" and "webview_analytics_id".
+ *
+ * Apps can also declare rules in their manifest, inline or as the path of a JSON asset:
+ * <pre>
+ * &lt;meta-data android:name="com.batch.android.dispatcher.firebase.mapping_rules_asset"
+ *     android:value="firebase_mapping.json" /&gt;
+ * </pre>
+ *
+ * The whole document is validated when parsed, so an invalid configuration fails when the dispatcher
+ * is created rather than when events are dispatched.
+ */
+final class MappingRules
+{
+    /**
+     * Manifest meta-data holding the rules document
+     */
+    static final String META_DATA_RULES = "com.batch.android.dispatcher.firebase.mapping_rules";
+
+    /**
+     * Manifest meta-data holding the path of an asset with the rules document
+     */
+    static final String META_DATA_RULES_ASSET = "com.batch.android.dispatcher.firebase.mapping_rules_asset";
+
+    /**
+     * Firebase parameter names: up to 40 alphanumeric characters or underscores, starting with a letter
+     */
+    private static final Pattern PARAMETER_NAME = Pattern.compile("[a-zA-Z][a-zA-Z0-9_]{0,39}");
+
+    private static final String[] RESERVED_PREFIXES = {"firebase_", "google_", "ga_"};
+
+    private static final List<String> RULE_FIELDS = Arrays.asList("events", "param", "sources", "required");
+
+    private static final class Entry
+    {
+        final EnumSet<EventType> types;
+        final MappingSpec.Rule rule;
+
+        Entry(EnumSet<EventType> types, MappingSpec.Rule rule)
+        {
+            this.types = types;
+            this.rule = rule;
+        }
+    }
+
+    private final List<Entry> entries;
+
+    private MappingRules(@NonNull List<Entry> entries)
+    {
+        this.entries = entries;
+    }
+
+    /**
+     * Parse and validate mapping rules
+     *
+     * @param json Rules document
+     * @return The parsed rules
+     * @throws IllegalArgumentException if the document is invalid, with a message pointing at the faulty rule
+     */
+    @NonNull
+    static MappingRules parse(@NonNull String json)
+    {
+        List<Entry> entries = new ArrayList<>();
+        try {
+            JSONObject root = new JSONObject(json);
+            Iterator<String> keys = root.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                if (!"rules".equals(key)) {
+                    throw new IllegalArgumentException("Unknown field '" + key + "'");
+                }
+            }
+            JSONArray rules = root.getJSONArray("rules");
+            for (int i = 0; i < rules.length(); i++) {
+                try {
+                    entries.add(parseRule(rules.getJSONObject(i)));
+                } catch (JSONException | IllegalArgumentException e) {
+                    throw new IllegalArgumentException("rules[" + i + "]: " + e.getMessage(), e);
+                }
+            }
+        } catch (JSONException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid Firebase dispatcher mapping rules: " + e.getMessage(), e);
+        }
+        return new MappingRules(entries);
+    }
+
+    /**
+     * Load the rules declared in the app's manifest
+     *
+     * @return The parsed rules, or null if the manifest declares none
+     * @throws IllegalArgumentException if the rules are invalid or their asset can't be read
+     */
+    @Nullable
+    static MappingRules fromManifest(@NonNull Context context)
+    {
+        PackageManager packageManager = context.getPackageManager();
+        String packageName = context.getPackageName();
+        if (packageManager == null || packageName == null) {
+            // Bare contexts, like test doubles, have no manifest to read
+            return null;
+        }
+        Bundle metaData;
+        try {
+            ApplicationInfo info = packageManager.getApplicationInfo(packageName, PackageManager.GET_META_DATA);
+            metaData = info != null ? info.metaData : null;
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+        if (metaData == null) {
+            return null;
+        }
+
+        String rules = metaData.getString(META_DATA_RULES);
+        String asset = metaData.getString(META_DATA_RULES_ASSET);
+        if (rules != null && asset != null) {
+            throw new IllegalArgumentException("Invalid Firebase dispatcher mapping rules: both " +
+                    META_DATA_RULES + " and " + META_DATA_RULES_ASSET + " are set");
+        }
+        if (asset != null) {
+            try {
+                rules = readAsset(context, asset);
+            } catch (IOException e) {
+                throw new IllegalArgumentException("Could not read Firebase dispatcher mapping rules asset '" +
+                        asset + "'", e);
+            }
+        }
+        return rules != null ? parse(rules) : null;
+    }
+
+    private static String readAsset(@NonNull Context context, @NonNull String path) throws IOException
+    {
+        InputStream stream = context.getAssets().open(path);
+        try {
+            Reader reader = new InputStreamReader(stream, Charset.forName("UTF-8"));
+            StringBuilder builder = new StringBuilder();
+            char[] buffer = new char[1024];
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                builder.append(buffer, 0, read);
+            }
+            return builder.toString();
+        } finally {
+            stream.close();
+        }
+    }
+
+    private static Entry parseRule(@NonNull JSONObject json) throws JSONException
+    {
+        Iterator<String> keys = json.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!RULE_FIELDS.contains(key)) {
+                throw new IllegalArgumentException("Unknown field '" + key + "'");
+            }
+        }
+
+        String param = json.getString("param");
+        if (!PARAMETER_NAME.matcher(param).matches()) {
+            throw new IllegalArgumentException("Invalid parameter name '" + param +
+                    "', it must be 1 to 40 alphanumeric characters or underscores, starting with a letter");
+        }
+        for (String prefix : RESERVED_PREFIXES) {
+            if (param.startsWith(prefix)) {
+                throw new IllegalArgumentException("Parameter name '" + param + "' uses a reserved prefix");
+            }
+        }
+
+        EnumSet<EventType> types;
+        if (json.has("events")) {
+            types = EnumSet.noneOf(EventType.class);
+            JSONArray events = json.getJSONArray("events");
+            for (int i = 0; i < events.length(); i++) {
+                parseEvents(events.getString(i), types);
+            }
+        } else {
+            types = EnumSet.allOf(EventType.class);
+        }
+
+        List<MappingSpec.Source> sources = new ArrayList<>();
+        JSONArray sourcesJson = json.getJSONArray("sources");
+        for (int i = 0; i < sourcesJson.length(); i++) {
+            parseSource(sourcesJson.getString(i), sources);
+        }
+
+        boolean required = json.optBoolean("required", false);
+        return new Entry(types, new MappingSpec.Rule(param, required, sources.toArray(new MappingSpec.Source[0])));
+    }
+
+    private static void parseEvents(@NonNull String value, @NonNull EnumSet<EventType> types)
+    {
+        if ("notification".equals(value)) {
+            for (EventType type : EventType.values()) {
+                if (type.isNotificationEvent()) {
+                    types.add(type);
+                }
+            }
+            return;
+        }
+        if ("in_app".equals(value)) {
+            for (EventType type : EventType.values()) {
+                if (type.isMessagingEvent()) {
+                    types.add(type);
+                }
+            }
+            return;
+        }
+        try {
+            types.add(EventType.valueOf(value.toUpperCase(Locale.US)));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown event '" + value + "'");
+        }
+    }
+
+    private static void parseSource(@NonNull String value, @NonNull List<MappingSpec.Source> sources)
+    {
+        if ("tracking_id".equals(value)) {
+            sources.add(MappingSpec.Source.trackingId());
+            return;
+        }
+        if ("webview_analytics_id".equals(value)) {
+            sources.add(MappingSpec.Source.webViewAnalyticsId());
+            return;
+        }
+
+        int separator = value.indexOf(':');
+        if (separator < 0) {
+            throw new IllegalArgumentException("Unknown source '" + value + "'");
+        }
+        String kind = value.substring(0, separator);
+        String argument = value.substring(separator + 1);
+        if ("constant".equals(kind)) {
+            sources.add(MappingSpec.Source.constant(argument));
+            return;
+        }
+        if (argument.isEmpty()) {
+            throw new IllegalArgumentException("Source '" + value + "' has no key");
+        }
+        switch (kind) {
+            case "query":
+                sources.add(MappingSpec.Source.query(argument));
+                break;
+            case "fragment":
+                sources.add(MappingSpec.Source.fragment(argument));
+                break;
+            case "deeplink":
+                sources.add(MappingSpec.Source.query(argument));
+                sources.add(MappingSpec.Source.fragment(argument));
+                break;
+            case "custom":
+                sources.add(MappingSpec.Source.customPayload(argument));
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown source '" + value + "'");
+        }
+    }
+
+    /**
+     * Compile the default {@link MappingSpec}, amended by app provided rules
+     *
+     * @param rules Rules overriding or extending the defaults, null to only use the defaults
+     */
+    @NonNull
+    static MappingPlan compile(@Nullable MappingRules rules)
+    {
+        if (rules == null) {
+            return MappingPlan.compileDefaults();
+        }
+        return new MappingPlan(rules.applyTo(MappingSpec.defaults()));
+    }
+
+    /**
+     * Compile the default {@link MappingSpec}, amended by app provided rules, only keeping some parameters
+     *
+     * @param rules Rules overriding or extending the defaults, null to only use the defaults
+     * @param parameterMasks Parameters to keep by event type, see {@link MappingSpec#retainParameters}
+     */
+    @NonNull
+    static MappingPlan compile(@Nullable MappingRules rules, @NonNull Map<EventType, Set<String>> parameterMasks)
+    {
+        if (parameterMasks.isEmpty()) {
+            return compile(rules);
+        }
+        EnumMap<EventType, MappingSpec.EventSpec> specs = MappingSpec.defaults();
+        if (rules != null) {
+            rules.applyTo(specs);
+        }
+        return new MappingPlan(MappingSpec.retainParameters(specs, parameterMasks));
+    }
+
+    /**
+     * Apply the rules to a spec
+     *
+     * @param specs Spec to amend, modified in place
+     * @return The amended spec
+     */
+    @NonNull
+    EnumMap<EventType, MappingSpec.EventSpec> applyTo(
+            @NonNull EnumMap<EventType, MappingSpec.EventSpec> specs)
+    {
+        for (Map.Entry<EventType, MappingSpec.EventSpec> specEntry : specs.entrySet()) {
+            MappingSpec.EventSpec spec = specEntry.getValue();
+            List<MappingSpec.Rule> rules = new ArrayList<>();
+            if (spec.rules != null) {
+                rules.addAll(Arrays.asList(spec.rules));
+            }
+            boolean changed = false;
+            for (Entry entry : entries) {
+                if (!entry.types.contains(specEntry.getKey())) {
+                    continue;
+                }
+                changed = true;
+                int position = indexOf(rules, entry.rule.outputKey);
+                if (entry.rule.sources.length == 0) {
+                    if (position >= 0) {
+                        rules.remove(position);
+                    }
+                } else if (position >= 0) {
+                    rules.set(position, entry.rule);
+                } else {
+                    rules.add(entry.rule);
+                }
+            }
+            if (changed) {
+                specEntry.setValue(new MappingSpec.EventSpec(spec.eventName,
+                        rules.toArray(new MappingSpec.Rule[0])));
+            }
+        }
+        return specs;
+    }
+
+    private static int indexOf(@NonNull List<MappingSpec.Rule> rules, @NonNull String outputKey)
+    {
+        for (int i = 0; i < rules.size(); i++) {
+            if (rules.get(i).outputKey.equals(outputKey)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
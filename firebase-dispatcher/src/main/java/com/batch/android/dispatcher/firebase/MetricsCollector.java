@@ -0,0 +1,62 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free collector of the dispatcher metrics
+ */
+final class MetricsCollector
+{
+    private static final int TYPE_COUNT = Batch.EventDispatcher.Type.values().length;
+
+    private final AtomicLongArray receivedCounts = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLongArray dispatchedCounts = new AtomicLongArray(TYPE_COUNT);
+    private final AtomicLong parseFailureCount = new AtomicLong();
+    private final LatencyHistogram extractionLatency = new LatencyHistogram();
+    private final LatencyHistogram logEventLatency = new LatencyHistogram();
+
+    void onEventReceived(@NonNull Batch.EventDispatcher.Type type)
+    {
+        receivedCounts.incrementAndGet(type.ordinal());
+    }
+
+    void onParseFailure()
+    {
+        parseFailureCount.incrementAndGet();
+    }
+
+    void onParamsExtracted(long nanos)
+    {
+        extractionLatency.record(nanos);
+    }
+
+    void onEventLogged(@NonNull Batch.EventDispatcher.Type type, long nanos)
+    {
+        dispatchedCounts.incrementAndGet(type.ordinal());
+        logEventLatency.record(nanos);
+    }
+
+    @NonNull
+    DispatcherMetrics snapshot(boolean reset)
+    {
+        return new DispatcherMetrics(copy(receivedCounts, reset),
+                copy(dispatchedCounts, reset),
+                reset ? parseFailureCount.getAndSet(0) : parseFailureCount.get(),
+                extractionLatency.snapshot(reset),
+                logEventLatency.snapshot(reset));
+    }
+
+    private static long[] copy(@NonNull AtomicLongArray array, boolean reset)
+    {
+        long[] copy = new long[array.length()];
+        for (int i = 0; i < copy.length; i++) {
+            copy[i] = reset ? array.getAndSet(i, 0) : array.get(i);
+        }
+        return copy;
+    }
+}
@@ -0,0 +1,78 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attributes resolved for the last displayed notifications, reused when they are opened or dismissed
+ * Only used for the deeplinks the attribution cache doesn't keep: when it is disabled, or for
+ * deeplinks longer than {@link AttributionCache#MAX_DEEPLINK_LENGTH}. Entries are keyed by deeplink,
+ * which is all the attributes depend on, and expire after {@link #TTL_NANOS} or when
+ * {@link #MAX_NOTIFICATIONS} newer notifications were displayed.
+ */
+final class NotificationAttributions
+{
+    static final int MAX_NOTIFICATIONS = 16;
+
+    /**
+     * Notifications opened later than this after their display resolve their deeplink again
+     */
+    static final long TTL_NANOS = TimeUnit.DAYS.toNanos(1);
+
+    private static final class Entry
+    {
+        final UtmAttributes attributes;
+        final long displayNanos;
+
+        Entry(UtmAttributes attributes, long displayNanos)
+        {
+            this.attributes = attributes;
+            this.displayNanos = displayNanos;
+        }
+    }
+
+    /**
+     * Guarded by this: oldest display first
+     */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>();
+
+    /**
+     * @param nowNanos Current time on the {@link System#nanoTime()} clock
+     */
+    synchronized void put(@NonNull String deeplink, @NonNull UtmAttributes attributes, long nowNanos)
+    {
+        entries.remove(deeplink);
+        entries.put(deeplink, new Entry(attributes, nowNanos));
+        if (entries.size() > MAX_NOTIFICATIONS) {
+            Iterator<Entry> eldest = entries.values().iterator();
+            eldest.next();
+            eldest.remove();
+        }
+    }
+
+    /**
+     * @return The attributes of a displayed notification's deeplink, null if it wasn't displayed recently
+     */
+    @Nullable
+    synchronized UtmAttributes get(@NonNull String deeplink, long nowNanos)
+    {
+        Entry entry = entries.get(deeplink);
+        if (entry == null) {
+            return null;
+        }
+        if (nowNanos - entry.displayNanos >= TTL_NANOS) {
+            entries.remove(deeplink);
+            return null;
+        }
+        return entry.attributes;
+    }
+
+    synchronized int size()
+    {
+        return entries.size();
+    }
+}
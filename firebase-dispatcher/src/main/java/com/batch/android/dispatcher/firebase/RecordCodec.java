@@ -0,0 +1,170 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Encoding of the {@link TraceWriter} and {@link EventJournal} records
+ *
+ * Lengths and counts are unsigned varints. Strings are UTF-8, prefixed by their byte length plus one,
+ * 0 standing for null. Strings are encoded straight into the target buffer, without an intermediate
+ * byte array.
+ */
+final class RecordCodec
+{
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Largest encoded size of a varint
+     */
+    static final int MAX_VAR_LONG_SIZE = 10;
+
+    private RecordCodec()
+    {
+    }
+
+    static void putVarLong(@NonNull ByteBuffer target, long value)
+    {
+        while ((value & ~0x7FL) != 0) {
+            target.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        target.put((byte) value);
+    }
+
+    static long getVarLong(@NonNull ByteBuffer source)
+    {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = source.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static int varLongSize(long value)
+    {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            size++;
+            value >>>= 7;
+        }
+        return size;
+    }
+
+    /**
+     * Unpaired surrogates are written as '?', like {@link String#getBytes}.
+     */
+    static void putString(@NonNull ByteBuffer target, @Nullable String value)
+    {
+        if (value == null) {
+            target.put((byte) 0);
+            return;
+        }
+        putVarLong(target, utf8Length(value) + 1L);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                target.put((byte) c);
+            } else if (c < 0x800) {
+                target.put((byte) (0xC0 | c >> 6));
+                target.put((byte) (0x80 | c & 0x3F));
+            } else if (isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                        Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    target.put((byte) (0xF0 | codePoint >> 18));
+                    target.put((byte) (0x80 | codePoint >> 12 & 0x3F));
+                    target.put((byte) (0x80 | codePoint >> 6 & 0x3F));
+                    target.put((byte) (0x80 | codePoint & 0x3F));
+                } else {
+                    target.put((byte) '?');
+                }
+            } else {
+                target.put((byte) (0xE0 | c >> 12));
+                target.put((byte) (0x80 | c >> 6 & 0x3F));
+                target.put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    /**
+     * @throws IllegalStateException if the string length is negative or past the end of the source
+     */
+    @Nullable
+    static String getString(@NonNull ByteBuffer source)
+    {
+        int length = (int) getVarLong(source);
+        if (length == 0) {
+            return null;
+        }
+        if (length < 0 || length - 1 > source.remaining()) {
+            throw new IllegalStateException("Corrupted string length " + length);
+        }
+        String value;
+        if (source.hasArray()) {
+            value = new String(source.array(), source.arrayOffset() + source.position(), length - 1, UTF_8);
+            source.position(source.position() + length - 1);
+        } else {
+            byte[] bytes = new byte[length - 1];
+            source.get(bytes);
+            value = new String(bytes, UTF_8);
+        }
+        return value;
+    }
+
+    /**
+     * @return Encoded size of a string, with its length prefix
+     */
+    static int stringSize(@Nullable String value)
+    {
+        if (value == null) {
+            return 1;
+        }
+        int length = utf8Length(value);
+        return varLongSize(length + 1L) + length;
+    }
+
+    /**
+     * @return Largest encoded size of a string, with its length prefix, without scanning it
+     */
+    static int maxStringSize(@Nullable String value)
+    {
+        return value == null ? 1 : MAX_VAR_LONG_SIZE + 3 * value.length();
+    }
+
+    private static int utf8Length(@NonNull String value)
+    {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length++;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length() &&
+                        Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                } else {
+                    length++;
+                }
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    private static boolean isSurrogate(char c)
+    {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+}
@@ -0,0 +1,129 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.content.SharedPreferences;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Sink keeping the last seen campaign, source and medium as Firebase user properties
+ * Parameters repeating the current property value are removed from events, so only changed values are
+ * sent with each event. A changed value is kept in the event and set as the new property value, before
+ * the event is logged. Values too long for a user property are always sent with the event, and clear
+ * the property. Values are persisted, so that events sent after a restart are compared to the
+ * properties Firebase already has.
+ */
+final class StickyAttribution implements DeliveryTrackingSink
+{
+    /**
+     * Preferences file holding the last values sent as user properties
+     */
+    static final String PREFERENCES_NAME = "com.batch.android.dispatcher.firebase.attribution";
+
+    /**
+     * Event parameters made sticky, and the user properties holding them
+     */
+    static final String[] PARAMETERS = {MappingSpec.CAMPAIGN, MappingSpec.SOURCE, MappingSpec.MEDIUM};
+    static final String[] PROPERTIES = {"batch_campaign", "batch_source", "batch_medium"};
+
+    @NonNull
+    private final AnalyticsSink sink;
+
+    @NonNull
+    private final UserPropertySink properties;
+
+    @Nullable
+    private final SharedPreferences preferences;
+
+    /**
+     * Guarded by this: last values set as properties, loaded from the preferences on first use
+     */
+    @Nullable
+    private String[] values;
+
+    /**
+     * @param sink Sink receiving the events, and the user properties before them: must be a {@link UserPropertySink}
+     * @param preferences Storage of the values, null to only keep them in memory
+     */
+    StickyAttribution(@NonNull AnalyticsSink sink, @Nullable SharedPreferences preferences)
+    {
+        this.sink = sink;
+        this.properties = (UserPropertySink) sink;
+        this.preferences = preferences;
+    }
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        if (params != null) {
+            apply(params);
+        }
+        sink.logEvent(name, params);
+    }
+
+    @Override
+    public boolean logEvent(@NonNull String name, @Nullable Bundle params, long token, @NonNull Listener listener)
+    {
+        if (params != null) {
+            apply(params);
+        }
+        if (sink instanceof DeliveryTrackingSink) {
+            return ((DeliveryTrackingSink) sink).logEvent(name, params, token, listener);
+        }
+        sink.logEvent(name, params);
+        return true;
+    }
+
+    /**
+     * Remove the sticky parameters that didn't change from an event, and set those which did as user properties
+     * Parameters without a value are left as they are, they don't clear the properties.
+     *
+     * @param params Event parameters, modified in place
+     */
+    synchronized void apply(@NonNull Bundle params)
+    {
+        String[] current = load();
+        SharedPreferences.Editor editor = null;
+        for (int i = 0; i < PARAMETERS.length; i++) {
+            String value = params.getString(PARAMETERS[i]);
+            if (value == null) {
+                continue;
+            }
+            if (!FirebaseLimits.fits(value, FirebaseLimits.MAX_USER_PROPERTY_VALUE_LENGTH)) {
+                // Kept in the event, and the property must not keep attributing it to the previous value
+                if (current[i] == null) {
+                    continue;
+                }
+                value = null;
+            } else if (value.equals(current[i])) {
+                params.remove(PARAMETERS[i]);
+                continue;
+            }
+            properties.setUserProperty(PROPERTIES[i], value);
+            current[i] = value;
+            if (preferences != null) {
+                if (editor == null) {
+                    editor = preferences.edit();
+                }
+                editor.putString(PROPERTIES[i], value);
+            }
+        }
+        if (editor != null) {
+            editor.apply();
+        }
+    }
+
+    private String[] load()
+    {
+        if (values == null) {
+            values = new String[PROPERTIES.length];
+            if (preferences != null) {
+                for (int i = 0; i < PROPERTIES.length; i++) {
+                    values[i] = preferences.getString(PROPERTIES[i], null);
+                }
+            }
+        }
+        return values;
+    }
+}
@@ -0,0 +1,32 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+import android.os.Trace;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.RequiresApi;
+
+/**
+ * Tracer writing the dispatcher's sections to the system trace, shown by Perfetto and systrace
+ */
+@RequiresApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+final class SystemTracer implements Tracer
+{
+    static final SystemTracer INSTANCE = new SystemTracer();
+
+    private SystemTracer()
+    {
+    }
+
+    @Override
+    public void beginSection(@NonNull String name)
+    {
+        Trace.beginSection(name);
+    }
+
+    @Override
+    public void endSection()
+    {
+        Trace.endSection();
+    }
+}
@@ -0,0 +1,55 @@
+package com.batch.android.dispatcher.firebase;
+
+/**
+ * Token bucket rate limiter
+ * Holds up to burst tokens, refilled continuously at the configured rate. Each event consumes one token.
+ */
+final class TokenBucket
+{
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final double capacity;
+    private final double tokensPerNano;
+
+    /**
+     * Guarded by this
+     */
+    private double tokens;
+    private long lastRefillNanos;
+
+    /**
+     * @param eventsPerSecond Sustained rate, must be positive
+     * @param burst Maximum number of events accepted at once, must be positive
+     * @param nowNanos Current time on a monotonic clock
+     */
+    TokenBucket(double eventsPerSecond, int burst, long nowNanos)
+    {
+        if (!(eventsPerSecond > 0) || burst <= 0) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.capacity = burst;
+        this.tokensPerNano = eventsPerSecond / NANOS_PER_SECOND;
+        this.tokens = burst;
+        this.lastRefillNanos = nowNanos;
+    }
+
+    /**
+     * Consume a token if one is available
+     *
+     * @param nowNanos Current time on a monotonic clock
+     * @return true if the event can be dispatched
+     */
+    synchronized boolean tryAcquire(long nowNanos)
+    {
+        long elapsed = nowNanos - lastRefillNanos;
+        if (elapsed > 0) {
+            tokens = Math.min(capacity, tokens + elapsed * tokensPerNano);
+            lastRefillNanos = nowNanos;
+        }
+        if (tokens >= 1) {
+            tokens -= 1;
+            return true;
+        }
+        return false;
+    }
+}
@@ -0,0 +1,241 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.BatchMessage;
+import com.batch.android.BatchPushPayload;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads a trace written by {@link TraceWriter}, one record at a time
+ */
+final class TraceReader implements Closeable
+{
+    /**
+     * An event read from a trace, usable as the payload it was captured from
+     */
+    static final class Record implements Batch.EventDispatcher.Payload, AttributionPayload
+    {
+        /**
+         * Time the event was captured at, in nanoseconds since the capture started
+         */
+        final long timestampNanos;
+
+        @NonNull
+        final String typeName;
+
+        /**
+         * Event type, null if this version of the SDK doesn't know it
+         */
+        @Nullable
+        final Batch.EventDispatcher.Type type;
+
+        @Nullable
+        private final String deeplink;
+
+        @Nullable
+        private final String trackingId;
+
+        @Nullable
+        private final String webViewAnalyticsId;
+
+        @NonNull
+        private final String[] customKeys;
+
+        @NonNull
+        private final String[] customValues;
+
+        Record(long timestampNanos,
+               @NonNull String typeName,
+               @Nullable String deeplink,
+               @Nullable String trackingId,
+               @Nullable String webViewAnalyticsId,
+               @NonNull String[] customKeys,
+               @NonNull String[] customValues)
+        {
+            this.timestampNanos = timestampNanos;
+            this.typeName = typeName;
+            this.type = parseType(typeName);
+            this.deeplink = deeplink;
+            this.trackingId = trackingId;
+            this.webViewAnalyticsId = webViewAnalyticsId;
+            this.customKeys = customKeys;
+            this.customValues = customValues;
+        }
+
+        @Nullable
+        private static Batch.EventDispatcher.Type parseType(@NonNull String name)
+        {
+            try {
+                return Batch.EventDispatcher.Type.valueOf(name);
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        @Nullable
+        @Override
+        public String getTrackingId()
+        {
+            return trackingId;
+        }
+
+        @Nullable
+        @Override
+        public String getWebViewAnalyticsID()
+        {
+            return webViewAnalyticsId;
+        }
+
+        @Nullable
+        @Override
+        public String getDeeplink()
+        {
+            return deeplink;
+        }
+
+        @Nullable
+        @Override
+        public String getCustomValue(@NonNull String key)
+        {
+            for (int i = 0; i < customKeys.length; i++) {
+                if (customKeys[i].equals(key)) {
+                    return customValues[i];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        public boolean isPositiveAction()
+        {
+            return false;
+        }
+
+        @Nullable
+        @Override
+        public BatchMessage getMessagingPayload()
+        {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public BatchPushPayload getPushPayload()
+        {
+            return null;
+        }
+    }
+
+    private final FileChannel channel;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+    private boolean endOfFile = false;
+
+    /**
+     * @throws IOException if the file can't be read or isn't a trace of a supported version
+     */
+    TraceReader(@NonNull File file) throws IOException
+    {
+        this.channel = new FileInputStream(file).getChannel();
+        buffer.flip();
+        try {
+            if (!fill(8) || buffer.getInt() != TraceWriter.MAGIC) {
+                throw new IOException("Not a Firebase dispatcher trace: " + file);
+            }
+            int version = buffer.getInt();
+            if (version != TraceWriter.VERSION) {
+                throw new IOException("Unsupported trace version " + version);
+            }
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The next record, or null at the end of the trace
+     * @throws IOException if the trace can't be read or is truncated
+     */
+    @Nullable
+    Record next() throws IOException
+    {
+        if (!fill(1)) {
+            return null;
+        }
+        fill(5);
+        int length = (int) RecordCodec.getVarLong(buffer);
+        if (!fill(length)) {
+            throw new EOFException("Truncated trace record");
+        }
+        int end = buffer.position() + length;
+
+        try {
+            long timestamp = RecordCodec.getVarLong(buffer);
+            String typeName = RecordCodec.getString(buffer);
+            String deeplink = RecordCodec.getString(buffer);
+            String trackingId = RecordCodec.getString(buffer);
+            String webViewAnalyticsId = RecordCodec.getString(buffer);
+            int customCount = (int) RecordCodec.getVarLong(buffer);
+            if (customCount < 0 || customCount > buffer.remaining()) {
+                throw new IOException("Corrupted trace record");
+            }
+            String[] customKeys = new String[customCount];
+            String[] customValues = new String[customCount];
+            for (int i = 0; i < customCount; i++) {
+                customKeys[i] = RecordCodec.getString(buffer);
+                customValues[i] = RecordCodec.getString(buffer);
+            }
+            if (typeName == null || buffer.position() != end) {
+                throw new IOException("Corrupted trace record");
+            }
+            return new Record(timestamp, typeName, deeplink, trackingId, webViewAnalyticsId, customKeys,
+                    customValues);
+        } catch (IllegalStateException | BufferUnderflowException e) {
+            throw new IOException("Corrupted trace record", e);
+        }
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        channel.close();
+    }
+
+    /**
+     * Make sure the buffer holds at least the given number of bytes, unless the end of the file is reached
+     *
+     * @return true if enough bytes are available
+     */
+    private boolean fill(int length) throws IOException
+    {
+        if (buffer.remaining() >= length) {
+            return true;
+        }
+        if (buffer.capacity() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(length);
+            larger.put(buffer);
+            larger.flip();
+            buffer = larger;
+        }
+        buffer.compact();
+        while (buffer.position() < length && !endOfFile) {
+            if (channel.read(buffer) < 0) {
+                endOfFile = true;
+            }
+        }
+        buffer.flip();
+        return buffer.remaining() >= length;
+    }
+}
@@ -0,0 +1,167 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes incoming events to a binary trace, replayable with {@link TraceReader}
+ *
+ * The trace starts with the {@link #MAGIC} and {@link #VERSION} ints, followed by one record per event:
+ * its body length, then the nanoseconds elapsed since the capture started, the type name, the deeplink,
+ * the tracking id, the webview analytics id and the count of custom values, followed by their keys and values.
+ * Lengths, counts and strings are encoded with {@link RecordCodec}.
+ *
+ * Records are encoded into a buffer flushed to the file when full, so capturing an event usually
+ * costs no system call.
+ */
+final class TraceWriter implements Closeable
+{
+    static final int MAGIC = 0x42545243; // "BTRC"
+    static final int VERSION = 1;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileChannel channel;
+    private final long startNanos;
+
+    /**
+     * Guarded by this: encoded records waiting to be written
+     */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /**
+     * Guarded by this: body of the record being encoded, grown for large records
+     */
+    private ByteBuffer body = ByteBuffer.allocate(1024);
+
+    private boolean closed = false;
+
+    TraceWriter(@NonNull File file) throws IOException
+    {
+        this.channel = new FileOutputStream(file).getChannel();
+        this.startNanos = System.nanoTime();
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+    }
+
+    /**
+     * Append an event to the trace
+     *
+     * @param customKeys Custom payload keys read by the dispatcher, whose values are recorded
+     */
+    synchronized void record(@NonNull Batch.EventDispatcher.Type type,
+                             @NonNull Batch.EventDispatcher.Payload payload,
+                             @NonNull String[] customKeys) throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        body.clear();
+        putVarLong(System.nanoTime() - startNanos);
+        putString(type.name());
+        putString(payload.getDeeplink());
+        putString(payload.getTrackingId());
+        putString(payload.getWebViewAnalyticsID());
+
+        int customCount = 0;
+        for (String key : customKeys) {
+            if (payload.getCustomValue(key) != null) {
+                customCount++;
+            }
+        }
+        putVarLong(customCount);
+        for (String key : customKeys) {
+            String value = payload.getCustomValue(key);
+            if (value != null) {
+                putString(key);
+                putString(value);
+            }
+        }
+        body.flip();
+
+        int length = body.remaining();
+        if (buffer.remaining() < length + 5) {
+            drain();
+        }
+        if (buffer.remaining() < length + 5) {
+            // Larger than the whole buffer, write it directly
+            ByteBuffer prefix = ByteBuffer.allocate(5);
+            RecordCodec.putVarLong(prefix, length);
+            prefix.flip();
+            writeFully(prefix);
+            writeFully(body);
+            return;
+        }
+        RecordCodec.putVarLong(buffer, length);
+        buffer.put(body);
+    }
+
+    /**
+     * Write the buffered records to the file
+     */
+    synchronized void flush() throws IOException
+    {
+        if (!closed) {
+            drain();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (closed) {
+            return;
+        }
+        try {
+            drain();
+        } finally {
+            closed = true;
+            channel.close();
+        }
+    }
+
+    private void drain() throws IOException
+    {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    private void writeFully(@NonNull ByteBuffer source) throws IOException
+    {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
+    private void putString(@Nullable String value)
+    {
+        ensureBodyCapacity(RecordCodec.maxStringSize(value));
+        RecordCodec.putString(body, value);
+    }
+
+    private void putVarLong(long value)
+    {
+        ensureBodyCapacity(RecordCodec.MAX_VAR_LONG_SIZE);
+        RecordCodec.putVarLong(body, value);
+    }
+
+    private void ensureBodyCapacity(int length)
+    {
+        if (body.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(body.capacity() * 2, body.position() + length));
+            body.flip();
+            larger.put(body);
+            body = larger;
+        }
+    }
+}
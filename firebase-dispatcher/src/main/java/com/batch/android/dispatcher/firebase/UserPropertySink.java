@@ -0,0 +1,19 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Sink also receiving user properties, used by sticky attribution
+ * Properties must reach the sink before the events logged after them.
+ */
+interface UserPropertySink
+{
+    /**
+     * Set a user property, attached by Firebase to every following event
+     *
+     * @param name Property name
+     * @param value Property value, null to clear it
+     */
+    void setUserProperty(@NonNull String name, @Nullable String value);
+}
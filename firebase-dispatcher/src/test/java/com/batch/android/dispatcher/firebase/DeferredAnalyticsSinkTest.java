@@ -0,0 +1,151 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the buffering of events logged before Firebase Analytics is initialized
+ */
+public class DeferredAnalyticsSinkTest
+{
+    @Test
+    public void testEventsBeforeInitializationAreForwardedInOrder() {
+        DeferredAnalyticsSink logger = new DeferredAnalyticsSink(8);
+        logger.logEvent("a", null);
+        logger.logEvent("b", null);
+        assertFalse(logger.isInitialized());
+
+        RecordingAnalyticsSink delegate = new RecordingAnalyticsSink();
+        logger.initialize(factory(delegate));
+        logger.logEvent("c", null);
+
+        assertTrue(logger.isInitialized());
+        assertEquals(Arrays.asList("a", "b", "c"), names(delegate));
+        assertEquals(0, logger.getDroppedCount());
+    }
+
+    @Test
+    public void testFullBufferDropsOldest() {
+        DeferredAnalyticsSink logger = new DeferredAnalyticsSink(2);
+        logger.logEvent("a", null);
+        logger.logEvent("b", null);
+        logger.logEvent("c", null);
+
+        RecordingAnalyticsSink delegate = new RecordingAnalyticsSink();
+        logger.initialize(factory(delegate));
+
+        assertEquals(Arrays.asList("b", "c"), names(delegate));
+        assertEquals(1, logger.getDroppedCount());
+    }
+
+    @Test
+    public void testLatestUserPropertiesAreForwardedFirstAndNeverDropped() {
+        DeferredAnalyticsSink logger = new DeferredAnalyticsSink(2);
+        logger.setUserProperty("batch_campaign", "summer");
+        logger.setUserProperty("batch_medium", "push");
+        logger.logEvent("a", null);
+        logger.logEvent("b", null);
+        logger.setUserProperty("batch_campaign", "winter");
+        logger.setUserProperty("batch_medium", null);
+        for (int i = 0; i < 1000; i++) {
+            logger.setUserProperty("batch_source", "source-" + i);
+        }
+        logger.logEvent("c", null);
+
+        RecordingAnalyticsSink delegate = new RecordingAnalyticsSink();
+        logger.initialize(factory(delegate));
+        logger.setUserProperty("batch_source", "batch");
+
+        assertEquals(Arrays.asList("batch_campaign=winter", "batch_medium=null", "batch_source=source-999",
+                "b", "c", "batch_source=batch"), delegate.getTimeline());
+        assertEquals(1, logger.getDroppedCount());
+    }
+
+    @Test
+    public void testFailedInitializationDropsEvents() throws Exception {
+        DeferredAnalyticsSink logger = new DeferredAnalyticsSink(8);
+        logger.logEvent("a", null);
+        logger.initialize(new DeferredAnalyticsSink.Factory()
+        {
+            @NonNull
+            @Override
+            public AnalyticsSink create()
+            {
+                throw new IllegalStateException("No Firebase app");
+            }
+        });
+        logger.logEvent("b", null);
+
+        assertTrue(logger.awaitInitialization(0, TimeUnit.SECONDS));
+        assertFalse(logger.isInitialized());
+        assertEquals(2, logger.getDroppedCount());
+    }
+
+    @Test
+    public void testEventsLoggedDuringInitializationKeepTheirOrder() throws Exception {
+        final DeferredAnalyticsSink logger = new DeferredAnalyticsSink(10_000);
+        final RecordingAnalyticsSink delegate = new RecordingAnalyticsSink();
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        logger.initializeInBackground(new DeferredAnalyticsSink.Factory()
+        {
+            @NonNull
+            @Override
+            public AnalyticsSink create()
+            {
+                creating.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return delegate;
+            }
+        });
+
+        assertTrue(creating.await(5, TimeUnit.SECONDS));
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 5_000; i++) {
+            if (i == 100) {
+                release.countDown();
+            }
+            expected.add(String.valueOf(i));
+            logger.logEvent(String.valueOf(i), null);
+        }
+
+        assertTrue(logger.awaitInitialization(5, TimeUnit.SECONDS));
+        assertEquals(expected, names(delegate));
+        assertEquals(0, logger.getDroppedCount());
+    }
+
+    private static DeferredAnalyticsSink.Factory factory(final AnalyticsSink delegate) {
+        return new DeferredAnalyticsSink.Factory()
+        {
+            @NonNull
+            @Override
+            public AnalyticsSink create()
+            {
+                return delegate;
+            }
+        };
+    }
+
+    private static List<String> names(RecordingAnalyticsSink logger) {
+        List<String> names = new ArrayList<>();
+        for (RecordingAnalyticsSink.LoggedEvent event : logger.getEvents()) {
+            names.add(event.name);
+        }
+        return names;
+    }
+}
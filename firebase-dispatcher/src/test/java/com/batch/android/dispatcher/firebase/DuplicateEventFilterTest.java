@@ -0,0 +1,74 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the duplicate event suppression window
+ */
+public class DuplicateEventFilterTest
+{
+    private static final Batch.EventDispatcher.Type DISPLAY = Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY;
+    private static final Batch.EventDispatcher.Type SHOW = Batch.EventDispatcher.Type.MESSAGING_SHOW;
+
+    @Test
+    public void testDuplicateWithinWindowIsSuppressed() {
+        DuplicateEventFilter filter = new DuplicateEventFilter(1000);
+        TestPayload payload = new TestPayload("id", "https://batch.com?utm_campaign=a");
+
+        assertFalse(filter.isDuplicate(DISPLAY, payload, 10_000));
+        assertTrue(filter.isDuplicate(DISPLAY, payload, 10_500));
+        assertTrue(filter.isDuplicate(DISPLAY, payload, 10_999));
+        assertEquals(2, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void testWindowIsNotExtendedByDuplicates() {
+        DuplicateEventFilter filter = new DuplicateEventFilter(1000);
+        TestPayload payload = new TestPayload("id", null);
+
+        assertFalse(filter.isDuplicate(SHOW, payload, 0));
+        assertTrue(filter.isDuplicate(SHOW, payload, 900));
+        assertFalse(filter.isDuplicate(SHOW, payload, 1000));
+        assertEquals(1, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void testDistinctEventsAreKept() {
+        DuplicateEventFilter filter = new DuplicateEventFilter(1000);
+
+        assertFalse(filter.isDuplicate(DISPLAY, new TestPayload("id", "https://batch.com"), 0));
+        assertFalse(filter.isDuplicate(SHOW, new TestPayload("id", "https://batch.com"), 1));
+        assertFalse(filter.isDuplicate(DISPLAY, new TestPayload("id2", "https://batch.com"), 2));
+        assertFalse(filter.isDuplicate(DISPLAY, new TestPayload("id", "https://batch.com/2"), 3));
+        assertFalse(filter.isDuplicate(DISPLAY, new TestPayload("id", null), 4));
+        assertFalse(filter.isDuplicate(DISPLAY, new TestPayload(null, null), 5));
+        assertEquals(0, filter.getSuppressedCount());
+    }
+
+    @Test
+    public void testFieldBoundaries() {
+        assertNotEquals(DuplicateEventFilter.fingerprint(DISPLAY, "ab", null, "c"),
+                DuplicateEventFilter.fingerprint(DISPLAY, "a", null, "bc"));
+        assertNotEquals(DuplicateEventFilter.fingerprint(DISPLAY, null, null, "a"),
+                DuplicateEventFilter.fingerprint(DISPLAY, "a", null, null));
+        assertNotEquals(DuplicateEventFilter.fingerprint(DISPLAY, "", null, null),
+                DuplicateEventFilter.fingerprint(DISPLAY, null, null, null));
+    }
+
+    @Test
+    public void testMemoryIsBounded() {
+        DuplicateEventFilter filter = new DuplicateEventFilter(60_000);
+        for (int i = 0; i < 100_000; i++) {
+            filter.isDuplicate(DISPLAY, new TestPayload(String.valueOf(i), null), i);
+        }
+        // Older fingerprints have been overwritten, recent ones are still detected
+        assertTrue(filter.isDuplicate(DISPLAY, new TestPayload("99999", null), 100_000));
+    }
+}
@@ -0,0 +1,356 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the journal of the events not handed to the sink yet
+ * A kill is simulated by dropping a journal or dispatcher without closing it, then opening the
+ * same file again, as the next process would.
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class EventJournalTest
+{
+    private static final String[] CUSTOM_KEYS = {"utm_campaign", "utm_medium"};
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("batch-journal", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testUncommittedEventsSurviveAKill() throws IOException {
+        EventJournal journal = new EventJournal(file, 1024);
+        Assert.assertTrue(journal.takePendingEvents().isEmpty());
+        long sent = journal.append(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                new TestPayload(null, "https://batch.com/sent"), CUSTOM_KEYS);
+        journal.append(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com/\u00e9\ud83d\ude00?utm_source=push")
+                        .withCustomValue("utm_campaign", "summer")
+                        .withCustomValue("ignored", "value"),
+                CUSTOM_KEYS);
+        journal.append(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK,
+                new TestPayload("tracking", null).withWebViewAnalyticsId(""), CUSTOM_KEYS);
+        journal.commit(sent);
+        Assert.assertEquals(2, journal.getPendingCount());
+
+        List<EventJournal.PendingEvent> pending = new EventJournal(file, 1024).takePendingEvents();
+        Assert.assertEquals(2, pending.size());
+        TraceReader.Record open = pending.get(0).event;
+        Assert.assertEquals(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, open.type);
+        Assert.assertEquals("https://batch.com/\u00e9\ud83d\ude00?utm_source=push", open.getDeeplink());
+        Assert.assertNull(open.getTrackingId());
+        Assert.assertEquals("summer", open.getCustomValue("utm_campaign"));
+        Assert.assertNull(open.getCustomValue("ignored"));
+        TraceReader.Record click = pending.get(1).event;
+        Assert.assertEquals(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, click.type);
+        Assert.assertEquals("tracking", click.getTrackingId());
+        Assert.assertEquals("", click.getWebViewAnalyticsID());
+        Assert.assertNull(click.getDeeplink());
+    }
+
+    @Test
+    public void testReplayedEventsAreCommitted() throws IOException {
+        EventJournal journal = new EventJournal(file, 1024);
+        journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null), CUSTOM_KEYS);
+
+        EventJournal restarted = new EventJournal(file, 1024);
+        EventJournal.PendingEvent pending = restarted.takePendingEvents().get(0);
+        Assert.assertTrue("Pending events are only returned once", restarted.takePendingEvents().isEmpty());
+        restarted.commit(pending.record);
+        Assert.assertEquals(0, restarted.getPendingCount());
+
+        Assert.assertTrue(new EventJournal(file, 1024).takePendingEvents().isEmpty());
+    }
+
+    @Test
+    public void testRecordTornByAKillIsIgnored() throws IOException {
+        EventJournal journal = new EventJournal(file, 1024);
+        journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null), CUSTOM_KEYS);
+
+        // Killed while writing the next record: its bytes are there, but not the header update
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(12);
+        int head = raw.readInt();
+        raw.seek(EventJournal.HEADER_SIZE + head);
+        raw.write(new byte[]{EventJournal.PENDING, 0, 0, 0, 1, 0, 0, 0, 40, 7, 7, 7});
+        raw.close();
+
+        List<EventJournal.PendingEvent> pending = new EventJournal(file, 1024).takePendingEvents();
+        Assert.assertEquals(1, pending.size());
+        Assert.assertEquals("a", pending.get(0).event.getTrackingId());
+    }
+
+    @Test
+    public void testRingWrapsAroundCommittedEvents() throws IOException {
+        EventJournal journal = new EventJournal(file, 256);
+        for (int i = 0; i < 100; i++) {
+            journal.commit(journal.append(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                    new TestPayload(null, "https://batch.com/" + i), CUSTOM_KEYS));
+        }
+        journal.append(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, new TestPayload(null, "https://batch.com/a"),
+                CUSTOM_KEYS);
+        journal.append(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, new TestPayload(null, "https://batch.com/b"),
+                CUSTOM_KEYS);
+        Assert.assertEquals(0, journal.getLostCount());
+
+        List<EventJournal.PendingEvent> pending = new EventJournal(file, 256).takePendingEvents();
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals("https://batch.com/a", pending.get(0).event.getDeeplink());
+        Assert.assertEquals("https://batch.com/b", pending.get(1).event.getDeeplink());
+    }
+
+    @Test
+    public void testFullJournalOverwritesOldestEvents() throws IOException {
+        EventJournal journal = new EventJournal(file, 256);
+        for (int i = 0; i < 20; i++) {
+            journal.append(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                    new TestPayload(null, "https://batch.com/" + i), CUSTOM_KEYS);
+        }
+        Assert.assertTrue(journal.getLostCount() > 0);
+
+        List<EventJournal.PendingEvent> pending = new EventJournal(file, 256).takePendingEvents();
+        Assert.assertEquals(20 - journal.getLostCount(), pending.size());
+        for (int i = 0; i < pending.size(); i++) {
+            Assert.assertEquals("https://batch.com/" + (20 - pending.size() + i), pending.get(i).event.getDeeplink());
+        }
+
+        char[] large = new char[300];
+        Arrays.fill(large, 'a');
+        Assert.assertEquals("Events larger than the journal aren't journaled", EventJournal.NO_RECORD,
+                journal.append(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                        new TestPayload(null, new String(large)), CUSTOM_KEYS));
+    }
+
+    @Test
+    public void testRecordsBeforeACorruptedOneAreKept() throws IOException {
+        EventJournal journal = new EventJournal(file, 1024);
+        journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null), CUSTOM_KEYS);
+        long corrupted = journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("b", null),
+                CUSTOM_KEYS);
+        journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("c", null), CUSTOM_KEYS);
+
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.seek(EventJournal.HEADER_SIZE + (int) corrupted);
+        raw.write(new byte[]{7, 7, 7});
+        raw.close();
+
+        EventJournal restarted = new EventJournal(file, 1024);
+        List<EventJournal.PendingEvent> pending = restarted.takePendingEvents();
+        Assert.assertEquals(1, pending.size());
+        Assert.assertEquals("a", pending.get(0).event.getTrackingId());
+
+        // The next records are written after the kept one
+        restarted.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("d", null), CUSTOM_KEYS);
+        pending = new EventJournal(file, 1024).takePendingEvents();
+        Assert.assertEquals(2, pending.size());
+        Assert.assertEquals("a", pending.get(0).event.getTrackingId());
+        Assert.assertEquals("d", pending.get(1).event.getTrackingId());
+    }
+
+    @Test
+    public void testCorruptedStringLengthKeepsThePreviousRecords() throws IOException {
+        byte[][] lengths = {
+                {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, // Larger than the journal
+                {(byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08}, // Negative once read as an int
+        };
+        for (byte[] length : lengths) {
+            Assert.assertTrue(file.delete());
+            EventJournal journal = new EventJournal(file, 1024);
+            journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null), CUSTOM_KEYS);
+            long corrupted = journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("b", null),
+                    CUSTOM_KEYS);
+
+            RandomAccessFile raw = new RandomAccessFile(file, "rw");
+            raw.seek(EventJournal.HEADER_SIZE + (int) corrupted + EventJournal.RECORD_HEADER_SIZE);
+            raw.write(length);
+            raw.close();
+
+            List<EventJournal.PendingEvent> pending = new EventJournal(file, 1024).takePendingEvents();
+            Assert.assertEquals(1, pending.size());
+            Assert.assertEquals("a", pending.get(0).event.getTrackingId());
+        }
+    }
+
+    @Test
+    public void testOtherFilesAreReset() throws IOException {
+        RandomAccessFile raw = new RandomAccessFile(file, "rw");
+        raw.write("not a journal".getBytes("UTF-8"));
+        raw.close();
+
+        EventJournal journal = new EventJournal(file, 256);
+        Assert.assertTrue(journal.takePendingEvents().isEmpty());
+        journal.append(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null), CUSTOM_KEYS);
+        Assert.assertEquals(1, new EventJournal(file, 256).takePendingEvents().size());
+        Assert.assertTrue("A journal of another capacity is reset",
+                new EventJournal(file, 512).takePendingEvents().isEmpty());
+    }
+
+    @Test
+    public void testDispatcherReplaysTheEventKilledInLogEvent() throws InterruptedException {
+        FirebaseDispatcherConfig config = new FirebaseDispatcherConfig.Builder().setEventJournalFile(file).build();
+        FirebaseDispatcher killed = new FirebaseDispatcher(new AnalyticsSink()
+        {
+            private int count = 0;
+
+            @Override
+            public void logEvent(@NonNull String name, @Nullable Bundle params)
+            {
+                if (++count == 3) {
+                    throw new IllegalStateException("Killed");
+                }
+            }
+        }, config);
+        killed.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, new TestPayload(null, null));
+        killed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("show", null));
+        try {
+            killed.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                    new TestPayload(null, "https://batch.com?utm_campaign=summer"));
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+            // The process dies here
+        }
+
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        Assert.assertTrue(new FirebaseDispatcher(sink, config).flush(1, TimeUnit.SECONDS));
+        List<RecordingAnalyticsSink.LoggedEvent> events = sink.getEvents();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("batch_notification_open", events.get(0).name);
+        Assert.assertEquals("summer", events.get(0).params.getString("campaign"));
+
+        RecordingAnalyticsSink next = new RecordingAnalyticsSink();
+        Assert.assertTrue(new FirebaseDispatcher(next, config).flush(1, TimeUnit.SECONDS));
+        Assert.assertTrue("Replayed events are committed", next.getEvents().isEmpty());
+    }
+
+    @Test
+    public void testDispatcherReplaysQueuedEvents() throws InterruptedException {
+        FirebaseDispatcherConfig config = new FirebaseDispatcherConfig.Builder()
+                .setEventJournalFile(file)
+                .setAsyncDispatchEnabled(true)
+                .build();
+        RecordingAnalyticsSink blocked = new RecordingAnalyticsSink(true);
+        FirebaseDispatcher killed = new FirebaseDispatcher(blocked, config);
+        try {
+            for (int i = 0; i < 4; i++) {
+                killed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("show-" + i, null));
+            }
+            Assert.assertTrue(blocked.awaitEntered(1, TimeUnit.SECONDS));
+
+            // Killed while the first event is in logEvent and the others are queued
+            RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+            Assert.assertTrue(new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                    .setEventJournalFile(file)
+                    .build()).flush(1, TimeUnit.SECONDS));
+            Assert.assertEquals(4, sink.getEvents().size());
+            for (int i = 0; i < 4; i++) {
+                Assert.assertEquals("show-" + i, sink.getEvents().get(i).params.getString("batch_tracking_id"));
+            }
+        } finally {
+            blocked.open();
+        }
+    }
+
+    @Test
+    public void testEventsDroppedBeforeInitializationAreNotCommitted() throws InterruptedException {
+        FirebaseDispatcherConfig config = new FirebaseDispatcherConfig.Builder().setEventJournalFile(file).build();
+        DeferredAnalyticsSink deferred = new DeferredAnalyticsSink(2);
+        FirebaseDispatcher killed = new FirebaseDispatcher(deferred, config);
+        for (int i = 0; i < 3; i++) {
+            killed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("show-" + i, null));
+        }
+        final RecordingAnalyticsSink initialized = new RecordingAnalyticsSink();
+        deferred.initialize(new DeferredAnalyticsSink.Factory()
+        {
+            @NonNull
+            @Override
+            public AnalyticsSink create()
+            {
+                return initialized;
+            }
+        });
+        Assert.assertTrue(killed.flush(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, deferred.getDroppedCount());
+        Assert.assertEquals(2, initialized.getEvents().size());
+
+        // Only the event dropped by the buffer is sent again
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        Assert.assertTrue(new FirebaseDispatcher(sink, config).flush(1, TimeUnit.SECONDS));
+        Assert.assertEquals(1, sink.getEvents().size());
+        Assert.assertEquals("show-0", sink.getEvents().get(0).params.getString("batch_tracking_id"));
+    }
+
+    @Test
+    public void testEventsAreKeptWhenInitializationFails() throws InterruptedException {
+        FirebaseDispatcherConfig config = new FirebaseDispatcherConfig.Builder().setEventJournalFile(file).build();
+        DeferredAnalyticsSink deferred = new DeferredAnalyticsSink(4);
+        FirebaseDispatcher failed = new FirebaseDispatcher(deferred, config);
+        failed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("before", null));
+        deferred.initialize(new DeferredAnalyticsSink.Factory()
+        {
+            @NonNull
+            @Override
+            public AnalyticsSink create()
+            {
+                throw new IllegalStateException("No Firebase");
+            }
+        });
+        failed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("after", null));
+        Assert.assertTrue(failed.flush(1, TimeUnit.SECONDS));
+
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        Assert.assertTrue(new FirebaseDispatcher(sink, config).flush(1, TimeUnit.SECONDS));
+        Assert.assertEquals(2, sink.getEvents().size());
+    }
+
+    @Test
+    public void testAggregatedEventsAreCommittedWithTheirSummary() throws InterruptedException {
+        FirebaseDispatcherConfig config = new FirebaseDispatcherConfig.Builder()
+                .setEventJournalFile(file)
+                .setInAppAggregationEnabled(true)
+                .build();
+        RecordingAnalyticsSink killedSink = new RecordingAnalyticsSink();
+        FirebaseDispatcher killed = new FirebaseDispatcher(killedSink, config);
+        killed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("open", null));
+        killed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("closed", null));
+        killed.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, new TestPayload("closed", null));
+        Assert.assertEquals(1, killedSink.getEvents().size());
+
+        // Killed while "open" is displayed: its show is replayed, the summarized display isn't
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        FirebaseDispatcher restarted = new FirebaseDispatcher(sink, config);
+        Assert.assertTrue(restarted.flush(1, TimeUnit.SECONDS));
+        restarted.shutdown();
+        Assert.assertEquals(1, sink.getEvents().size());
+        Assert.assertEquals("open", sink.getEvents().get(0).params.getString("batch_tracking_id"));
+    }
+}
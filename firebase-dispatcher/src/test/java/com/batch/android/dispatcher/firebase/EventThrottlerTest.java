@@ -0,0 +1,112 @@
+package com.batch.android.dispatcher.firebase;
+
+import com.batch.android.Batch;
+
+import org.junit.Test;
+
+import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the per event type sampling and rate limiting
+ */
+public class EventThrottlerTest
+{
+    private static final Batch.EventDispatcher.Type SHOW = Batch.EventDispatcher.Type.MESSAGING_SHOW;
+    private static final Batch.EventDispatcher.Type CLICK = Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK;
+    private static final Batch.EventDispatcher.Type DISPLAY = Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY;
+
+    @Test
+    public void testSampleRateIsApplied() {
+        EventThrottler throttler = throttler(sampleRates(CLICK, 0.1), noLimits());
+
+        int kept = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (throttler.shouldDispatch(CLICK, "tracking-" + i, 0)) {
+                kept++;
+            }
+        }
+        assertEquals(10_000, kept, 500);
+        assertEquals(100_000 - kept, throttler.getSampledOutCount());
+        assertEquals(0.1, throttler.getSampleRate(CLICK), 0);
+        assertEquals(1, throttler.getSampleRate(DISPLAY), 0);
+    }
+
+    @Test
+    public void testSamplingIsDeterministic() {
+        EventThrottler first = throttler(sampleRates(CLICK, 0.5), noLimits());
+        EventThrottler second = throttler(sampleRates(CLICK, 0.5), noLimits());
+
+        for (int i = 0; i < 1000; i++) {
+            String key = "tracking-" + i;
+            assertEquals(first.shouldDispatch(CLICK, key, 0), second.shouldDispatch(CLICK, key, 0));
+            assertEquals(first.shouldDispatch(CLICK, key, 0), first.shouldDispatch(CLICK, key, 0));
+        }
+    }
+
+    @Test
+    public void testFunnelsAreConsistent() {
+        // Every message kept for the low rate click must also be kept for the higher rate show
+        EnumMap<Batch.EventDispatcher.Type, Double> rates = sampleRates(CLICK, 0.05);
+        rates.put(SHOW, 0.2);
+        EventThrottler throttler = throttler(rates, noLimits());
+
+        for (int i = 0; i < 10_000; i++) {
+            String key = "tracking-" + i;
+            if (throttler.shouldDispatch(CLICK, key, 0)) {
+                assertTrue(throttler.shouldDispatch(SHOW, key, 0));
+            }
+        }
+    }
+
+    @Test
+    public void testUnsampledTypesAreKept() {
+        EventThrottler throttler = throttler(sampleRates(CLICK, 0), noLimits());
+
+        assertFalse(throttler.isSampled(DISPLAY));
+        assertTrue(throttler.shouldDispatch(DISPLAY, "tracking", 0));
+        assertFalse(throttler.shouldDispatch(CLICK, "tracking", 0));
+        assertFalse(throttler.shouldDispatch(CLICK, null, 0));
+    }
+
+    @Test
+    public void testRateLimit() {
+        EnumMap<Batch.EventDispatcher.Type, FirebaseDispatcherConfig.RateLimit> limits =
+                new EnumMap<>(Batch.EventDispatcher.Type.class);
+        limits.put(DISPLAY, new FirebaseDispatcherConfig.RateLimit(10, 2));
+        EventThrottler throttler = throttler(sampleRates(CLICK, 1), limits);
+
+        // Burst of 2, then one token every 100ms
+        assertTrue(throttler.shouldDispatch(DISPLAY, null, 0));
+        assertTrue(throttler.shouldDispatch(DISPLAY, null, 0));
+        assertFalse(throttler.shouldDispatch(DISPLAY, null, TimeUnit.MILLISECONDS.toNanos(50)));
+        assertTrue(throttler.shouldDispatch(DISPLAY, null, TimeUnit.MILLISECONDS.toNanos(100)));
+        assertFalse(throttler.shouldDispatch(DISPLAY, null, TimeUnit.MILLISECONDS.toNanos(100)));
+        // Tokens don't accumulate over the burst size
+        assertTrue(throttler.shouldDispatch(DISPLAY, null, TimeUnit.SECONDS.toNanos(10)));
+        assertTrue(throttler.shouldDispatch(DISPLAY, null, TimeUnit.SECONDS.toNanos(10)));
+        assertFalse(throttler.shouldDispatch(DISPLAY, null, TimeUnit.SECONDS.toNanos(10)));
+
+        assertEquals(3, throttler.getRateLimitedCount());
+        assertTrue(throttler.shouldDispatch(SHOW, null, 0));
+    }
+
+    private static EventThrottler throttler(EnumMap<Batch.EventDispatcher.Type, Double> rates,
+                                            EnumMap<Batch.EventDispatcher.Type, FirebaseDispatcherConfig.RateLimit> limits) {
+        return new EventThrottler(rates, limits, 0);
+    }
+
+    private static EnumMap<Batch.EventDispatcher.Type, Double> sampleRates(Batch.EventDispatcher.Type type, double rate) {
+        EnumMap<Batch.EventDispatcher.Type, Double> rates = new EnumMap<>(Batch.EventDispatcher.Type.class);
+        rates.put(type, rate);
+        return rates;
+    }
+
+    private static EnumMap<Batch.EventDispatcher.Type, FirebaseDispatcherConfig.RateLimit> noLimits() {
+        return new EnumMap<>(Batch.EventDispatcher.Type.class);
+    }
+}
@@ -0,0 +1,146 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the asynchronous dispatch mode of the Firebase Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class FirebaseDispatcherAsyncTest
+{
+    private FirebaseDispatcher firebaseDispatcher;
+
+    @After
+    public void tearDown() {
+        if (firebaseDispatcher != null) {
+            firebaseDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testEventsAreDispatchedInOrder() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, asyncConfig(16, FirebaseDispatcherConfig.OverflowPolicy.BLOCK));
+
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            expected.add(String.valueOf(i));
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload(String.valueOf(i), null));
+        }
+
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+        Assert.assertEquals(expected, logger.getParams("batch_tracking_id"));
+        Assert.assertEquals(0, firebaseDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    public void testPayloadIsCaptured() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, asyncConfig(16, FirebaseDispatcherConfig.OverflowPolicy.BLOCK));
+
+        TestPayload payload = new TestPayload("jesuisunid", "https://batch.com?utm_content=jesuisuncontent")
+                .withCustomValue("utm_source", "jesuisunesource");
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload);
+        // Changes made after the dispatch must not leak into the event
+        payload.deeplink = null;
+        payload.customValues.clear();
+
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+        Bundle params = logger.getEvents().get(0).params;
+        Assert.assertEquals("batch_in_app_show", logger.getEvents().get(0).name);
+        Assert.assertEquals("jesuisuncontent", params.getString("content"));
+        Assert.assertEquals("jesuisunesource", params.getString("source"));
+    }
+
+    @Test
+    public void testOverflowDropNewest() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink(true);
+        firebaseDispatcher = new FirebaseDispatcher(logger, asyncConfig(2, FirebaseDispatcherConfig.OverflowPolicy.DROP_NEWEST));
+
+        fillQueue(logger, 5);
+
+        Assert.assertEquals(Arrays.asList("0", "1", "2"), logger.getParams("batch_tracking_id"));
+        Assert.assertEquals(2, firebaseDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    public void testOverflowDropOldest() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink(true);
+        firebaseDispatcher = new FirebaseDispatcher(logger, asyncConfig(2, FirebaseDispatcherConfig.OverflowPolicy.DROP_OLDEST));
+
+        fillQueue(logger, 5);
+
+        Assert.assertEquals(Arrays.asList("0", "3", "4"), logger.getParams("batch_tracking_id"));
+        Assert.assertEquals(2, firebaseDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    public void testOverflowBlockTimeout() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink(true);
+        FirebaseDispatcherConfig config = new FirebaseDispatcherConfig.Builder()
+                .setAsyncDispatchEnabled(true)
+                .setAsyncQueueCapacity(1)
+                .setAsyncOverflowPolicy(FirebaseDispatcherConfig.OverflowPolicy.BLOCK)
+                .setAsyncBlockTimeout(20, TimeUnit.MILLISECONDS)
+                .build();
+        firebaseDispatcher = new FirebaseDispatcher(logger, config);
+
+        long start = System.nanoTime();
+        fillQueue(logger, 3);
+
+        Assert.assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20));
+        Assert.assertEquals(Arrays.asList("0", "1"), logger.getParams("batch_tracking_id"));
+        Assert.assertEquals(1, firebaseDispatcher.getDroppedEventCount());
+    }
+
+    @Test
+    public void testShutdownFallsBackToSynchronousDispatch() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, asyncConfig(16, FirebaseDispatcherConfig.OverflowPolicy.BLOCK));
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload("0", null));
+        firebaseDispatcher.shutdown();
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload("1", null));
+
+        Assert.assertEquals(Arrays.asList("0", "1"), logger.getParams("batch_tracking_id"));
+    }
+
+    /**
+     * Hold the worker on the first event, dispatch the others while it's blocked, then release it
+     */
+    private void fillQueue(RecordingAnalyticsSink logger, int count) throws InterruptedException {
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload("0", null));
+        Assert.assertTrue(logger.awaitEntered(5, TimeUnit.SECONDS));
+        for (int i = 1; i < count; i++) {
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload(String.valueOf(i), null));
+        }
+        logger.open();
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+    }
+
+    private static FirebaseDispatcherConfig asyncConfig(int capacity, FirebaseDispatcherConfig.OverflowPolicy policy) {
+        return new FirebaseDispatcherConfig.Builder()
+                .setAsyncDispatchEnabled(true)
+                .setAsyncQueueCapacity(capacity)
+                .setAsyncOverflowPolicy(policy)
+                .build();
+    }
+}
@@ -0,0 +1,119 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the bulk dispatch of the Firebase Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class FirebaseDispatcherBulkTest
+{
+    private FirebaseDispatcher firebaseDispatcher;
+
+    @After
+    public void tearDown() {
+        if (firebaseDispatcher != null) {
+            firebaseDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testEventsAreDispatchedInOrder() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, FirebaseDispatcherConfig.getDefault());
+
+        firebaseDispatcher.dispatchEvents(Arrays.asList(
+                new DispatcherEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                        new TestPayload(null, "https://batch.com?utm_campaign=a")),
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                        new TestPayload("b", "https://batch.com?utm_content=b")),
+                new DispatcherEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS,
+                        new TestPayload(null, "https://batch.com?utm_campaign=a")),
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK,
+                        new TestPayload("c", null))));
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = logger.getEvents();
+        Assert.assertEquals(4, events.size());
+        Assert.assertEquals("batch_notification_open", events.get(0).name);
+        Assert.assertEquals("a", events.get(0).params.getString("campaign"));
+        Assert.assertEquals("batch_in_app_show", events.get(1).name);
+        Assert.assertEquals("b", events.get(1).params.getString("content"));
+        Assert.assertEquals("batch_notification_dismiss", events.get(2).name);
+        Assert.assertEquals("a", events.get(2).params.getString("campaign"));
+        Assert.assertEquals("batch_in_app_click", events.get(3).name);
+        Assert.assertEquals("c", events.get(3).params.getString("batch_tracking_id"));
+    }
+
+    @Test
+    public void testDeeplinksAreParsedOncePerBatch() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setAttributionCacheSize(0)
+                .build());
+
+        List<DispatcherEvent> events = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            events.add(new DispatcherEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    new TestPayload(null, "https://batch.com?utm_campaign=" + (i % 3))));
+        }
+        firebaseDispatcher.dispatchEvents(events);
+
+        Assert.assertEquals(300, logger.getEvents().size());
+        Assert.assertEquals(3, firebaseDispatcher.getAttributionCacheStats().getMissCount());
+        Assert.assertEquals("2", logger.getEvents().get(299).params.getString("campaign"));
+    }
+
+    @Test
+    public void testFiltersApply() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setDuplicateSuppressionWindow(1, TimeUnit.MINUTES)
+                .build());
+
+        TestPayload payload = new TestPayload("a", null);
+        firebaseDispatcher.dispatchEvents(Arrays.asList(
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload),
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload),
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload)));
+
+        Assert.assertEquals(2, logger.getEvents().size());
+        Assert.assertEquals(1, firebaseDispatcher.getSuppressedDuplicateCount());
+    }
+
+    @Test
+    public void testAsyncBulkDispatch() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setAsyncDispatchEnabled(true)
+                .setAsyncOverflowPolicy(FirebaseDispatcherConfig.OverflowPolicy.BLOCK)
+                .setAsyncQueueCapacity(8)
+                .build());
+
+        List<DispatcherEvent> events = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            expected.add(String.valueOf(i));
+            events.add(new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload(String.valueOf(i), null)));
+        }
+        firebaseDispatcher.dispatchEvents(events);
+
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+        Assert.assertEquals(expected, logger.getParams("batch_tracking_id"));
+    }
+}
@@ -0,0 +1,140 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the delivery of events to additional analytics sinks
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class FirebaseDispatcherFanOutTest
+{
+    private static final Executor DIRECT = new Executor()
+    {
+        @Override
+        public void execute(@NonNull Runnable command)
+        {
+            command.run();
+        }
+    };
+
+    private FirebaseDispatcher firebaseDispatcher;
+
+    @After
+    public void tearDown() {
+        if (firebaseDispatcher != null) {
+            firebaseDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testEverySinkReceivesItsOwnCopy() {
+        RecordingAnalyticsSink primary = new RecordingAnalyticsSink();
+        InMemoryAnalyticsSink recorder = new InMemoryAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(primary, new FirebaseDispatcherConfig.Builder()
+                .addAnalyticsSink(recorder, DIRECT)
+                .build());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com?utm_campaign=a"));
+
+        List<InMemoryAnalyticsSink.Event> events = recorder.getEvents();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("batch_notification_open", events.get(0).getName());
+        Assert.assertEquals("a", events.get(0).getParams().getString("campaign"));
+        Assert.assertEquals("a", primary.getEvents().get(0).params.getString("campaign"));
+        Assert.assertNotSame(primary.getEvents().get(0).params, events.get(0).getParams());
+    }
+
+    @Test
+    public void testSlowSinkDoesNotBlockDispatch() throws Exception {
+        RecordingAnalyticsSink primary = new RecordingAnalyticsSink();
+        RecordingAnalyticsSink slow = new RecordingAnalyticsSink(true);
+        firebaseDispatcher = new FirebaseDispatcher(primary, new FirebaseDispatcherConfig.Builder()
+                .addAnalyticsSink(slow)
+                .build());
+
+        for (int i = 0; i < 3; i++) {
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                    new TestPayload("id" + i, null));
+        }
+        Assert.assertEquals(3, primary.getEvents().size());
+        Assert.assertTrue(slow.awaitEntered(5, TimeUnit.SECONDS));
+
+        slow.open();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (slow.getEvents().size() < 3 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(primary.getParams("batch_tracking_id"), slow.getParams("batch_tracking_id"));
+        Assert.assertEquals(0, firebaseDispatcher.getSinkDroppedEventCount());
+    }
+
+    @Test
+    public void testLaggingSinkDropsOnlyItsOwnEvents() throws Exception {
+        RecordingAnalyticsSink primary = new RecordingAnalyticsSink();
+        RecordingAnalyticsSink slow = new RecordingAnalyticsSink(true);
+        firebaseDispatcher = new FirebaseDispatcher(primary, new FirebaseDispatcherConfig.Builder()
+                .addAnalyticsSink(slow)
+                .build());
+
+        // One event held by the sink thread, a full queue behind it, then two over capacity
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("first", null));
+        Assert.assertTrue(slow.awaitEntered(5, TimeUnit.SECONDS));
+        int dispatched = FanOutAnalyticsSink.DEDICATED_QUEUE_CAPACITY + 2;
+        for (int i = 0; i < dispatched; i++) {
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("id" + i, null));
+        }
+        slow.open();
+
+        Assert.assertEquals(dispatched + 1, primary.getEvents().size());
+        Assert.assertEquals(2, firebaseDispatcher.getSinkDroppedEventCount());
+    }
+
+    @Test
+    public void testRejectingExecutorAndFailingSinkDoNotAffectPrimary() {
+        RecordingAnalyticsSink primary = new RecordingAnalyticsSink();
+        Executor rejecting = new Executor()
+        {
+            @Override
+            public void execute(@NonNull Runnable command)
+            {
+                throw new RejectedExecutionException();
+            }
+        };
+        AnalyticsSink failing = new AnalyticsSink()
+        {
+            @Override
+            public void logEvent(@NonNull String name, android.os.Bundle params)
+            {
+                throw new IllegalStateException("Sink failure");
+            }
+        };
+        firebaseDispatcher = new FirebaseDispatcher(primary, new FirebaseDispatcherConfig.Builder()
+                .addAnalyticsSink(new InMemoryAnalyticsSink(), rejecting)
+                .addAnalyticsSink(failing, DIRECT)
+                .build());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, new TestPayload(null, null));
+
+        Assert.assertEquals(1, primary.getEvents().size());
+        Assert.assertEquals(1, firebaseDispatcher.getSinkDroppedEventCount());
+    }
+}
@@ -0,0 +1,124 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the in-app aggregation mode of the Firebase Event Dispatcher
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class FirebaseDispatcherFunnelTest
+{
+    private FirebaseDispatcher firebaseDispatcher;
+
+    @After
+    public void tearDown() {
+        if (firebaseDispatcher != null) {
+            firebaseDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testDisplayIsSentAsOneSummary() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setInAppAggregationEnabled(true)
+                .build());
+
+        TestPayload payload = new TestPayload("campaign-id", "https://batch.com?utm_content=banner");
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload);
+        for (int i = 0; i < 5; i++) {
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, payload);
+        }
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, new TestPayload(null, null));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, payload);
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = logger.getEvents();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("batch_notification_open", events.get(0).name);
+        Assert.assertEquals(InAppFunnelAggregator.SUMMARY_EVENT_NAME, events.get(1).name);
+
+        Bundle params = events.get(1).params;
+        Assert.assertEquals("campaign-id", params.getString("campaign"));
+        Assert.assertEquals("campaign-id", params.getString("batch_tracking_id"));
+        Assert.assertEquals("in-app", params.getString("medium"));
+        Assert.assertEquals("banner", params.getString("content"));
+        Assert.assertEquals(5, params.getLong(InAppFunnelAggregator.CLICK_COUNT));
+        Assert.assertTrue(params.containsKey(InAppFunnelAggregator.TIME_TO_FIRST_CLICK));
+        Assert.assertTrue(params.containsKey(InAppFunnelAggregator.DISPLAY_DURATION));
+        Assert.assertEquals("close", params.getString(InAppFunnelAggregator.CLOSE_REASON));
+    }
+
+    @Test
+    public void testShutdownSummarizesOpenDisplays() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setInAppAggregationEnabled(true)
+                .build());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null));
+        Assert.assertTrue(logger.getEvents().isEmpty());
+        firebaseDispatcher.shutdown();
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = logger.getEvents();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("timeout", events.get(0).params.getString(InAppFunnelAggregator.CLOSE_REASON));
+        Assert.assertFalse(events.get(0).params.containsKey(InAppFunnelAggregator.TIME_TO_FIRST_CLICK));
+    }
+
+    @Test
+    public void testDisplayIsTimedFromTheReceivedEvents() throws InterruptedException {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink(true);
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setInAppAggregationEnabled(true)
+                .setAsyncDispatchEnabled(true)
+                .build());
+        try {
+            // The worker is held by the open, while the display's events are received
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, new TestPayload(null, null));
+            Assert.assertTrue(logger.awaitEntered(1, TimeUnit.SECONDS));
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null));
+            SystemClock.sleep(200);
+            firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, new TestPayload("a", null));
+        } finally {
+            logger.open();
+        }
+        Assert.assertTrue(firebaseDispatcher.flush(1, TimeUnit.SECONDS));
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = logger.getEvents();
+        Assert.assertEquals(2, events.size());
+        Assert.assertTrue(events.get(1).params.getLong(InAppFunnelAggregator.DISPLAY_DURATION) >= 200);
+    }
+
+    @Test
+    public void testShutdownSummarizesQueuedEvents() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setInAppAggregationEnabled(true)
+                .setAsyncDispatchEnabled(true)
+                .build());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, new TestPayload("a", null));
+        firebaseDispatcher.shutdown();
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = logger.getEvents();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals(1, events.get(0).params.getLong(InAppFunnelAggregator.CLICK_COUNT));
+    }
+}
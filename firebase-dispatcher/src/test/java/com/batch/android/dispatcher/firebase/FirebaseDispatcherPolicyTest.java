@@ -0,0 +1,146 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the event types and parameters the dispatcher is configured to send
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class FirebaseDispatcherPolicyTest
+{
+    /**
+     * Payload failing the test if any of its fields is read
+     */
+    private static class UnreadPayload extends TestPayload
+    {
+        UnreadPayload()
+        {
+            super("tracking", "https://batch.com?utm_campaign=summer");
+        }
+
+        @Override
+        public String getTrackingId()
+        {
+            throw new AssertionError("Payload of a disabled event read");
+        }
+
+        @Override
+        public String getDeeplink()
+        {
+            throw new AssertionError("Payload of a disabled event read");
+        }
+    }
+
+    private FirebaseDispatcher firebaseDispatcher;
+
+    @After
+    public void tearDown() {
+        if (firebaseDispatcher != null) {
+            firebaseDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testDisabledEventsAreSkipped() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        EnumSet<Batch.EventDispatcher.Type> types = EnumSet.allOf(Batch.EventDispatcher.Type.class);
+        types.remove(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS);
+        types.remove(Batch.EventDispatcher.Type.MESSAGING_CLOSE_ERROR);
+        firebaseDispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                .setEnabledEventTypes(types)
+                .setMetricsEnabled(true)
+                .build());
+        // The config keeps its own copy
+        types.add(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS);
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, new UnreadPayload());
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE_ERROR, new UnreadPayload());
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com?utm_campaign=summer"));
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = sink.getEvents();
+        Assert.assertEquals(1, events.size());
+        Assert.assertEquals("batch_notification_open", events.get(0).name);
+        Assert.assertEquals(0, firebaseDispatcher.getMetrics()
+                .getReceivedCount(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS));
+    }
+
+    @Test
+    public void testDisabledEventsAreSkippedInBulk() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                .setEnabledEventTypes(EnumSet.of(Batch.EventDispatcher.Type.MESSAGING_CLICK))
+                .build());
+
+        firebaseDispatcher.dispatchEvents(Arrays.asList(
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new UnreadPayload()),
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload("a", null)),
+                new DispatcherEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, new UnreadPayload())));
+
+        Assert.assertEquals(1, sink.getEvents().size());
+        Assert.assertEquals("batch_in_app_click", sink.getEvents().get(0).name);
+    }
+
+    @Test
+    public void testOnlyRequestedParametersAreSent() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                .setEventParameters(Batch.EventDispatcher.Type.MESSAGING_CLICK, "campaign", "source", "medium")
+                .setEventParameters(Batch.EventDispatcher.Type.MESSAGING_CLOSE)
+                .setAttributionCacheSize(0)
+                .build());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK,
+                new TestPayload("tracking", "https://batch.com?utm_content=button"));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE,
+                new TestPayload("tracking", "https://batch.com?utm_content=button"));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestPayload("tracking", "https://batch.com?utm_content=button"));
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = sink.getEvents();
+        Assert.assertEquals(3, events.get(0).params.size());
+        Assert.assertEquals("tracking", events.get(0).params.getString("campaign"));
+        Assert.assertFalse(events.get(0).params.containsKey("content"));
+        Assert.assertTrue(events.get(1).params.isEmpty());
+        Assert.assertEquals("button", events.get(2).params.getString("content"));
+        Assert.assertEquals("Only the show event reads the deeplink", 1,
+                firebaseDispatcher.getAttributionCacheStats().getMissCount());
+    }
+
+    @Test
+    public void testParameterMaskAppliesToMappingRules() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                .setMappingRules("{\"rules\": [{\"param\": \"gclid\", \"sources\": [\"deeplink:gclid\"]}]}")
+                .setEventParameters(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, "gclid")
+                .setEventParameters(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, "gclid")
+                .setEventParameters(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, (String[]) null)
+                .build());
+
+        TestPayload payload = new TestPayload(null, "https://batch.com?utm_campaign=summer&gclid=g");
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload);
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = sink.getEvents();
+        Assert.assertEquals(1, events.get(0).params.size());
+        Assert.assertEquals("g", events.get(0).params.getString("gclid"));
+        Assert.assertEquals("A null mask sends every parameter again", "summer",
+                events.get(1).params.getString("campaign"));
+        Assert.assertEquals("g", events.get(1).params.getString("gclid"));
+    }
+}
@@ -9,6 +9,7 @@ import com.batch.android.BatchMessage;
 import com.batch.android.BatchPushPayload;
 import com.google.firebase.analytics.FirebaseAnalytics;
 
+import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -22,7 +23,9 @@ import org.powermock.modules.junit4.rule.PowerMockRule;
 import org.robolectric.annotation.Config;
 
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -211,6 +214,60 @@ public class FirebaseDispatcherTest
         Mockito.verify(firebase).logEvent(Mockito.eq("batch_notification_dismiss"), bundleEq(expected));
     }
 
+    @Test
+    public void testNotificationNonHierarchicalDeeplink() {
+
+        TestEventPayload payload = new TestEventPayload(null,
+                "mailto:contact@batch.com?utm_source=batchsdk&utm_campaign=yoloswag",
+                new Bundle());
+
+        Bundle expected = new Bundle();
+        expected.putString("medium", "push");
+        expected.putString("source", "batch");
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+        Mockito.verify(firebase).logEvent(Mockito.eq("batch_notification_open"), bundleEq(expected));
+    }
+
+    @Test
+    public void testNotificationRepeatedDeeplinkUsesCache() {
+
+        TestEventPayload payload = new TestEventPayload(null,
+                "https://batch.com?utm_campaign=yoloswag",
+                new Bundle());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload);
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, payload);
+
+        Bundle expected = new Bundle();
+        expected.putString("medium", "push");
+        expected.putString("source", "batch");
+        expected.putString("campaign", "yoloswag");
+        Mockito.verify(firebase).logEvent(Mockito.eq("batch_notification_dismiss"), bundleEq(expected));
+
+        // The open and dismiss reuse the attributes resolved for the display
+        AttributionCacheStats stats = firebaseDispatcher.getAttributionCacheStats();
+        Assert.assertEquals(1, stats.getMissCount());
+        Assert.assertEquals(2, stats.getHitCount());
+    }
+
+    @Test
+    public void testNotificationDeeplinkTermAndId() {
+
+        TestEventPayload payload = new TestEventPayload(null,
+                "https://batch.com?utm_term=jesuisunterm#utm_id=jesuisunid",
+                new Bundle());
+
+        // The term and id are only sent when mapping rules ask for them
+        Bundle expected = new Bundle();
+        expected.putString("medium", "push");
+        expected.putString("source", "batch");
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+        Mockito.verify(firebase).logEvent(Mockito.eq("batch_notification_open"), bundleEq(expected));
+    }
+
     @Test
     public void testInAppNoData() {
 
@@ -372,6 +429,114 @@ public class FirebaseDispatcherTest
         Mockito.verify(firebase).logEvent(Mockito.eq("batch_in_app_click"), bundleEq(expected));
     }
 
+    @Test
+    public void testInAppDeeplinkTermAndId() {
+
+        TestEventPayload payload = new TestEventPayload("jesuisunid",
+                "https://batch.com?utm_term=jesuisunterm&utm_id=jesuisuncampaignid",
+                new Bundle());
+
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        FirebaseDispatcher rulesDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setMappingRules("{\"rules\": ["
+                        + "{\"param\": \"term\", \"sources\": [\"deeplink:utm_term\"]},"
+                        + "{\"param\": \"campaign_id\", \"sources\": [\"deeplink:utm_id\"]}]}")
+                .build());
+
+        Bundle expected = new Bundle();
+        expected.putString("medium", "in-app");
+        expected.putString("source", "batch");
+        expected.putString("campaign", "jesuisunid");
+        expected.putString("batch_tracking_id", "jesuisunid");
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload);
+        Mockito.verify(firebase).logEvent(Mockito.eq("batch_in_app_click"), bundleEq(expected));
+
+        expected.putString("term", "jesuisunterm");
+        expected.putString("campaign_id", "jesuisuncampaignid");
+        rulesDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, payload);
+        Assert.assertTrue(new BundleObjectMatcher(expected).matches(logger.getEvents().get(0).params));
+        rulesDispatcher.shutdown();
+    }
+
+    @Test
+    public void testSampledEventsCarrySampleRate() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        FirebaseDispatcher sampledDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setSampleRate(Batch.EventDispatcher.Type.MESSAGING_SHOW, 0.5)
+                .build());
+
+        for (int i = 0; i < 100; i++) {
+            sampledDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                    new TestEventPayload("message" + i, null, new Bundle()));
+        }
+        sampledDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK,
+                new TestEventPayload("message", null, new Bundle()));
+
+        int sampledOut = 0;
+        for (int i = 0; i < 100; i++) {
+            if (!EventThrottler.isSampledIn("message" + i, 0.5)) {
+                sampledOut++;
+            }
+        }
+        Assert.assertTrue(sampledOut > 0);
+        Assert.assertEquals(sampledOut, sampledDispatcher.getSampledOutEventCount());
+        List<RecordingAnalyticsSink.LoggedEvent> events = logger.getEvents();
+        Assert.assertEquals(100 - sampledOut, events.size() - 1);
+        for (RecordingAnalyticsSink.LoggedEvent event : events.subList(0, events.size() - 1)) {
+            Assert.assertEquals("batch_in_app_show", event.name);
+            Assert.assertEquals(0.5, event.params.getDouble("batch_sample_rate"), 0);
+        }
+        Assert.assertFalse(events.get(events.size() - 1).params.containsKey("batch_sample_rate"));
+    }
+
+    @Test
+    public void testDuplicatesDontUseRateLimitTokens() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        FirebaseDispatcher limitedDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setRateLimit(Batch.EventDispatcher.Type.MESSAGING_SHOW, 0.001, 2)
+                .setDuplicateSuppressionWindow(1, TimeUnit.MINUTES)
+                .build());
+
+        limitedDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload("a", null, new Bundle()));
+        limitedDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload("a", null, new Bundle()));
+        limitedDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload("b", null, new Bundle()));
+
+        List<RecordingAnalyticsSink.LoggedEvent> events = logger.getEvents();
+        Assert.assertEquals(2, events.size());
+        Assert.assertEquals("b", events.get(1).params.getString("batch_tracking_id"));
+    }
+
+    @Test
+    public void testMetrics() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        FirebaseDispatcher measuredDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setMetricsEnabled(true)
+                .build());
+
+        measuredDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, "https://batch.com?utm_source=batchsdk", new Bundle()));
+        measuredDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestEventPayload(null, "mailto:contact@batch.com?utm_source=batchsdk", new Bundle()));
+        measuredDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestEventPayload("jesuisunid", "https://batch.com?utm_content=%zz", new Bundle()));
+
+        DispatcherMetrics metrics = measuredDispatcher.getAndResetMetrics();
+        Assert.assertEquals(2, metrics.getDispatchedCount(Batch.EventDispatcher.Type.NOTIFICATION_OPEN));
+        Assert.assertEquals(1, metrics.getReceivedCount(Batch.EventDispatcher.Type.MESSAGING_SHOW));
+        Assert.assertEquals(0, metrics.getDispatchedCount(Batch.EventDispatcher.Type.MESSAGING_CLICK));
+        Assert.assertEquals(3, metrics.getTotalDispatchedCount());
+        Assert.assertEquals("Opaque URIs aren't parse failures", 1, metrics.getParseFailureCount());
+        Assert.assertEquals(3, metrics.getExtractionLatency().getCount());
+        Assert.assertEquals(3, metrics.getLogEventLatency().getCount());
+
+        Assert.assertEquals(0, measuredDispatcher.getMetrics().getTotalDispatchedCount());
+        Assert.assertNull(firebaseDispatcher.getMetrics());
+    }
+
     private static class TestEventPayload implements Batch.EventDispatcher.Payload {
 
         private String trackingId;
@@ -0,0 +1,156 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the trace sections around the dispatch stages
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class FirebaseDispatcherTracingTest
+{
+    /**
+     * Records the begun sections, and "end" for each ended one
+     */
+    private static class ListTracer implements Tracer
+    {
+        final List<String> sections = new ArrayList<>();
+
+        @Override
+        public void beginSection(@NonNull String name)
+        {
+            sections.add(name);
+        }
+
+        @Override
+        public void endSection()
+        {
+            sections.add("end");
+        }
+
+        int depth()
+        {
+            int depth = 0;
+            for (String section : sections) {
+                depth += section.equals("end") ? -1 : 1;
+            }
+            return depth;
+        }
+    }
+
+    @Test
+    public void testDispatchStagesAreTraced() {
+        ListTracer tracer = new ListTracer();
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(sink,
+                new FirebaseDispatcherConfig.Builder().setTracer(tracer).build());
+
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com?utm_campaign=summer"));
+
+        Assert.assertEquals(1, sink.getEvents().size());
+        List<String> sections = tracer.sections;
+        Assert.assertEquals(Tracer.DISPATCH_EVENT, sections.get(0));
+        Assert.assertEquals(Tracer.PAYLOAD_READ, sections.get(1));
+        Assert.assertEquals(Tracer.DEEPLINK_PARSE, sections.get(3));
+        Assert.assertEquals(Tracer.QUERY_EXTRACTION, sections.get(4));
+        Assert.assertTrue(sections.contains(Tracer.CUSTOM_PAYLOAD_MERGE));
+        Assert.assertTrue(sections.indexOf(Tracer.BUNDLE_BUILD) < sections.indexOf(Tracer.LOG_EVENT));
+        Assert.assertEquals(sections.size() - 3, sections.indexOf(Tracer.LOG_EVENT));
+        Assert.assertEquals(0, tracer.depth());
+    }
+
+    @Test
+    public void testSectionsAreEndedWhenTheSinkThrows() {
+        ListTracer tracer = new ListTracer();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(new AnalyticsSink()
+        {
+            @Override
+            public void logEvent(@NonNull String name, @Nullable Bundle params)
+            {
+                throw new IllegalStateException("Failed");
+            }
+        }, new FirebaseDispatcherConfig.Builder().setTracer(tracer).build());
+
+        try {
+            dispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("tracking", null));
+            Assert.fail();
+        } catch (IllegalStateException expected) {
+            // The sink's failure is not swallowed
+        }
+        Assert.assertTrue(tracer.sections.contains(Tracer.LOG_EVENT));
+        Assert.assertEquals(0, tracer.depth());
+    }
+
+    @Test
+    public void testNotificationDeeplinkIsParsedOnceWithTheDefaultConfig() {
+        char[] path = new char[AttributionCache.MAX_DEEPLINK_LENGTH];
+        Arrays.fill(path, 'a');
+        String[] deeplinks = {
+                "https://batch.com?utm_campaign=summer",
+                // Too long for the attribution cache
+                "https://batch.com/" + new String(path) + "?utm_campaign=winter",
+        };
+        for (String deeplink : deeplinks) {
+            ListTracer tracer = new ListTracer();
+            RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+            FirebaseDispatcher dispatcher = new FirebaseDispatcher(sink,
+                    new FirebaseDispatcherConfig.Builder().setTracer(tracer).build());
+
+            dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, new TestPayload(null, deeplink));
+            dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, new TestPayload(null, deeplink));
+            dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, new TestPayload(null, deeplink));
+
+            Assert.assertEquals(1, Collections.frequency(tracer.sections, Tracer.DEEPLINK_PARSE));
+            Assert.assertEquals(3, sink.getEvents().size());
+            Assert.assertEquals(sink.getEvents().get(0).params.getString("campaign"),
+                    sink.getEvents().get(1).params.getString("campaign"));
+        }
+    }
+
+    @Test
+    public void testNotificationDeeplinkIsParsedOnceWithoutAttributionCache() {
+        ListTracer tracer = new ListTracer();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(new RecordingAnalyticsSink(),
+                new FirebaseDispatcherConfig.Builder().setTracer(tracer).setAttributionCacheSize(0).build());
+
+        TestPayload payload = new TestPayload(null, "https://batch.com?utm_campaign=summer");
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload);
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+        Assert.assertEquals(1, Collections.frequency(tracer.sections, Tracer.DEEPLINK_PARSE));
+
+        // An open without display parses its deeplink
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com?utm_campaign=winter"));
+        Assert.assertEquals(2, Collections.frequency(tracer.sections, Tracer.DEEPLINK_PARSE));
+    }
+
+    @Test
+    public void testTracingIsDisabledByDefault() {
+        Assert.assertSame(Tracer.NONE, FirebaseDispatcherConfig.getDefault().tracer);
+        Assert.assertSame(SystemTracer.INSTANCE,
+                new FirebaseDispatcherConfig.Builder().setTracingEnabled(true).build().tracer);
+        Assert.assertSame(Tracer.NONE, new FirebaseDispatcherConfig.Builder()
+                .setTracingEnabled(true)
+                .setTracingEnabled(false)
+                .build().tracer);
+    }
+}
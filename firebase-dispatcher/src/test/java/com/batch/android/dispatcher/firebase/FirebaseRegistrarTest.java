@@ -0,0 +1,111 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.content.Context;
+import android.os.Build;
+
+import com.batch.android.Batch;
+import com.batch.android.BatchEventDispatcher;
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mockito;
+import org.powermock.api.mockito.PowerMockito;
+import org.powermock.core.classloader.annotations.PowerMockIgnore;
+import org.powermock.core.classloader.annotations.PrepareForTest;
+import org.powermock.modules.junit4.rule.PowerMockRule;
+import org.robolectric.annotation.Config;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the creation of the dispatcher by the registrar
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+@PowerMockIgnore({"org.powermock.*", "org.mockito.*", "org.robolectric.*", "android.*", "androidx.*"})
+@PrepareForTest(FirebaseAnalytics.class)
+public class FirebaseRegistrarTest
+{
+    @Rule
+    public PowerMockRule rule = new PowerMockRule();
+    private Context context;
+    private FirebaseAnalytics firebase;
+
+    @Before
+    public void setUp() {
+        context = PowerMockito.mock(Context.class);
+        firebase = PowerMockito.mock(FirebaseAnalytics.class);
+
+        PowerMockito.mockStatic(FirebaseAnalytics.class);
+        Mockito.when(FirebaseAnalytics.getInstance(context)).thenReturn(firebase);
+        FirebaseRegistrar.reset();
+    }
+
+    @After
+    public void tearDown() {
+        FirebaseRegistrar.reset();
+    }
+
+    @Test
+    public void testConcurrentGetDispatcher() throws Exception {
+        FirebaseRegistrar.setConfig(new FirebaseDispatcherConfig.Builder()
+                .setLazyInitializationEnabled(true)
+                .build());
+
+        final int threadCount = 16;
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(threadCount);
+        final AtomicReferenceArray<BatchEventDispatcher> dispatchers = new AtomicReferenceArray<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            final int index = i;
+            new Thread(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    try {
+                        start.await();
+                        dispatchers.set(index, new FirebaseRegistrar().getDispatcher(context));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        FirebaseDispatcher instance = FirebaseRegistrar.getInstance();
+        Assert.assertNotNull(instance);
+        for (int i = 0; i < threadCount; i++) {
+            Assert.assertSame(instance, dispatchers.get(i));
+        }
+    }
+
+    @Test
+    public void testLazyInitializationDispatchesPendingEvents() throws Exception {
+        FirebaseRegistrar.setConfig(new FirebaseDispatcherConfig.Builder()
+                .setLazyInitializationEnabled(true)
+                .build());
+
+        FirebaseDispatcher dispatcher = (FirebaseDispatcher) new FirebaseRegistrar().getDispatcher(context);
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null));
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLOSE, new TestPayload("a", null));
+
+        Assert.assertTrue(dispatcher.flush(5, TimeUnit.SECONDS));
+        Mockito.verify(firebase).logEvent(Mockito.eq("batch_in_app_show"), Mockito.<android.os.Bundle>any());
+        Mockito.verify(firebase).logEvent(Mockito.eq("batch_in_app_close"), Mockito.<android.os.Bundle>any());
+        Assert.assertEquals(0, dispatcher.getPendingEventDroppedCount());
+    }
+}
@@ -0,0 +1,171 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+
+import com.batch.android.Batch;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the aggregation of in-app events into one summary per message display
+ */
+public class InAppFunnelAggregatorTest
+{
+    private static final long TIMEOUT = 60_000;
+
+    private final List<String> trackingIds = new ArrayList<>();
+    private final List<InAppFunnelAggregator.Summary> summaries = new ArrayList<>();
+    private final List<Long> releasedRecords = new ArrayList<>();
+
+    private final InAppFunnelAggregator aggregator = new InAppFunnelAggregator(new InAppFunnelAggregator.Emitter()
+    {
+        @Override
+        public void emit(@NonNull Batch.EventDispatcher.Payload payload, @NonNull InAppFunnelAggregator.Summary summary)
+        {
+            trackingIds.add(payload.getTrackingId());
+            summaries.add(summary);
+        }
+
+        @Override
+        public void release(long journalRecord)
+        {
+            releasedRecords.add(journalRecord);
+        }
+    }, TIMEOUT, new String[0]);
+
+    @Test
+    public void testDisplayIsSummarizedOnClose() {
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null), 1000));
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, new TestPayload("a", null), 1500));
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, new TestPayload("a", null), 1700));
+        assertTrue(summaries.isEmpty());
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_CLOSE, new TestPayload("a", null), 4000));
+
+        assertEquals(1, summaries.size());
+        InAppFunnelAggregator.Summary summary = summaries.get(0);
+        assertEquals(2, summary.clickCount);
+        assertEquals(500, summary.timeToFirstClickMillis);
+        assertEquals(3000, summary.displayDurationMillis);
+        assertEquals(InAppFunnelAggregator.REASON_CLOSE, summary.closeReason);
+        assertEquals(0, aggregator.getOpenCount());
+    }
+
+    @Test
+    public void testCloseReasons() {
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "a", 0);
+        record(Batch.EventDispatcher.Type.MESSAGING_CLICK, "a", 100);
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "b", 0);
+        record(Batch.EventDispatcher.Type.MESSAGING_AUTO_CLOSE, "b", 100);
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "c", 0);
+        record(Batch.EventDispatcher.Type.MESSAGING_CLOSE_ERROR, "c", 100);
+
+        assertEquals(3, summaries.size());
+        assertEquals(InAppFunnelAggregator.REASON_CLICK, summaries.get(0).closeReason);
+        assertEquals(1, summaries.get(0).clickCount);
+        assertEquals(100, summaries.get(0).timeToFirstClickMillis);
+        assertEquals(InAppFunnelAggregator.REASON_AUTO_CLOSE, summaries.get(1).closeReason);
+        assertEquals(0, summaries.get(1).clickCount);
+        assertEquals(-1, summaries.get(1).timeToFirstClickMillis);
+        assertEquals(InAppFunnelAggregator.REASON_CLOSE_ERROR, summaries.get(2).closeReason);
+    }
+
+    @Test
+    public void testCloseAfterClickIsPartOfTheDisplay() {
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "a", 0);
+        record(Batch.EventDispatcher.Type.MESSAGING_CLICK, "a", 100);
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_CLOSE, new TestPayload("a", null), 200));
+
+        assertEquals(1, summaries.size());
+        assertEquals(InAppFunnelAggregator.REASON_CLICK, summaries.get(0).closeReason);
+        assertEquals(0, aggregator.getOpenCount());
+
+        // A new show starts a new display, and a close long after the previous one does too
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "a", 1000);
+        record(Batch.EventDispatcher.Type.MESSAGING_CLOSE, "a", 2000);
+        record(Batch.EventDispatcher.Type.MESSAGING_CLOSE, "a", 2000 + TIMEOUT);
+        assertEquals(3, summaries.size());
+        assertEquals(1000, summaries.get(1).displayDurationMillis);
+        assertEquals(InAppFunnelAggregator.REASON_CLOSE, summaries.get(2).closeReason);
+    }
+
+    @Test
+    public void testJournalRecordsAreGivenWithTheSummary() {
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("a", null), 0, 10));
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, new TestPayload("a", null),
+                100, EventJournal.NO_RECORD));
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload("a", null), 200, 11));
+        assertEquals(1, summaries.size());
+        assertArrayEquals(new long[]{10, 11}, summaries.get(0).journalRecords);
+        assertTrue(releasedRecords.isEmpty());
+
+        // The close following the click is dropped, nothing will send it
+        assertTrue(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_CLOSE, new TestPayload("a", null), 300, 12));
+        assertEquals(1, summaries.size());
+        assertEquals(Collections.singletonList(12L), releasedRecords);
+    }
+
+    @Test
+    public void testQuietDisplayTimesOut() {
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "a", 0);
+        record(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, "a", 2000);
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "b", 30_000);
+
+        aggregator.expire(TIMEOUT + 1000);
+        assertTrue(summaries.isEmpty());
+        aggregator.expire(TIMEOUT + 2000);
+        assertEquals(1, summaries.size());
+        assertEquals("a", trackingIds.get(0));
+        assertEquals(InAppFunnelAggregator.REASON_TIMEOUT, summaries.get(0).closeReason);
+        assertEquals(2000, summaries.get(0).displayDurationMillis);
+
+        // Expiration also happens when events are recorded
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "c", 30_000 + TIMEOUT);
+        assertEquals(2, summaries.size());
+        assertEquals("b", trackingIds.get(1));
+        assertEquals(1, aggregator.getOpenCount());
+    }
+
+    @Test
+    public void testShowAgainReplacesOpenDisplay() {
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "a", 0);
+        record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "a", 5000);
+
+        assertEquals(1, summaries.size());
+        assertEquals(InAppFunnelAggregator.REASON_REPLACED, summaries.get(0).closeReason);
+        assertEquals(1, aggregator.getOpenCount());
+    }
+
+    @Test
+    public void testOpenDisplaysAreBounded() {
+        for (int i = 0; i <= InAppFunnelAggregator.MAX_OPEN_MESSAGES; i++) {
+            record(Batch.EventDispatcher.Type.MESSAGING_SHOW, "id" + i, i);
+        }
+        assertEquals(InAppFunnelAggregator.MAX_OPEN_MESSAGES, aggregator.getOpenCount());
+        assertEquals(1, summaries.size());
+        assertEquals("id0", trackingIds.get(0));
+
+        aggregator.expireAll();
+        assertEquals(InAppFunnelAggregator.MAX_OPEN_MESSAGES + 1, summaries.size());
+        assertEquals(0, aggregator.getOpenCount());
+    }
+
+    @Test
+    public void testOtherEventsAreNotAggregated() {
+        assertFalse(aggregator.record(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload(null, null), 0));
+        assertFalse(aggregator.record(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, new TestPayload("a", null), 0));
+        assertEquals(0, aggregator.getOpenCount());
+    }
+
+    private void record(Batch.EventDispatcher.Type type, String trackingId, long now) {
+        assertTrue(aggregator.record(type, new TestPayload(trackingId, null), now));
+    }
+}
@@ -0,0 +1,60 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the log-linear latency histogram
+ */
+public class LatencyHistogramTest
+{
+    @Test
+    public void testBucketBounds() {
+        for (long value = 0; value < 100_000; value++) {
+            int index = LatencyHistogram.bucketIndex(value);
+            assertTrue(LatencyHistogram.bucketLowerBound(index) <= value);
+            assertTrue(LatencyHistogram.bucketUpperBound(index) >= value);
+        }
+        // Small values are exact
+        assertEquals(7, LatencyHistogram.bucketIndex(7));
+        assertEquals(8, LatencyHistogram.bucketIndex(8));
+        assertEquals(15, LatencyHistogram.bucketIndex(15));
+        // Larger ones are known within 12.5%
+        int index = LatencyHistogram.bucketIndex(1_000_000);
+        long lower = LatencyHistogram.bucketLowerBound(index);
+        long upper = LatencyHistogram.bucketUpperBound(index);
+        assertTrue((upper - lower) <= lower / LatencyHistogram.SUB_BUCKETS);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000L);
+        }
+
+        LatencySnapshot snapshot = histogram.snapshot(false);
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(500_500, snapshot.getMeanNanos(), 500_500 / 8);
+        assertEquals(1_000_000, snapshot.getMaxNanos());
+        assertEquals(500_000, snapshot.getPercentileNanos(50), 500_000 / 8);
+        assertEquals(990_000, snapshot.getPercentileNanos(99), 990_000 / 8);
+        assertEquals(1_000_000, snapshot.getPercentileNanos(100));
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(42);
+        histogram.record(-1);
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(3, histogram.snapshot(true).getCount());
+        LatencySnapshot empty = histogram.snapshot(false);
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getMaxNanos());
+        assertEquals(0, empty.getPercentileNanos(99));
+    }
+}
@@ -0,0 +1,177 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the mapping rules provided by the app
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class MappingRulesTest
+{
+    /**
+     * Context without manifest, recording the threads trying to read it
+     */
+    private static class ManifestContext extends ContextWrapper
+    {
+        final List<Thread> readers = Collections.synchronizedList(new ArrayList<Thread>());
+
+        ManifestContext()
+        {
+            super(null);
+        }
+
+        @Override
+        public Context getApplicationContext()
+        {
+            return this;
+        }
+
+        @Override
+        public String getPackageName()
+        {
+            return "com.batch.android.dispatcher.firebase.test";
+        }
+
+        @Override
+        public PackageManager getPackageManager()
+        {
+            readers.add(Thread.currentThread());
+            return null;
+        }
+    }
+
+    private FirebaseDispatcher firebaseDispatcher;
+
+    @After
+    public void tearDown() {
+        if (firebaseDispatcher != null) {
+            firebaseDispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testExtraDeeplinkParameter() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setMappingRules("{\"rules\": [{\"param\": \"gclid\", \"sources\": [\"deeplink:gclid\"]}]}")
+                .build());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com?utm_source=push&GCLID=abc#gclid=def"));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestPayload("id", "https://batch.com#gclid=def"));
+
+        Assert.assertEquals(2, logger.getEvents().size());
+        Bundle notification = logger.getEvents().get(0).params;
+        Assert.assertEquals("abc", notification.getString("gclid"));
+        Assert.assertEquals("push", notification.getString("source"));
+        Assert.assertEquals("def", logger.getEvents().get(1).params.getString("gclid"));
+    }
+
+    @Test
+    public void testOverrideAndRemoveDefaultParameters() {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setMappingRules("{\"rules\": [" +
+                        "{\"events\": [\"in_app\"], \"param\": \"medium\", \"sources\": [\"custom:batch_medium\", \"constant:inapp\"]}," +
+                        "{\"events\": [\"MESSAGING_CLICK\"], \"param\": \"batch_tracking_id\", \"sources\": []}" +
+                        "]}")
+                .build());
+
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW,
+                new TestPayload("id", null).withCustomValue("batch_medium", "banner"));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_CLICK, new TestPayload("id", null));
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, new TestPayload(null, null));
+
+        Bundle show = logger.getEvents().get(0).params;
+        Assert.assertEquals("banner", show.getString("medium"));
+        Assert.assertEquals("id", show.getString("batch_tracking_id"));
+        Bundle click = logger.getEvents().get(1).params;
+        Assert.assertEquals("inapp", click.getString("medium"));
+        Assert.assertFalse(click.containsKey("batch_tracking_id"));
+        Assert.assertEquals("push", logger.getEvents().get(2).params.getString("medium"));
+    }
+
+    @Test
+    public void testCustomPayloadKeysAreCapturedForAsyncDispatch() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        firebaseDispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setAsyncDispatchEnabled(true)
+                .setMappingRules("{\"rules\": [{\"param\": \"batch_ref\", \"sources\": [\"custom:ref\"]}]}")
+                .build());
+
+        TestPayload payload = new TestPayload("id", null).withCustomValue("ref", "newsletter");
+        firebaseDispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, payload);
+        payload.customValues.clear();
+
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+        Assert.assertEquals("newsletter", logger.getEvents().get(0).params.getString("batch_ref"));
+    }
+
+    @Test
+    public void testManifestIsOnlyReadWhenEnabled() throws Exception {
+        ManifestContext context = new ManifestContext();
+        firebaseDispatcher = new FirebaseDispatcher(context, new FirebaseDispatcherConfig.Builder()
+                .setLazyInitializationEnabled(true)
+                .build());
+
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+        Assert.assertTrue(context.readers.isEmpty());
+    }
+
+    @Test
+    public void testManifestIsReadOnTheInitializationThread() throws Exception {
+        ManifestContext context = new ManifestContext();
+        firebaseDispatcher = new FirebaseDispatcher(context, new FirebaseDispatcherConfig.Builder()
+                .setLazyInitializationEnabled(true)
+                .setManifestMappingRulesEnabled(true)
+                .build());
+
+        Assert.assertTrue(firebaseDispatcher.flush(5, TimeUnit.SECONDS));
+        Assert.assertEquals(1, context.readers.size());
+        Assert.assertNotSame(Thread.currentThread(), context.readers.get(0));
+        // Without rules in the manifest, the default mapping is used
+        Assert.assertEquals(0, firebaseDispatcher.getAttributionCacheStats().getMissCount());
+    }
+
+    @Test
+    public void testInvalidRules() {
+        assertInvalid("not json", "Invalid Firebase dispatcher mapping rules");
+        assertInvalid("{\"rule\": []}", "Unknown field 'rule'");
+        assertInvalid("{\"rules\": [{\"param\": \"1gclid\", \"sources\": []}]}", "rules[0]: Invalid parameter name '1gclid'");
+        assertInvalid("{\"rules\": [{\"param\": \"firebase_id\", \"sources\": []}]}", "reserved prefix");
+        assertInvalid("{\"rules\": [{\"param\": \"gclid\", \"sources\": [\"url:gclid\"]}]}", "Unknown source 'url:gclid'");
+        assertInvalid("{\"rules\": [{\"param\": \"gclid\", \"sources\": [\"query:\"]}]}", "has no key");
+        assertInvalid("{\"rules\": [{\"param\": \"gclid\", \"events\": [\"push\"], \"sources\": []}]}", "Unknown event 'push'");
+        assertInvalid("{\"rules\": [{\"param\": \"gclid\", \"source\": []}]}", "Unknown field 'source'");
+    }
+
+    private static void assertInvalid(String json, String expectedMessage) {
+        try {
+            MappingRules.parse(json);
+            Assert.fail("Expected rules to be rejected: " + json);
+        } catch (IllegalArgumentException e) {
+            Assert.assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+}
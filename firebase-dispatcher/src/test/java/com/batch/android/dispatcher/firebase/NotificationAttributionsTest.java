@@ -0,0 +1,44 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Test the attributes kept from notification displays
+ */
+public class NotificationAttributionsTest
+{
+    private final NotificationAttributions attributions = new NotificationAttributions();
+
+    @Test
+    public void testDisplayedAttributesAreReused() {
+        UtmAttributes attributes = UtmExtractor.extract("https://batch.com?utm_campaign=summer");
+        attributions.put("https://batch.com?utm_campaign=summer", attributes, 0);
+
+        assertSame(attributes, attributions.get("https://batch.com?utm_campaign=summer", 1000));
+        assertNull(attributions.get("https://batch.com?utm_campaign=winter", 1000));
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        attributions.put("a", UtmAttributes.EMPTY, 0);
+
+        assertSame(UtmAttributes.EMPTY, attributions.get("a", NotificationAttributions.TTL_NANOS - 1));
+        assertNull(attributions.get("a", NotificationAttributions.TTL_NANOS));
+        assertEquals(0, attributions.size());
+    }
+
+    @Test
+    public void testOldestDisplaysAreDropped() {
+        for (int i = 0; i <= NotificationAttributions.MAX_NOTIFICATIONS; i++) {
+            attributions.put("deeplink-" + i, UtmAttributes.EMPTY, i);
+        }
+
+        assertEquals(NotificationAttributions.MAX_NOTIFICATIONS, attributions.size());
+        assertNull(attributions.get("deeplink-0", 100));
+        assertSame(UtmAttributes.EMPTY, attributions.get("deeplink-1", 100));
+    }
+}
@@ -0,0 +1,76 @@
+package com.batch.android.dispatcher.firebase;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+/**
+ * Test the encoding shared by trace and journal records
+ */
+public class RecordCodecTest
+{
+    private static final String[] STRINGS = {
+            "",
+            "utm_campaign",
+            "caf\u00E9",
+            "\u30AD\u30E3\u30F3\u30DA\u30FC\u30F3",
+            "\uD83D\uDE80 launch",
+            "unpaired \uD83D high and \uDE80 low surrogates",
+    };
+
+    @Test
+    public void testStringsAreEncodedLikeGetBytes() {
+        for (String value : STRINGS) {
+            ByteBuffer buffer = ByteBuffer.allocate(RecordCodec.maxStringSize(value));
+            RecordCodec.putString(buffer, value);
+            assertEquals(value, RecordCodec.stringSize(value), buffer.position());
+
+            byte[] expected = value.getBytes(RecordCodec.UTF_8);
+            buffer.flip();
+            assertEquals(expected.length + 1L, RecordCodec.getVarLong(buffer));
+            assertArrayEquals(value, expected, Arrays.copyOfRange(buffer.array(), buffer.position(), buffer.limit()));
+        }
+    }
+
+    @Test
+    public void testStringsAreReadBack() {
+        ByteBuffer heap = ByteBuffer.allocate(1024);
+        ByteBuffer direct = ByteBuffer.allocateDirect(1024);
+        for (ByteBuffer buffer : new ByteBuffer[]{heap, direct}) {
+            RecordCodec.putString(buffer, null);
+            for (String value : STRINGS) {
+                RecordCodec.putString(buffer, value);
+            }
+            buffer.flip();
+            assertNull(RecordCodec.getString(buffer));
+            for (String value : STRINGS) {
+                assertEquals(new String(value.getBytes(RecordCodec.UTF_8), RecordCodec.UTF_8),
+                        RecordCodec.getString(buffer));
+            }
+            assertEquals(0, buffer.remaining());
+        }
+    }
+
+    @Test
+    public void testCorruptedLengthsAreRejected() {
+        long[] lengths = {5, 0x7FFFFFFFL, 0x80000000L};
+        for (long length : lengths) {
+            ByteBuffer buffer = ByteBuffer.allocate(16);
+            RecordCodec.putVarLong(buffer, length);
+            buffer.put(new byte[]{'a', 'b'});
+            buffer.flip();
+            try {
+                RecordCodec.getString(buffer);
+                fail("Length " + length + " was accepted");
+            } catch (IllegalStateException expected) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Bundle;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for FirebaseAnalytics recording the logged events and user properties
+ * Can be gated to hold the dispatching thread inside logEvent.
+ */
+class RecordingAnalyticsSink implements AnalyticsSink, UserPropertySink
+{
+    static class LoggedEvent
+    {
+        final String name;
+        final Bundle params;
+
+        LoggedEvent(String name, Bundle params)
+        {
+            this.name = name;
+            this.params = params;
+        }
+    }
+
+    private final List<LoggedEvent> events = new ArrayList<>();
+
+    /**
+     * Guarded by events: names of the logged events and "property=value" updates, in order
+     */
+    private final List<String> timeline = new ArrayList<>();
+
+    private final Map<String, String> userProperties = new HashMap<>();
+
+    private final CountDownLatch entered = new CountDownLatch(1);
+
+    @Nullable
+    private final CountDownLatch gate;
+
+    RecordingAnalyticsSink()
+    {
+        this(false);
+    }
+
+    /**
+     * @param gated Whether logEvent should block until {@link #open()} is called
+     */
+    RecordingAnalyticsSink(boolean gated)
+    {
+        this.gate = gated ? new CountDownLatch(1) : null;
+    }
+
+    @Override
+    public void logEvent(@NonNull String name, @Nullable Bundle params)
+    {
+        entered.countDown();
+        if (gate != null) {
+            try {
+                gate.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        synchronized (events) {
+            events.add(new LoggedEvent(name, params));
+            timeline.add(name);
+        }
+    }
+
+    @Override
+    public void setUserProperty(@NonNull String name, @Nullable String value)
+    {
+        synchronized (events) {
+            userProperties.put(name, value);
+            timeline.add(name + "=" + value);
+        }
+    }
+
+    /**
+     * Wait until a thread entered logEvent
+     */
+    boolean awaitEntered(long timeout, TimeUnit unit) throws InterruptedException
+    {
+        return entered.await(timeout, unit);
+    }
+
+    /**
+     * Let the threads blocked in logEvent go on
+     */
+    void open()
+    {
+        if (gate != null) {
+            gate.countDown();
+        }
+    }
+
+    List<LoggedEvent> getEvents()
+    {
+        synchronized (events) {
+            return new ArrayList<>(events);
+        }
+    }
+
+    Map<String, String> getUserProperties()
+    {
+        synchronized (events) {
+            return new HashMap<>(userProperties);
+        }
+    }
+
+    /**
+     * @return Names of the logged events and "property=value" user property updates, in order
+     */
+    List<String> getTimeline()
+    {
+        synchronized (events) {
+            return new ArrayList<>(timeline);
+        }
+    }
+
+    /**
+     * @return The value of a parameter for every logged event, in order
+     */
+    List<String> getParams(String key)
+    {
+        List<String> values = new ArrayList<>();
+        for (LoggedEvent event : getEvents()) {
+            values.add(event.params == null ? null : event.params.getString(key));
+        }
+        return values;
+    }
+}
@@ -0,0 +1,175 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Bundle;
+
+import com.batch.android.Batch;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import androidx.annotation.NonNull;
+
+import androidx.test.core.app.ApplicationProvider;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the attribution sent as Firebase user properties
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class StickyAttributionTest
+{
+    private SharedPreferences preferences;
+
+    @Before
+    public void setUp() {
+        Context context = ApplicationProvider.getApplicationContext();
+        preferences = context.getSharedPreferences(StickyAttribution.PREFERENCES_NAME, Context.MODE_PRIVATE);
+        SharedPreferences.Editor editor = preferences.edit();
+        for (String property : StickyAttribution.PROPERTIES) {
+            editor.remove(property);
+        }
+        editor.commit();
+    }
+
+    @Test
+    public void testOnlyChangedValuesAreSent() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        StickyAttribution attribution = new StickyAttribution(sink, null);
+
+        Bundle first = params("summer", "batch", "push");
+        attribution.apply(first);
+        Assert.assertEquals(4, first.size());
+        Assert.assertEquals(Arrays.asList("batch_campaign=summer", "batch_source=batch", "batch_medium=push"),
+                sink.getTimeline());
+
+        Bundle second = params("summer", "batch", "push");
+        attribution.apply(second);
+        Assert.assertEquals(Collections.singleton(MappingSpec.CONTENT), second.keySet());
+
+        Bundle third = params("winter", "batch", "push");
+        attribution.apply(third);
+        Assert.assertEquals("winter", third.getString(MappingSpec.CAMPAIGN));
+        Assert.assertFalse(third.containsKey(MappingSpec.SOURCE));
+        Assert.assertEquals("winter", sink.getUserProperties().get("batch_campaign"));
+        Assert.assertEquals(4, sink.getTimeline().size());
+    }
+
+    @Test
+    public void testMissingValuesKeepTheProperties() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        StickyAttribution attribution = new StickyAttribution(sink, null);
+        attribution.apply(params("summer", "batch", "push"));
+
+        Bundle params = new Bundle();
+        params.putString(MappingSpec.SOURCE, "batch");
+        attribution.apply(params);
+        Assert.assertTrue(params.isEmpty());
+        Assert.assertEquals("summer", sink.getUserProperties().get("batch_campaign"));
+        Assert.assertEquals(3, sink.getTimeline().size());
+    }
+
+    @Test
+    public void testLongValuesAreNotSticky() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        StickyAttribution attribution = new StickyAttribution(sink, preferences);
+        attribution.apply(params("summer", "batch", "push"));
+
+        // 36 code points fit a user property, even with a surrogate pair
+        String fitting = "\uD83D\uDE00" + "abcdefghijklmnopqrstuvwxyz012345678";
+        String tooLong = "abcdefghijklmnopqrstuvwxyz01234567890";
+        Bundle params = params(tooLong, fitting, "push");
+        attribution.apply(params);
+        Assert.assertEquals(tooLong, params.getString(MappingSpec.CAMPAIGN));
+        Assert.assertEquals(fitting, params.getString(MappingSpec.SOURCE));
+        Assert.assertNull(sink.getUserProperties().get("batch_campaign"));
+        Assert.assertEquals(fitting, sink.getUserProperties().get("batch_source"));
+        Assert.assertNull(preferences.getString("batch_campaign", null));
+
+        // Still sent with every event, without clearing the property again
+        params = params(tooLong, fitting, "push");
+        attribution.apply(params);
+        Assert.assertEquals(tooLong, params.getString(MappingSpec.CAMPAIGN));
+        Assert.assertFalse(params.containsKey(MappingSpec.SOURCE));
+        Assert.assertEquals(5, sink.getTimeline().size());
+    }
+
+    @Test
+    public void testAdditionalSinksGetEveryParameter() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        InMemoryAnalyticsSink recorder = new InMemoryAnalyticsSink();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                .setStickyAttributionEnabled(true)
+                .addAnalyticsSink(recorder, new Executor()
+                {
+                    @Override
+                    public void execute(@NonNull Runnable command)
+                    {
+                        command.run();
+                    }
+                })
+                .build());
+        TestPayload payload = new TestPayload(null, "https://batch.com?utm_campaign=summer");
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload);
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+
+        Assert.assertTrue(sink.getEvents().get(1).params.isEmpty());
+        Bundle open = recorder.getEvents().get(1).getParams();
+        Assert.assertEquals("summer", open.getString(MappingSpec.CAMPAIGN));
+        Assert.assertEquals("batch", open.getString(MappingSpec.SOURCE));
+        Assert.assertEquals("push", open.getString(MappingSpec.MEDIUM));
+    }
+
+    @Test
+    public void testValuesSurviveRestarts() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        new StickyAttribution(sink, preferences).apply(params("summer", "batch", "push"));
+
+        RecordingAnalyticsSink restartedSink = new RecordingAnalyticsSink();
+        StickyAttribution restarted = new StickyAttribution(restartedSink, preferences);
+        Bundle params = params("summer", "batch", "in-app");
+        restarted.apply(params);
+        Assert.assertFalse(params.containsKey(MappingSpec.CAMPAIGN));
+        Assert.assertFalse(params.containsKey(MappingSpec.SOURCE));
+        Assert.assertEquals("in-app", params.getString(MappingSpec.MEDIUM));
+        Assert.assertEquals(Collections.singletonList("batch_medium=in-app"), restartedSink.getTimeline());
+    }
+
+    @Test
+    public void testDispatcherSetsPropertiesBeforeTheEvent() {
+        RecordingAnalyticsSink sink = new RecordingAnalyticsSink();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(sink, new FirebaseDispatcherConfig.Builder()
+                .setStickyAttributionEnabled(true)
+                .build());
+        TestPayload payload = new TestPayload(null, "https://batch.com?utm_campaign=summer&utm_content=banner");
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY, payload);
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, payload);
+
+        Assert.assertEquals(Arrays.asList("batch_campaign=summer", "batch_source=batch", "batch_medium=push",
+                "batch_notification_display", "batch_notification_open"), sink.getTimeline());
+        List<RecordingAnalyticsSink.LoggedEvent> events = sink.getEvents();
+        Assert.assertEquals("summer", events.get(0).params.getString(MappingSpec.CAMPAIGN));
+        Assert.assertEquals(Collections.singleton(MappingSpec.CONTENT), events.get(1).params.keySet());
+        Assert.assertEquals("banner", events.get(1).params.getString(MappingSpec.CONTENT));
+    }
+
+    private static Bundle params(String campaign, String source, String medium) {
+        Bundle params = new Bundle();
+        params.putString(MappingSpec.CAMPAIGN, campaign);
+        params.putString(MappingSpec.SOURCE, source);
+        params.putString(MappingSpec.MEDIUM, medium);
+        params.putString(MappingSpec.CONTENT, "banner");
+        return params;
+    }
+}
@@ -0,0 +1,88 @@
+package com.batch.android.dispatcher.firebase;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.batch.android.Batch;
+import com.batch.android.BatchMessage;
+import com.batch.android.BatchPushPayload;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Mutable event payload usable without Robolectric
+ */
+class TestPayload implements Batch.EventDispatcher.Payload
+{
+    String trackingId;
+    String webViewAnalyticsId;
+    String deeplink;
+    final Map<String, String> customValues = new HashMap<>();
+
+    TestPayload(String trackingId, String deeplink)
+    {
+        this.trackingId = trackingId;
+        this.deeplink = deeplink;
+    }
+
+    TestPayload withWebViewAnalyticsId(String webViewAnalyticsId)
+    {
+        this.webViewAnalyticsId = webViewAnalyticsId;
+        return this;
+    }
+
+    TestPayload withCustomValue(String key, String value)
+    {
+        customValues.put(key, value);
+        return this;
+    }
+
+    @Nullable
+    @Override
+    public String getTrackingId()
+    {
+        return trackingId;
+    }
+
+    @Nullable
+    @Override
+    public String getWebViewAnalyticsID()
+    {
+        return webViewAnalyticsId;
+    }
+
+    @Nullable
+    @Override
+    public String getDeeplink()
+    {
+        return deeplink;
+    }
+
+    @Nullable
+    @Override
+    public String getCustomValue(@NonNull String key)
+    {
+        return customValues.get(key);
+    }
+
+    @Override
+    public boolean isPositiveAction()
+    {
+        return false;
+    }
+
+    @Nullable
+    @Override
+    public BatchMessage getMessagingPayload()
+    {
+        return null;
+    }
+
+    @Nullable
+    @Override
+    public BatchPushPayload getPushPayload()
+    {
+        return null;
+    }
+}
@@ -0,0 +1,139 @@
+package com.batch.android.dispatcher.firebase;
+
+import android.os.Build;
+
+import com.batch.android.Batch;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+/**
+ * Test the capture of events to a binary trace, and reading it back
+ */
+@RunWith(AndroidJUnit4.class)
+@Config(sdk = Build.VERSION_CODES.O_MR1)
+public class TraceWriterTest
+{
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("batch-trace", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void testRecordsAreReadBack() throws IOException {
+        TraceWriter writer = new TraceWriter(file);
+        writer.record(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com/\u00e9?utm_source=push")
+                        .withCustomValue("utm_campaign", "summer")
+                        .withCustomValue("ignored", "value"),
+                new String[]{"utm_campaign", "utm_medium"});
+        writer.record(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK,
+                new TestPayload("tracking", null).withWebViewAnalyticsId(""),
+                new String[0]);
+        writer.close();
+
+        TraceReader reader = new TraceReader(file);
+        TraceReader.Record first = reader.next();
+        Assert.assertEquals(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, first.type);
+        Assert.assertEquals("https://batch.com/\u00e9?utm_source=push", first.getDeeplink());
+        Assert.assertNull(first.getTrackingId());
+        Assert.assertNull(first.getWebViewAnalyticsID());
+        Assert.assertEquals("summer", first.getCustomValue("utm_campaign"));
+        Assert.assertNull(first.getCustomValue("utm_medium"));
+        Assert.assertNull(first.getCustomValue("ignored"));
+
+        TraceReader.Record second = reader.next();
+        Assert.assertEquals(Batch.EventDispatcher.Type.MESSAGING_WEBVIEW_CLICK, second.type);
+        Assert.assertEquals("tracking", second.getTrackingId());
+        Assert.assertEquals("", second.getWebViewAnalyticsID());
+        Assert.assertNull(second.getDeeplink());
+        Assert.assertTrue(second.timestampNanos >= first.timestampNanos);
+
+        Assert.assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testRecordsLargerThanTheBuffer() throws IOException {
+        StringBuilder deeplink = new StringBuilder("https://batch.com/?utm_content=");
+        while (deeplink.length() < 200_000) {
+            deeplink.append("0123456789");
+        }
+        TraceWriter writer = new TraceWriter(file);
+        for (int i = 0; i < 3; i++) {
+            writer.record(Batch.EventDispatcher.Type.NOTIFICATION_DISPLAY,
+                    new TestPayload(null, i == 1 ? deeplink.toString() : "https://batch.com/" + i),
+                    new String[0]);
+        }
+        writer.close();
+
+        TraceReader reader = new TraceReader(file);
+        Assert.assertEquals("https://batch.com/0", reader.next().getDeeplink());
+        Assert.assertEquals(deeplink.toString(), reader.next().getDeeplink());
+        Assert.assertEquals("https://batch.com/2", reader.next().getDeeplink());
+        Assert.assertNull(reader.next());
+        reader.close();
+    }
+
+    @Test
+    public void testOtherFilesAreRejected() throws IOException {
+        FileOutputStream stream = new FileOutputStream(file);
+        stream.write("not a trace".getBytes("UTF-8"));
+        stream.close();
+        try {
+            new TraceReader(file);
+            Assert.fail("A file that isn't a trace should be rejected");
+        } catch (IOException expected) {
+            // Expected
+        }
+    }
+
+    @Test
+    public void testDispatcherCapturesEveryIncomingEvent() throws Exception {
+        RecordingAnalyticsSink logger = new RecordingAnalyticsSink();
+        FirebaseDispatcher dispatcher = new FirebaseDispatcher(logger, new FirebaseDispatcherConfig.Builder()
+                .setTraceCaptureFile(file)
+                .build());
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_OPEN,
+                new TestPayload(null, "https://batch.com?utm_source=push").withCustomValue("utm_campaign", "summer"));
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.MESSAGING_SHOW, new TestPayload("tracking", null));
+        Assert.assertTrue(dispatcher.flush(1, TimeUnit.SECONDS));
+
+        TraceReader reader = new TraceReader(file);
+        TraceReader.Record open = reader.next();
+        Assert.assertEquals(Batch.EventDispatcher.Type.NOTIFICATION_OPEN, open.type);
+        Assert.assertEquals("summer", open.getCustomValue("utm_campaign"));
+        Assert.assertEquals(Batch.EventDispatcher.Type.MESSAGING_SHOW, reader.next().type);
+        Assert.assertNull(reader.next());
+        reader.close();
+
+        dispatcher.shutdown();
+        dispatcher.dispatchEvent(Batch.EventDispatcher.Type.NOTIFICATION_DISMISS, new TestPayload(null, null));
+        Assert.assertEquals(3, logger.getEvents().size());
+        reader = new TraceReader(file);
+        int count = 0;
+        while (reader.next() != null) {
+            count++;
+        }
+        reader.close();
+        Assert.assertEquals("Events dispatched after shutdown aren't captured", 2, count);
+    }
+}